@@ -0,0 +1,304 @@
+/*
+ * Copyright 2014 Ruediger Moeller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nustaq.serialization.bench;
+
+import org.nustaq.serialization.FSTConfiguration;
+import org.nustaq.serialization.annotations.Delta;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Object graphs used by the benchmarks. Each graph is created deterministically so sizes are comparable
+ * between runs.
+ */
+public class BenchGraphs {
+
+    public static final String RPC = "rpc";
+    public static final String POJO_TREE = "pojoTree";
+    public static final String PRIMITIVE_ARRAYS = "primitiveArrays";
+    public static final String STRING_MAP = "stringMap";
+    public static final String CYCLIC = "cyclic";
+    public static final String COMPATIBLE = "compatible";
+
+    public static final String ALL[] = { RPC, POJO_TREE, PRIMITIVE_ARRAYS, STRING_MAP, CYCLIC, COMPATIBLE };
+
+    public static FSTConfiguration createConfiguration(boolean shareReferences) {
+        FSTConfiguration conf = FSTConfiguration.createDefaultConfiguration();
+        conf.setShareReferences(shareReferences);
+        conf.registerClass(
+            RpcMessage.class, TreeNode.class, PrimitiveArrays.class, StringMapHolder.class,
+            GraphNode.class, CompatibleRecord.class
+        );
+        return conf;
+    }
+
+    /**
+     * @param name one of the graph names defined above
+     * @param shareReferences cyclic graphs can only be written with reference sharing enabled, if false
+     *                        the back edges are omitted (shape and payload stay the same otherwise)
+     */
+    public static Object create(String name, boolean shareReferences) {
+        if ( RPC.equals(name) ) {
+            return createRpc();
+        } else if ( POJO_TREE.equals(name) ) {
+            return createTree(0, 10);
+        } else if ( PRIMITIVE_ARRAYS.equals(name) ) {
+            return new PrimitiveArrays(100_000);
+        } else if ( STRING_MAP.equals(name) ) {
+            return createStringMap(500);
+        } else if ( CYCLIC.equals(name) ) {
+            return createCyclic(500, shareReferences);
+        } else if ( COMPATIBLE.equals(name) ) {
+            return createCompatible(200);
+        }
+        throw new IllegalArgumentException("unknown graph "+name);
+    }
+
+    static RpcMessage createRpc() {
+        RpcMessage msg = new RpcMessage();
+        msg.receiverKey = 17;
+        msg.callbackId = 4711;
+        msg.timestamp = 1_450_000_000_000l;
+        msg.method = "placeOrder";
+        msg.args = new Object[] { "EUR/USD", 1_000_000, 1.0823d, Boolean.TRUE };
+        return msg;
+    }
+
+    static TreeNode createTree(int id, int depth) {
+        TreeNode node = new TreeNode();
+        node.id = id;
+        node.label = "node-"+id;
+        node.weight = id * 0.5d;
+        node.active = (id & 1) == 0;
+        if ( depth > 0 ) {
+            node.left = createTree(id*2+1, depth - 1);
+            node.right = createTree(id*2+2, depth - 1);
+        }
+        return node;
+    }
+
+    static StringMapHolder createStringMap(int size) {
+        StringMapHolder holder = new StringMapHolder();
+        Random rnd = new Random(size);
+        for (int i = 0; i < size; i++) {
+            holder.attributes.put("attribute.key."+i, "value-"+Long.toHexString(rnd.nextLong()));
+        }
+        holder.tags = new String[] { "alpha", "beta", "gamma", "delta" };
+        return holder;
+    }
+
+    static GraphNode createCyclic(int size, boolean linkBack) {
+        List<GraphNode> nodes = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            nodes.add(new GraphNode(i, "graph-node-"+(i%32)));
+        }
+        for (int i = 0; i < size; i++) {
+            GraphNode node = nodes.get(i);
+            if ( i+1 < size ) {
+                node.next = nodes.get(i+1);
+            }
+            if ( linkBack && i > 0 ) {
+                node.prev = nodes.get(i-1);
+                node.parent = nodes.get(i/2);
+            }
+        }
+        return nodes.get(0);
+    }
+
+    /**
+     * flat list of nodes each referencing two previously written nodes, so large sizes do not recurse deeply
+     */
+    static List<GraphNode> createSharedList(int size) {
+        List<GraphNode> nodes = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            GraphNode node = new GraphNode(i, "graph-node-"+(i%32));
+            if ( i > 0 ) {
+                node.prev = nodes.get(i-1);
+                node.parent = nodes.get(i/2);
+            }
+            nodes.add(node);
+        }
+        return nodes;
+    }
+
+    static List<Quote> createQuotes(int size) {
+        List<Quote> quotes = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Quote quote = new Quote();
+            quote.timestamp = 1_450_000_000_000l + i;
+            quote.symbol = "SYM"+(i%64);
+            quote.bid = 100.0d + (i % 100) * 0.25d;
+            quote.ask = quote.bid + 0.25d;
+            quote.size = i % 1000;
+            quote.venue = new Venue(i % 8, "venue-"+(i%8));
+            quotes.add(quote);
+        }
+        return quotes;
+    }
+
+    /**
+     * ascending timestamps (~1s apart with jitter) and slowly growing ids
+     */
+    static Object createTimeSeries(int size, boolean delta) {
+        Random rnd = new Random(size);
+        long timestamps[] = new long[size];
+        int ids[] = new int[size];
+        long time = 1_450_000_000_000l;
+        int id = 1000;
+        for (int i = 0; i < size; i++) {
+            time += 1000 + rnd.nextInt(50);
+            id += rnd.nextInt(4);
+            timestamps[i] = time;
+            ids[i] = id;
+        }
+        if (delta) {
+            DeltaTimeSeries series = new DeltaTimeSeries();
+            series.timestamps = timestamps;
+            series.ids = ids;
+            return series;
+        }
+        TimeSeries series = new TimeSeries();
+        series.timestamps = timestamps;
+        series.ids = ids;
+        return series;
+    }
+
+    static CompatibleRecord[] createCompatible(int size) {
+        CompatibleRecord res[] = new CompatibleRecord[size];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = new CompatibleRecord(i, "record-"+i, i*1.25d);
+        }
+        return res;
+    }
+
+    public static class RpcMessage implements Serializable {
+        int receiverKey;
+        int callbackId;
+        long timestamp;
+        String method;
+        Object args[];
+    }
+
+    public static class TreeNode implements Serializable {
+        int id;
+        boolean active;
+        double weight;
+        String label;
+        TreeNode left, right;
+    }
+
+    public static class PrimitiveArrays implements Serializable {
+        byte bytes[];
+        int ints[];
+        long longs[];
+        double doubles[];
+
+        public PrimitiveArrays(int len) {
+            bytes = new byte[len];
+            ints = new int[len];
+            longs = new long[len];
+            doubles = new double[len];
+            for (int i = 0; i < len; i++) {
+                bytes[i] = (byte) i;
+                ints[i] = i * 31;
+                longs[i] = 1_450_000_000_000l + i * 1000;
+                doubles[i] = 100.0d + (i % 100) * 0.25d;
+            }
+        }
+    }
+
+    public static class StringMapHolder implements Serializable {
+        HashMap<String,String> attributes = new HashMap<>();
+        String tags[];
+    }
+
+    public static class GraphNode implements Serializable {
+        int id;
+        String name;
+        GraphNode next, prev, parent;
+
+        public GraphNode(int id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+    }
+
+    /**
+     * value type: can not be part of a cycle, see FSTConfiguration.setAutoFlat
+     */
+    public static class Quote implements Serializable {
+        long timestamp;
+        String symbol;
+        double bid, ask;
+        int size;
+        Venue venue;
+    }
+
+    public static final class Venue implements Serializable {
+        final int id;
+        final String name;
+
+        public Venue(int id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+    }
+
+    public static class TimeSeries implements Serializable {
+        long timestamps[];
+        int ids[];
+    }
+
+    public static class DeltaTimeSeries implements Serializable {
+        @Delta long timestamps[];
+        @Delta int ids[];
+    }
+
+    /**
+     * defines writeObject/readObject, so fst falls back to its JDK compatible code path
+     */
+    public static class CompatibleRecord implements Serializable {
+        int id;
+        String name;
+        double amount;
+        transient int hash;
+
+        public CompatibleRecord(int id, String name, double amount) {
+            this.id = id;
+            this.name = name;
+            this.amount = amount;
+            this.hash = name.hashCode();
+        }
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            out.defaultWriteObject();
+            out.writeInt(hash);
+        }
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            hash = in.readInt();
+        }
+    }
+
+}
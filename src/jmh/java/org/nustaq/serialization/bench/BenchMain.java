@@ -0,0 +1,53 @@
+/*
+ * Copyright 2014 Ruediger Moeller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nustaq.serialization.bench;
+
+import org.nustaq.serialization.FSTConfiguration;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of the 'jmh' gradle task. Prints the serialized size of each benchmark graph, then runs the
+ * selected benchmarks (regular JMH command line arguments apply) with the GC profiler attached, so ops/s,
+ * bytes per message and allocation rate (gc.alloc.rate.norm) are reported together.
+ */
+public class BenchMain {
+
+    static void reportSize(String api, String graph, boolean shareReferences, int size) {
+        System.out.println("[size] " + api + " graph=" + graph + " shareReferences=" + shareReferences + " bytes/msg=" + size);
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        for (int i = 0; i < BenchGraphs.ALL.length; i++) {
+            String graph = BenchGraphs.ALL[i];
+            for (boolean share : new boolean[] { true, false }) {
+                FSTConfiguration conf = BenchGraphs.createConfiguration(share);
+                reportSize("asByteArray", graph, share, conf.asByteArray(BenchGraphs.create(graph, share)).length);
+            }
+        }
+        Options opt = new OptionsBuilder()
+            .parent(new CommandLineOptions(args))
+            .addProfiler(GCProfiler.class)
+            .build();
+        new Runner(opt).run();
+    }
+
+}
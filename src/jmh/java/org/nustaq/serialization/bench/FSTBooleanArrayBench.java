@@ -0,0 +1,78 @@
+/*
+ * Copyright 2014 Ruediger Moeller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nustaq.serialization.bench;
+
+import org.nustaq.serialization.FSTConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FSTConfiguration.setPackBooleanArrays (1 bit per element) against the default byte per element encoding of boolean[].
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FSTBooleanArrayBench {
+
+    @Param({ "100", "10000", "1000000" })
+    public int size;
+
+    @Param({ "false", "true" })
+    public boolean pack;
+
+    FSTConfiguration conf;
+    boolean flags[];
+    byte encoded[];
+    int length[] = new int[1];
+
+    @Setup
+    public void setup() {
+        conf = FSTConfiguration.createDefaultConfiguration().setPackBooleanArrays(pack);
+        Random rnd = new Random(13);
+        flags = new boolean[size];
+        for (int i = 0; i < flags.length; i++) {
+            flags[i] = rnd.nextInt(4) == 0;
+        }
+        encoded = conf.asByteArray(flags);
+        System.out.println("\nsize=" + size + " pack=" + pack + " bytes=" + encoded.length);
+    }
+
+    @Benchmark
+    public byte[] write() {
+        return conf.asSharedByteArray(flags, length);
+    }
+
+    @Benchmark
+    public Object read() {
+        return conf.asObject(encoded);
+    }
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2014 Ruediger Moeller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nustaq.serialization.bench;
+
+import org.nustaq.serialization.FSTConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * measures FSTConfiguration.asByteArray / asObject. Run with '-prof gc' (default when started via
+ * {@link BenchMain}) to get allocation rates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FSTByteArrayBench {
+
+    @Param({ BenchGraphs.RPC, BenchGraphs.POJO_TREE, BenchGraphs.PRIMITIVE_ARRAYS, BenchGraphs.STRING_MAP, BenchGraphs.CYCLIC, BenchGraphs.COMPATIBLE })
+    public String graph;
+
+    @Param({ "true", "false" })
+    public boolean shareReferences;
+
+    FSTConfiguration conf;
+    Object message;
+    byte encoded[];
+
+    @Setup
+    public void setup() {
+        conf = BenchGraphs.createConfiguration(shareReferences);
+        message = BenchGraphs.create(graph, shareReferences);
+        encoded = conf.asByteArray(message);
+        BenchMain.reportSize("asByteArray", graph, shareReferences, encoded.length);
+    }
+
+    @Benchmark
+    public byte[] asByteArray() {
+        return conf.asByteArray(message);
+    }
+
+    @Benchmark
+    public Object asObject() {
+        return conf.asObject(encoded);
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2014 Ruediger Moeller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nustaq.serialization.bench;
+
+import org.nustaq.serialization.FSTConfiguration;
+import org.nustaq.serialization.FSTObjectOutput;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializing to / from a direct ByteBuffer (as handed to NIO channels): copying via a heap byte[]
+ * vs. FSTConfiguration.getByteBufferOutput/getByteBufferInput.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FSTByteBufferBench {
+
+    @Param({ BenchGraphs.RPC, BenchGraphs.PRIMITIVE_ARRAYS, BenchGraphs.STRING_MAP })
+    public String graph;
+
+    FSTConfiguration conf;
+    Object message;
+    ByteBuffer direct;
+    int encodedLength;
+    byte heap[];
+    int length[] = new int[1];
+
+    @Setup
+    public void setup() {
+        conf = BenchGraphs.createConfiguration(true);
+        message = BenchGraphs.create(graph, true);
+        byte encoded[] = conf.asByteArray(message);
+        direct = ByteBuffer.allocateDirect(encoded.length * 2);
+        direct.put(encoded);
+        encodedLength = encoded.length;
+        heap = new byte[encoded.length];
+    }
+
+    @Benchmark
+    public ByteBuffer writeViaHeapArray() {
+        direct.clear();
+        byte bytes[] = conf.asSharedByteArray(message, length);
+        direct.put(bytes, 0, length[0]);
+        return direct;
+    }
+
+    @Benchmark
+    public ByteBuffer writeDirect() throws IOException {
+        direct.clear();
+        FSTObjectOutput out = conf.getByteBufferOutput(direct);
+        out.writeObject(message);
+        out.flush();
+        return direct;
+    }
+
+    @Benchmark
+    public Object readViaHeapArray() {
+        direct.clear();
+        direct.get(heap, 0, encodedLength);
+        return conf.asObject(heap);
+    }
+
+    @Benchmark
+    public Object readDirect() throws Exception {
+        direct.clear();
+        direct.limit(encodedLength);
+        return conf.getByteBufferInput(direct).readObject();
+    }
+
+}
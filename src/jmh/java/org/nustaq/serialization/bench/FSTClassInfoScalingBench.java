@@ -0,0 +1,126 @@
+/*
+ * Copyright 2014 Ruediger Moeller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nustaq.serialization.bench;
+
+import org.nustaq.serialization.FSTConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Many threads sharing one FSTConfiguration and serializing messages mixing many classes, so the per
+ * stream class info caches miss and each write goes to FSTClazzInfoRegistry. Throughput (total ops/s over all
+ * threads) should grow linearly with the thread count up to the number of cores.
+ * <p>
+ * Compare the threadsN results, e.g. gradle jmh -PjmhArgs="FSTClassInfoScalingBench"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FSTClassInfoScalingBench {
+
+    static final Class CLASSES[] = {
+        String.class, Integer.class, Long.class, Double.class, Date.class, BigDecimal.class, BigInteger.class,
+        ArrayList.class, LinkedList.class, HashMap.class, HashSet.class, TreeMap.class,
+        BenchGraphs.RpcMessage.class, BenchGraphs.TreeNode.class, BenchGraphs.StringMapHolder.class,
+        BenchGraphs.GraphNode.class, BenchGraphs.CompatibleRecord.class, BenchGraphs.PrimitiveArrays.class,
+        int[].class, long[].class, Object[].class, String[].class
+    };
+
+    FSTConfiguration conf;
+    Object mixed[];
+
+    @Setup
+    public void setup() {
+        conf = BenchGraphs.createConfiguration(true);
+        mixed = new Object[] {
+            "string", 17, 18l, 1.5d, new Date(0), new BigDecimal("1.25"), BigInteger.TEN,
+            new ArrayList(), new LinkedList(), new HashMap(), new HashSet(), new TreeMap(),
+            BenchGraphs.createRpc(), BenchGraphs.createTree(0, 1), BenchGraphs.createStringMap(2),
+            BenchGraphs.createCyclic(3, true), BenchGraphs.createCompatible(2),
+            new int[] { 1, 2 }, new long[] { 3 }, new String[] { "a" }
+        };
+    }
+
+    void lookup(Blackhole bh) {
+        for (int i = 0; i < CLASSES.length; i++) {
+            bh.consume(conf.getClassInfo(CLASSES[i]));
+        }
+    }
+
+    @Benchmark @Threads(1)
+    public void lookupThreads1(Blackhole bh) {
+        lookup(bh);
+    }
+
+    @Benchmark @Threads(4)
+    public void lookupThreads4(Blackhole bh) {
+        lookup(bh);
+    }
+
+    @Benchmark @Threads(16)
+    public void lookupThreads16(Blackhole bh) {
+        lookup(bh);
+    }
+
+    @Benchmark @Threads(64)
+    public void lookupThreads64(Blackhole bh) {
+        lookup(bh);
+    }
+
+    @Benchmark @Threads(1)
+    public byte[] mixedThreads1() {
+        return conf.asByteArray(mixed);
+    }
+
+    @Benchmark @Threads(4)
+    public byte[] mixedThreads4() {
+        return conf.asByteArray(mixed);
+    }
+
+    @Benchmark @Threads(16)
+    public byte[] mixedThreads16() {
+        return conf.asByteArray(mixed);
+    }
+
+    @Benchmark @Threads(64)
+    public byte[] mixedThreads64() {
+        return conf.asByteArray(mixed);
+    }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2014 Ruediger Moeller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nustaq.serialization.bench;
+
+import org.nustaq.serialization.FSTConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * generic field loop vs. precompiled field plans (FSTConfiguration.setCompiledFieldAccess) on pojo heavy graphs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FSTCompiledFieldsBench {
+
+    @Param({ BenchGraphs.RPC, BenchGraphs.POJO_TREE, BenchGraphs.CYCLIC })
+    public String graph;
+
+    @Param({ "false", "true" })
+    public boolean compiledFieldAccess;
+
+    FSTConfiguration conf;
+    Object message;
+    byte encoded[];
+
+    @Setup
+    public void setup() {
+        conf = BenchGraphs.createConfiguration(true).setCompiledFieldAccess(compiledFieldAccess);
+        message = BenchGraphs.create(graph, true);
+        encoded = conf.asByteArray(message);
+    }
+
+    @Benchmark
+    public byte[] asByteArray() {
+        return conf.asByteArray(message);
+    }
+
+    @Benchmark
+    public Object asObject() {
+        return conf.asObject(encoded);
+    }
+
+}
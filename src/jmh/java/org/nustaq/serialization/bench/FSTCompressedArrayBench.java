@@ -0,0 +1,101 @@
+/*
+ * Copyright 2014 Ruediger Moeller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nustaq.serialization.bench;
+
+import org.nustaq.serialization.FSTConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Size/CPU trade-off of FSTConfiguration.setCompressPrimitiveArrays. The encoded size of each setup is printed
+ * once, throughput is measured for 100k element int/long arrays holding small ids, growing counters or random values.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FSTCompressedArrayBench {
+
+    public static final String SMALL_IDS = "smallIds";
+    public static final String COUNTERS = "counters";
+    public static final String RANDOM = "random";
+
+    @Param({ SMALL_IDS, COUNTERS, RANDOM })
+    public String data;
+
+    @Param({ "int", "long" })
+    public String type;
+
+    @Param({ "false", "true" })
+    public boolean compress;
+
+    FSTConfiguration conf;
+    Object array;
+    byte encoded[];
+    int length[] = new int[1];
+
+    @Setup
+    public void setup() {
+        conf = FSTConfiguration.createDefaultConfiguration().setCompressPrimitiveArrays(compress);
+        Random rnd = new Random(13);
+        long values[] = new long[100_000];
+        for (int i = 0; i < values.length; i++) {
+            if (SMALL_IDS.equals(data)) {
+                values[i] = rnd.nextInt(100);
+            } else if (COUNTERS.equals(data)) {
+                values[i] = i * 17;
+            } else {
+                values[i] = rnd.nextLong();
+            }
+        }
+        if ("int".equals(type)) {
+            int arr[] = new int[values.length];
+            for (int i = 0; i < arr.length; i++) {
+                arr[i] = (int) values[i];
+            }
+            array = arr;
+        } else {
+            array = values;
+        }
+        encoded = conf.asByteArray(array);
+        System.out.println("\n" + data + " " + type + " compress=" + compress + " bytes=" + encoded.length);
+    }
+
+    @Benchmark
+    public byte[] write() {
+        return conf.asSharedByteArray(array, length);
+    }
+
+    @Benchmark
+    public Object read() {
+        return conf.asObject(encoded);
+    }
+
+}
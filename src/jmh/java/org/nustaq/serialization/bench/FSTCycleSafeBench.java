@@ -0,0 +1,76 @@
+/*
+ * Copyright 2014 Ruediger Moeller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nustaq.serialization.bench;
+
+import org.nustaq.serialization.FSTConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of FSTConfiguration.setCycleSafe compared to full reference sharing and to plain unshared mode.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FSTCycleSafeBench {
+
+    public static final String SHARED = "shared";
+    public static final String CYCLE_SAFE = "cycleSafe";
+    public static final String UNSHARED = "unshared";
+
+    @Param({ BenchGraphs.RPC, BenchGraphs.POJO_TREE, BenchGraphs.STRING_MAP })
+    public String graph;
+
+    @Param({ SHARED, CYCLE_SAFE, UNSHARED })
+    public String mode;
+
+    FSTConfiguration conf;
+    Object message;
+    byte encoded[];
+    int length[] = new int[1];
+
+    @Setup
+    public void setup() {
+        conf = BenchGraphs.createConfiguration(SHARED.equals(mode)).setCycleSafe(CYCLE_SAFE.equals(mode));
+        message = BenchGraphs.create(graph, SHARED.equals(mode));
+        encoded = conf.asByteArray(message);
+    }
+
+    @Benchmark
+    public byte[] write() {
+        return conf.asSharedByteArray(message, length);
+    }
+
+    @Benchmark
+    public Object read() {
+        return conf.asObject(encoded);
+    }
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2014 Ruediger Moeller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nustaq.serialization.bench;
+
+import org.nustaq.serialization.FSTConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Delta annotated timestamp/id arrays compared to the same arrays written plain. Encoded sizes are printed once.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FSTDeltaBench {
+
+    @Param({ "1000", "100000" })
+    public int size;
+
+    @Param({ "false", "true" })
+    public boolean delta;
+
+    FSTConfiguration conf;
+    Object series;
+    byte encoded[];
+    int length[] = new int[1];
+
+    @Setup
+    public void setup() {
+        conf = FSTConfiguration.createDefaultConfiguration();
+        series = BenchGraphs.createTimeSeries(size, delta);
+        encoded = conf.asByteArray(series);
+        System.out.println("\nsize=" + size + " delta=" + delta + " bytes=" + encoded.length);
+    }
+
+    @Benchmark
+    public byte[] write() {
+        return conf.asSharedByteArray(series, length);
+    }
+
+    @Benchmark
+    public Object read() {
+        return conf.asObject(encoded);
+    }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2014 Ruediger Moeller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nustaq.serialization.bench;
+
+import org.nustaq.serialization.FSTConfiguration;
+import org.nustaq.serialization.FSTFramedReader;
+import org.nustaq.serialization.FSTFramedWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trip of one message through a length prefixed frame: hand rolled prefix around asSharedByteArray/asObject
+ * vs. FSTFramedWriter/FSTFramedReader.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FSTFramedBench {
+
+    @Param({ BenchGraphs.RPC, BenchGraphs.STRING_MAP })
+    public String graph;
+
+    FSTConfiguration conf;
+    Object message;
+    FSTFramedWriter writer;
+    FSTFramedReader reader;
+    ByteBuffer wire;
+    int length[] = new int[1];
+
+    @Setup
+    public void setup() {
+        conf = BenchGraphs.createConfiguration(true);
+        message = BenchGraphs.create(graph, true);
+        writer = new FSTFramedWriter(conf);
+        reader = new FSTFramedReader(conf);
+        wire = ByteBuffer.allocate(conf.asByteArray(message).length + 4).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Benchmark
+    public Object handRolled() {
+        wire.clear();
+        byte bytes[] = conf.asSharedByteArray(message, length);
+        wire.putInt(length[0]);
+        wire.put(bytes, 0, length[0]);
+        byte received[] = new byte[wire.getInt(0)];
+        System.arraycopy(wire.array(), 4, received, 0, received.length);
+        return conf.asObject(received);
+    }
+
+    @Benchmark
+    public Object framed() throws Exception {
+        int len = writer.writeFrame(message);
+        reader.received(writer.getBuffer(), 0, len);
+        return reader.readFrame();
+    }
+
+}
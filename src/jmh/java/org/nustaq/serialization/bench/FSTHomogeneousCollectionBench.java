@@ -0,0 +1,86 @@
+/*
+ * Copyright 2014 Ruediger Moeller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nustaq.serialization.bench;
+
+import org.nustaq.serialization.FSTConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FSTConfiguration.setHomogeneousCollections on a 100k element List of quotes and a map of quotes keyed by id.
+ * The encoded size of each setup is printed once.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FSTHomogeneousCollectionBench {
+
+    @Param({ "list", "map" })
+    public String collection;
+
+    @Param({ "false", "true" })
+    public boolean homogeneous;
+
+    FSTConfiguration conf;
+    Object payload;
+    byte encoded[];
+    int length[] = new int[1];
+
+    @Setup
+    public void setup() {
+        conf = FSTConfiguration.createDefaultConfiguration().setHomogeneousCollections(homogeneous);
+        conf.setShareReferences(false);
+        List<BenchGraphs.Quote> quotes = BenchGraphs.createQuotes(100_000);
+        if ("map".equals(collection)) {
+            HashMap<Long,BenchGraphs.Quote> map = new HashMap<>();
+            for (int i = 0; i < quotes.size(); i++) {
+                map.put(quotes.get(i).timestamp, quotes.get(i));
+            }
+            payload = map;
+        } else {
+            payload = quotes;
+        }
+        encoded = conf.asByteArray(payload);
+        System.out.println("\n" + collection + " homogeneous=" + homogeneous + " bytes=" + encoded.length);
+    }
+
+    @Benchmark
+    public byte[] write() {
+        return conf.asSharedByteArray(payload, length);
+    }
+
+    @Benchmark
+    public Object read() {
+        return conf.asObject(encoded);
+    }
+
+}
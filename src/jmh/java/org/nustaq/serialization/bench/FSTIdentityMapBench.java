@@ -0,0 +1,115 @@
+/*
+ * Copyright 2014 Ruediger Moeller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nustaq.serialization.bench;
+
+import org.nustaq.serialization.FSTConfiguration;
+import org.nustaq.serialization.FSTObjectOutput;
+import org.nustaq.serialization.util.FSTIdentity2IdMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing graphs with millions of objects, which is dominated by the identity lookups of FSTObjectRegistry.
+ * Output is discarded (streamed with an incremental flush threshold), so only the serialization side is measured.
+ * <p>
+ * The heap still in use once the graph is dropped and the output has been cleared for reuse is printed at teardown,
+ * it should not contain the identity table of the last write.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class FSTIdentityMapBench {
+
+    @Param({ "1000000", "10000000" })
+    public int objects;
+
+    FSTConfiguration conf;
+    List graph;
+    Object keys[];
+
+    final OutputStream discard = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+        }
+    };
+
+    @Setup
+    public void setup() {
+        conf = BenchGraphs.createConfiguration(true).setOutputFlushThreshold(1 << 20);
+        graph = BenchGraphs.createSharedList(objects);
+        keys = graph.toArray();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        conf.getObjectOutput(discard); // clears the registry like any reuse of the stream
+        graph = null;
+        keys = null;
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        System.out.println("heap retained after clearForWrite " + (rt.totalMemory() - rt.freeMemory()) / 1024 / 1024 + " MB");
+    }
+
+    @Benchmark
+    public FSTObjectOutput writeGraph() throws IOException {
+        FSTObjectOutput out = conf.getObjectOutput(discard);
+        out.writeObject(graph);
+        out.flush();
+        return out;
+    }
+
+    @Benchmark
+    public int identityMap() {
+        FSTIdentity2IdMap map = new FSTIdentity2IdMap(11);
+        final Object[] keys = this.keys;
+        for (int i = 0; i < keys.length; i++) {
+            map.putOrGet(keys[i], i);
+        }
+        int found = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (map.putOrGet(keys[i], -1) == i) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+}
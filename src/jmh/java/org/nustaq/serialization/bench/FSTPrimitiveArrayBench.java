@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014 Ruediger Moeller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nustaq.serialization.bench;
+
+import org.nustaq.serialization.FSTConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding/decoding of large primitive arrays (bulk copied on little endian platforms, see FSTUtil.BULK_ARRAY_COPY).
+ * Compare ops/s * size between array types and sizes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class FSTPrimitiveArrayBench {
+
+    @Param({ "int", "long", "double", "float" })
+    public String type;
+
+    @Param({ "1000", "100000", "10000000" })
+    public int size;
+
+    FSTConfiguration conf;
+    Object array;
+    byte encoded[];
+    int length[] = new int[1];
+
+    @Setup
+    public void setup() {
+        conf = FSTConfiguration.createDefaultConfiguration();
+        if ("int".equals(type)) {
+            int arr[] = new int[size];
+            for (int i = 0; i < size; i++) {
+                arr[i] = i * 31;
+            }
+            array = arr;
+        } else if ("long".equals(type)) {
+            long arr[] = new long[size];
+            for (int i = 0; i < size; i++) {
+                arr[i] = 1_450_000_000_000l + i * 1000;
+            }
+            array = arr;
+        } else if ("double".equals(type)) {
+            double arr[] = new double[size];
+            for (int i = 0; i < size; i++) {
+                arr[i] = 100.0d + (i % 100) * 0.25d;
+            }
+            array = arr;
+        } else {
+            float arr[] = new float[size];
+            for (int i = 0; i < size; i++) {
+                arr[i] = i * 0.5f;
+            }
+            array = arr;
+        }
+        encoded = conf.asByteArray(array);
+    }
+
+    @Benchmark
+    public byte[] write() {
+        return conf.asSharedByteArray(array, length);
+    }
+
+    @Benchmark
+    public Object read() {
+        return conf.asObject(encoded);
+    }
+
+}
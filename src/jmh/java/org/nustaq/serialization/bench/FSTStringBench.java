@@ -0,0 +1,90 @@
+/*
+ * Copyright 2014 Ruediger Moeller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nustaq.serialization.bench;
+
+import org.nustaq.serialization.FSTConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * writeStringUTF/readStringUTF for arrays of short (16 chars) and long (2000 chars) strings. Latin-1 content takes the
+ * bulk path, the non latin content (a few chars >= 255 each) the escaping one.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FSTStringBench {
+
+    public static final String LATIN1 = "latin1";
+    public static final String NON_LATIN = "nonLatin";
+
+    @Param({ "16", "2000" })
+    public int length;
+
+    @Param({ LATIN1, NON_LATIN })
+    public String content;
+
+    FSTConfiguration conf;
+    String strings[];
+    byte encoded[];
+    int size[] = new int[1];
+
+    @Setup
+    public void setup() {
+        conf = FSTConfiguration.createDefaultConfiguration();
+        conf.setShareReferences(false);
+        Random rnd = new Random(13);
+        strings = new String[100];
+        for (int i = 0; i < strings.length; i++) {
+            StringBuilder sb = new StringBuilder(length);
+            for (int j = 0; j < length; j++) {
+                if (NON_LATIN.equals(content) && j % 8 == 0) {
+                    sb.append((char) (0x400 + rnd.nextInt(256)));
+                } else {
+                    sb.append((char) (32 + rnd.nextInt(200)));
+                }
+            }
+            strings[i] = sb.toString();
+        }
+        encoded = conf.asByteArray(strings);
+    }
+
+    @Benchmark
+    public byte[] write() {
+        return conf.asSharedByteArray(strings, size);
+    }
+
+    @Benchmark
+    public Object read() {
+        return conf.asObject(encoded);
+    }
+
+}
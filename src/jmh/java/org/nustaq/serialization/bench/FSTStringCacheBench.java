@@ -0,0 +1,87 @@
+/*
+ * Copyright 2014 Ruediger Moeller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nustaq.serialization.bench;
+
+import org.nustaq.serialization.FSTConfiguration;
+import org.nustaq.serialization.util.FSTStringCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding with and without FSTConfiguration.setStringCache. The payload repeats a small set of keys and values
+ * (hits) mixed with unique order ids (misses). Hit rate is printed on tear down.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FSTStringCacheBench {
+
+    @Param({ "false", "true" })
+    public boolean cache;
+
+    FSTConfiguration conf;
+    FSTStringCache stringCache;
+    byte encoded[];
+
+    @Setup
+    public void setup() {
+        stringCache = cache ? new FSTStringCache(4096, 64) : null;
+        conf = FSTConfiguration.createDefaultConfiguration().setStringCache(stringCache);
+        conf.setShareReferences(false);
+        List<Object> payload = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            HashMap<String,Object> map = new HashMap<>();
+            map.put("status", i % 3 == 0 ? "OPEN" : "FILLED");
+            map.put("symbol", "SYM" + (i % 50));
+            map.put("venue", "XNAS");
+            map.put("quantity", i);
+            map.put("orderId", "ORD-" + i);
+            payload.add(map);
+        }
+        encoded = conf.asByteArray(payload);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (stringCache != null) {
+            System.out.println("\n" + stringCache + " hitRate=" + stringCache.getHitRate());
+        }
+    }
+
+    @Benchmark
+    public Object read() {
+        return conf.asObject(encoded);
+    }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2014 Ruediger Moeller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nustaq.serialization.bench;
+
+import org.nustaq.serialization.FSTConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FSTConfiguration.setStringTableSize and FSTConfiguration.registerStrings (keys and status values preregistered) on a
+ * map heavy RPC style payload: 200 maps with equal (not identical) keys, enum like status values and symbol names.
+ * The encoded size of each setup is printed once.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FSTStringTableBench {
+
+    @Param({ "0", "1024" })
+    public int stringTableSize;
+
+    @Param({ "false", "true" })
+    public boolean shareReferences;
+
+    @Param({ "false", "true" })
+    public boolean registerStrings;
+
+    FSTConfiguration conf;
+    List<Object> payload;
+    byte encoded[];
+    int length[] = new int[1];
+
+    @Setup
+    public void setup() {
+        conf = FSTConfiguration.createDefaultConfiguration().setStringTableSize(stringTableSize);
+        conf.setShareReferences(shareReferences);
+        if (registerStrings) {
+            conf.registerStrings("status", "symbol", "venue", "quantity", "orderId", "OPEN", "FILLED", "XNAS");
+        }
+        payload = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            HashMap<String,Object> map = new HashMap<>();
+            // keys created per map as if decoded from another message
+            map.put(new String("status"), i % 3 == 0 ? "OPEN" : "FILLED");
+            map.put(new String("symbol"), "SYM" + (i % 50));
+            map.put(new String("venue"), "XNAS");
+            map.put(new String("quantity"), i);
+            map.put(new String("orderId"), "ORD-" + i);
+            payload.add(map);
+        }
+        encoded = conf.asByteArray(payload);
+        System.out.println("\nstringTableSize=" + stringTableSize + " shareReferences=" + shareReferences
+            + " registerStrings=" + registerStrings + " bytes=" + encoded.length);
+    }
+
+    @Benchmark
+    public byte[] write() {
+        return conf.asSharedByteArray(payload, length);
+    }
+
+    @Benchmark
+    public Object read() {
+        return conf.asObject(encoded);
+    }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2014 Ruediger Moeller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nustaq.serialization.bench;
+
+import org.nustaq.serialization.FSTConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Size/CPU trade-off of FSTConfiguration.setCompressFloatingArrays (XOR encoding) against the fixed size
+ * writeFDoubleArr/readFDouble path. Setup checks the round trip and prints the encoded size once, throughput is measured
+ * for 100k element double/float arrays holding a slowly moving price series, a constant series or random values.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FSTXorArrayBench {
+
+    public static final String PRICES = "prices";
+    public static final String CONSTANT = "constant";
+    public static final String RANDOM = "random";
+
+    @Param({ PRICES, CONSTANT, RANDOM })
+    public String data;
+
+    @Param({ "double", "float" })
+    public String type;
+
+    @Param({ "false", "true" })
+    public boolean compress;
+
+    FSTConfiguration conf;
+    Object array;
+    byte encoded[];
+    int length[] = new int[1];
+
+    @Setup
+    public void setup() {
+        conf = FSTConfiguration.createDefaultConfiguration().setCompressFloatingArrays(compress);
+        Random rnd = new Random(13);
+        double values[] = new double[100_000];
+        double price = 100.0d;
+        for (int i = 0; i < values.length; i++) {
+            if (PRICES.equals(data)) {
+                price += (rnd.nextInt(5) - 2) * 0.25d;
+                values[i] = price;
+            } else if (CONSTANT.equals(data)) {
+                values[i] = 42.5d;
+            } else {
+                values[i] = rnd.nextDouble();
+            }
+        }
+        if ("float".equals(type)) {
+            float arr[] = new float[values.length];
+            for (int i = 0; i < arr.length; i++) {
+                arr[i] = (float) values[i];
+            }
+            array = arr;
+        } else {
+            array = values;
+        }
+        encoded = conf.asByteArray(array);
+        Object copy = conf.asObject(encoded);
+        boolean same = array instanceof double[] ?
+            Arrays.equals((double[]) array, (double[]) copy) : Arrays.equals((float[]) array, (float[]) copy);
+        if (!same) {
+            throw new RuntimeException("round trip failed " + data + " " + type);
+        }
+        System.out.println("\n" + data + " " + type + " compress=" + compress + " bytes=" + encoded.length);
+    }
+
+    @Benchmark
+    public byte[] write() {
+        return conf.asSharedByteArray(array, length);
+    }
+
+    @Benchmark
+    public Object read() {
+        return conf.asObject(encoded);
+    }
+
+}
@@ -17,10 +17,12 @@ package org.nustaq.serialization;
 
 import org.nustaq.serialization.annotations.AnonymousTransient;
 import org.nustaq.serialization.annotations.Conditional;
+import org.nustaq.serialization.annotations.Delta;
 import org.nustaq.serialization.annotations.Flat;
 import org.nustaq.serialization.annotations.OneOf;
 import org.nustaq.serialization.annotations.Predict;
 import org.nustaq.serialization.annotations.Serialize;
+import org.nustaq.serialization.annotations.Shared;
 import org.nustaq.serialization.annotations.Transient;
 import org.nustaq.serialization.annotations.Version;
 import org.nustaq.serialization.util.FSTMap;
@@ -112,6 +114,8 @@ public final class FSTClazzInfo {
     private boolean hasTransient;
     private FSTObjectSerializer ser;
     private FSTFieldInfo fieldInfo[]; // serializable fields
+    private FSTCompiledFields compiledFields;
+    private boolean compiledFieldsResolved;
 
     final Class clazz;
     private final Object[] enumConstants;
@@ -127,10 +131,18 @@ public final class FSTClazzInfo {
         this.clazz = clazz;
         enumConstants = clazz.getEnumConstants();
         ignoreAnn = ignoreAnnotations;
-        createFields(clazz);
+        // generated serializers know the field layout at compile time, skip the expensive reflective setup
+        final boolean generated = getSerNoStore() instanceof FSTGeneratedSerializer;
+        if (generated) {
+            fieldInfo = new FSTFieldInfo[0];
+        } else {
+            createFields(clazz);
+        }
 
         instantiator = conf.getInstantiator(clazz);
-        if (Externalizable.class.isAssignableFrom(clazz)) {
+        if (generated) {
+            externalizable = false; // instances are created by the serializer
+        } else if (Externalizable.class.isAssignableFrom(clazz)) {
             externalizable = true;
             cons = instantiator.findConstructorForExternalize(clazz);
         } else if (Serializable.class.isAssignableFrom(clazz) || clazz == Object.class) {
@@ -151,6 +163,9 @@ public final class FSTClazzInfo {
         if (!ignoreAnnotations) {
             flat = clazz.isAnnotationPresent(Flat.class);
         }
+        if (!flat && conf.isAutoFlat() && (ignoreAnnotations || !clazz.isAnnotationPresent(Shared.class))) {
+            flat = FSTValueTypes.isValueType(this);
+        }
 
         if (cons != null) {
             cons.setAccessible(true);
@@ -261,6 +276,22 @@ public final class FSTClazzInfo {
         return fieldInfo;
     }
 
+    /**
+     * @return precompiled field plan if enabled in the configuration (compiled field access or iterative traversal)
+     * and applicable to this class, else null.
+     * Created lazily, concurrent creation is harmless as the plan is immutable.
+     */
+    final FSTCompiledFields getCompiledFields() {
+        if (!compiledFieldsResolved) {
+            if (!conf.isCompiledFieldAccess() && !conf.isIterativeTraversal()) {
+                return null;
+            }
+            compiledFields = FSTCompiledFields.compile(this);
+            compiledFieldsResolved = true;
+        }
+        return compiledFields;
+    }
+
     final FSTFieldInfo getFieldInfo(String name, Class declaringClass) {
         if (fieldMap != null) {
             if (declaringClass == null) {
@@ -453,6 +484,7 @@ public final class FSTClazzInfo {
         Class arrayType;
         boolean flat = false;
         boolean isConditional = false;
+        boolean delta = false; // @Delta long[]/int[], see FSTDeltaCodec
 
         final Field field;
         Class type;
@@ -504,6 +536,13 @@ public final class FSTClazzInfo {
                 if (isIntegral()) {
                     isConditional = false;
                 }
+                if (fi.isAnnotationPresent(Delta.class)) {
+                    if (type != long[].class && type != int[].class) {
+                        throw new RuntimeException("@Delta requires a long[] or int[] field: " + fi);
+                    }
+                    delta = true;
+                    isConditional = false;
+                }
                 OneOf annotation = fi.getAnnotation(OneOf.class);
                 if (annotation != null) {
                     oneOf = annotation.value();
@@ -512,6 +551,31 @@ public final class FSTClazzInfo {
 
         }
 
+        /**
+         * field info not backed by a reflective field, used by generated serializers (see FSTGeneratedSerializer).
+         * Carries the same information the reflective constructor derives from the field and its annotations.
+         */
+        FSTFieldInfo(String name, Class type, Class[] possibleClasses, boolean flat, String[] oneOf, boolean ignoreAnnotations) {
+            this(possibleClasses, null, true);
+            this.fakeName = name;
+            this.type = type;
+            primitive = type.isPrimitive();
+            isArr = type.isArray();
+            if (isArr) {
+                String clName = type.getName();
+                arrayDim = 1 + clName.lastIndexOf('[');
+                arrayType = calcComponentType(type);
+                integral = isIntegral(arrayType);
+            } else {
+                integral = isIntegral(type);
+                integralType = getIntegralCode(type);
+            }
+            if (!ignoreAnnotations) {
+                this.flat = flat;
+                this.oneOf = oneOf;
+            }
+        }
+
         public byte getVersion() {
             return version;
         }
@@ -528,6 +592,10 @@ public final class FSTClazzInfo {
             return isConditional;
         }
 
+        boolean isDelta() {
+            return delta;
+        }
+
         Class calcComponentType(Class c) {
             if (c.isArray()) {
                 return calcComponentType(c.getComponentType());
@@ -15,9 +15,7 @@
  */
 package org.nustaq.serialization;
 
-import org.nustaq.serialization.util.FSTMap;
-
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created with IntelliJ IDEA.
@@ -28,31 +26,36 @@ import java.util.concurrent.atomic.AtomicBoolean;
  */
 public class FSTClazzInfoRegistry {
 
-    private final FSTMap<Class, FSTClazzInfo> mInfos = new FSTMap<>(97);
+    private final ConcurrentHashMap<Class, FSTClazzInfo> mInfos = new ConcurrentHashMap<>(97);
     private final FSTSerializerRegistry serializerRegistry = new FSTSerializerRegistry();
     private boolean ignoreAnnotations = false;
-    private final AtomicBoolean rwLock = new AtomicBoolean(false);
     private boolean structMode = false;
 
     FSTClazzInfoRegistry() {
     }
 
+    /**
+     * lookups are lock free. On a miss the class info is created under a lock, so there is exactly one
+     * (canonical) FSTClazzInfo per class.
+     */
     FSTClazzInfo getCLInfo(Class c, FSTConfiguration conf) {
-        while (!rwLock.compareAndSet(false, true)) ;
-        try {
-            FSTClazzInfo res = mInfos.get(c);
-            if (res == null) {
-                if (c == null) {
-                    rwLock.set(false);
-                    throw new NullPointerException("Class is null");
-                }
-                res = new FSTClazzInfo(conf, c, ignoreAnnotations);
-                mInfos.put(c, res);
-            }
-            return res;
-        } finally {
-            rwLock.set(false);
+        if (c == null) {
+            throw new NullPointerException("Class is null");
+        }
+        FSTClazzInfo res = mInfos.get(c);
+        if (res == null) {
+            res = createCLInfo(c, conf);
+        }
+        return res;
+    }
+
+    private synchronized FSTClazzInfo createCLInfo(Class c, FSTConfiguration conf) {
+        FSTClazzInfo res = mInfos.get(c);
+        if (res == null) {
+            res = new FSTClazzInfo(conf, c, ignoreAnnotations);
+            mInfos.put(c, res);
         }
+        return res;
     }
 
     FSTSerializerRegistry getSerializerRegistry() {
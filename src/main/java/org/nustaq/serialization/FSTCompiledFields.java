@@ -0,0 +1,115 @@
+/*
+ * Copyright 2014 Ruediger Moeller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nustaq.serialization;
+
+import org.nustaq.serialization.util.FSTUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Field access plan of a class, precompiled once from the (sorted) FSTFieldInfo array and cached on FSTClazzInfo.
+ * <p>
+ * The default field order is booleans, primitives grouped by type, object references. The plan stores
+ * the memory offsets of each group, so FSTObjectOutput/FSTObjectInput can read/write a class with one tight loop per
+ * group instead of dispatching on each field (version, conditional, integral type, accessor).
+ * <p>
+ * The resulting stream is identical to the one written by the generic field loop.
+ * Only created for classes without versioned, conditional, @Delta or fake (compatibility) fields,
+ * see {@link #compile(FSTClazzInfo)}.
+ */
+final class FSTCompiledFields {
+
+    final long booleanOffsets[];
+    final int primitiveTypes[];       // integral type of each run of same typed primitive fields
+    final long primitiveOffsets[][];  // offsets of each run
+    final FSTClazzInfo.FSTFieldInfo objectFields[];
+    final long objectOffsets[];
+
+    private FSTCompiledFields(long[] booleanOffsets, int[] primitiveTypes, long[][] primitiveOffsets, FSTClazzInfo.FSTFieldInfo[] objectFields) {
+        this.booleanOffsets = booleanOffsets;
+        this.primitiveTypes = primitiveTypes;
+        this.primitiveOffsets = primitiveOffsets;
+        this.objectFields = objectFields;
+        objectOffsets = new long[objectFields.length];
+        for (int i = 0; i < objectFields.length; i++) {
+            objectOffsets[i] = objectFields[i].memOffset;
+        }
+    }
+
+    /**
+     * @return a plan for the given class or null if the class has to be handled by the generic field loop
+     */
+    static FSTCompiledFields compile(FSTClazzInfo clInfo) {
+        final FSTClazzInfo.FSTFieldInfo[] fieldInfo = clInfo.getFieldInfo();
+        if (FSTUtil.unFlaggedUnsafe == null || fieldInfo == null || clInfo.conf.isStructMode()
+                || clInfo.isExternalizable() || clInfo.useCompatibleMode()) {
+            return null;
+        }
+        int i = 0;
+        List<Long> bools = new ArrayList<>();
+        for (; i < fieldInfo.length && fieldInfo[i].getType() == boolean.class; i++) {
+            if (!isPlain(fieldInfo[i])) {
+                return null;
+            }
+            bools.add(fieldInfo[i].memOffset);
+        }
+        List<Integer> types = new ArrayList<>();
+        List<long[]> runs = new ArrayList<>();
+        while (i < fieldInfo.length && fieldInfo[i].isPrimitive()) {
+            final int type = fieldInfo[i].getIntegralType();
+            if (type == FSTClazzInfo.FSTFieldInfo.BOOL) {
+                return null;
+            }
+            int end = i;
+            while (end < fieldInfo.length && fieldInfo[end].isPrimitive() && fieldInfo[end].getIntegralType() == type) {
+                if (!isPlain(fieldInfo[end])) {
+                    return null;
+                }
+                end++;
+            }
+            long offsets[] = new long[end - i];
+            for (int j = 0; j < offsets.length; j++) {
+                offsets[j] = fieldInfo[i + j].memOffset;
+            }
+            types.add(type);
+            runs.add(offsets);
+            i = end;
+        }
+        FSTClazzInfo.FSTFieldInfo objects[] = new FSTClazzInfo.FSTFieldInfo[fieldInfo.length - i];
+        for (int j = 0; j < objects.length; j++) {
+            FSTClazzInfo.FSTFieldInfo fi = fieldInfo[i + j];
+            if (fi.isPrimitive() || fi.isConditional() || fi.isDelta() || !isPlain(fi)) {
+                return null;
+            }
+            objects[j] = fi;
+        }
+        long booleanOffsets[] = new long[bools.size()];
+        for (int j = 0; j < booleanOffsets.length; j++) {
+            booleanOffsets[j] = bools.get(j);
+        }
+        int primitiveTypes[] = new int[types.size()];
+        for (int j = 0; j < primitiveTypes.length; j++) {
+            primitiveTypes[j] = types.get(j);
+        }
+        return new FSTCompiledFields(booleanOffsets, primitiveTypes, runs.toArray(new long[runs.size()][]), objects);
+    }
+
+    private static boolean isPlain(FSTClazzInfo.FSTFieldInfo fi) {
+        return fi.getField() != null && fi.memOffset >= 0 && fi.getVersion() == 0;
+    }
+
+}
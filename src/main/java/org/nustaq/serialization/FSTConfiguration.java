@@ -15,6 +15,8 @@
  */
 package org.nustaq.serialization;
 
+import org.nustaq.serialization.coders.FSTByteBufferDecoder;
+import org.nustaq.serialization.coders.FSTByteBufferEncoder;
 import org.nustaq.serialization.coders.FSTStreamDecoder;
 import org.nustaq.serialization.coders.FSTStreamEncoder;
 import org.nustaq.serialization.serializers.FSTArrayListSerializer;
@@ -28,14 +30,17 @@ import org.nustaq.serialization.serializers.FSTMapSerializer;
 import org.nustaq.serialization.serializers.FSTStringBufferSerializer;
 import org.nustaq.serialization.serializers.FSTStringBuilderSerializer;
 import org.nustaq.serialization.serializers.FSTStringSerializer;
+import org.nustaq.serialization.util.FSTStringCache;
 import org.nustaq.serialization.util.FSTUtil;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.ref.SoftReference;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Date;
@@ -47,6 +52,7 @@ import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
+import java.util.ServiceLoader;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.Vector;
@@ -72,7 +78,9 @@ public class FSTConfiguration {
         Class getClass(String clName);
     }
 
-    private final StreamCoderFactory streamCoderFactory = new FSTDefaultStreamCoderFactory(this);
+    private volatile StreamCoderFactory streamCoderFactory = new FSTDefaultStreamCoderFactory(this);
+    private final ThreadLocal<FSTObjectOutput> byteBufferOutput = new ThreadLocal<>();
+    private final ThreadLocal<FSTObjectInput> byteBufferInput = new ThreadLocal<>();
 
     private String name;
 
@@ -80,6 +88,8 @@ public class FSTConfiguration {
     private final HashMap<Class, List<SoftReference>> cachedObjects = new HashMap<>(97);
     private final FSTClazzNameRegistry classRegistry = new FSTClazzNameRegistry(null);
     boolean shareReferences = true;
+    boolean sequentialHandles = false;
+    private boolean cycleSafe = false;
     private volatile ClassLoader classLoader = getClass().getClassLoader();
     private boolean forceSerializable = false; // serialize objects which are not instanceof serializable using default serialization scheme.
     private final FSTClassInstantiator instantiator = new FSTDefaultClassInstantiator();
@@ -87,6 +97,17 @@ public class FSTConfiguration {
     private LastResortClassRessolver lastResortResolver;
 
     private boolean forceClzInit = false; // always execute default fields init, even if no transients
+    private boolean compiledFieldAccess = false; // use precompiled per class field plans instead of the generic field loop
+    private boolean autoFlat = false; // treat value types (no cycles possible) as @Flat, see FSTValueTypes
+    private boolean iterativeTraversal = false; // walk reference fields using a heap allocated stack, see FSTTraversalStack
+    private boolean compressPrimitiveArrays = false; // int/long/short arrays zigzag varint encoded if smaller
+    private boolean compressFloatingArrays = false; // double/float arrays XOR encoded if smaller, see FSTXorCodec
+    private boolean packBooleanArrays = false; // boolean arrays 1 bit per element
+    private int stringTableSize = 0; // > 0: equal strings of a stream are written once, see FSTStringTable
+    FSTStringDictionary stringDictionary; // null if no strings have been registered, see registerStrings
+    private FSTStringCache stringCache; // canonicalizes decoded strings if set
+    private boolean homogeneousCollections = false; // write the element class of collections/maps once if all elements share it
+    private int outputFlushThreshold = 0; // > 0: streams flush to the underlying OutputStream once this many bytes are buffered
 
     // cache fieldinfo. This can be shared with derived FSTConfigurations in order to reduce footprint
     static class FieldKey {
@@ -220,6 +241,20 @@ public class FSTConfiguration {
         serializationInfoRegistry.getSerializerRegistry().putSerializer(clazz, ser, alsoForAllSubclasses);
     }
 
+    /**
+     * registers all serializers generated by fst's annotation processor (see annotations.Precompile) found on the
+     * classpath via ServiceLoader (META-INF/services/org.nustaq.serialization.FSTSerializerIndex).
+     * Call this before any class is used with this configuration.
+     *
+     * @return this
+     */
+    public FSTConfiguration registerGeneratedSerializers() {
+        for (FSTSerializerIndex index : ServiceLoader.load(FSTSerializerIndex.class, getClassLoader())) {
+            index.registerSerializers(this);
+        }
+        return this;
+    }
+
     public boolean isForceClzInit() {
         return forceClzInit;
     }
@@ -244,6 +279,206 @@ public class FSTConfiguration {
         return this;
     }
 
+    public boolean isAutoFlat() {
+        return autoFlat;
+    }
+
+    /**
+     * if true, classes whose instances cannot be part of a cycle (all fields are primitives, Strings, boxed primitives,
+     * enums or final classes of the same kind) are treated as if annotated @Flat: their instances are not looked up
+     * for identical objects, which saves most of the cost of reference sharing for typical value objects.
+     * Instances referenced more than once get written more than once. Annotate a class with @Shared to keep
+     * sharing its instances.
+     * <p>
+     * Changes the stream format, read and write side need to use the same setting. Set this before classes
+     * are registered or serialized.
+     *
+     * @param autoFlat
+     * @return this
+     */
+    public FSTConfiguration setAutoFlat(boolean autoFlat) {
+        this.autoFlat = autoFlat;
+        return this;
+    }
+
+    public boolean isCompiledFieldAccess() {
+        return compiledFieldAccess;
+    }
+
+    /**
+     * if enabled, fields of classes using the default serialization scheme are read/written using a plan
+     * precompiled once per class (see FSTCompiledFields): fields grouped by type and accessed directly by memory
+     * offset, instead of dispatching on each FSTFieldInfo. The wire format is unchanged, so streams can be read by
+     * configurations not using this. Classes using versioning, @Conditional or compatible mode (writeObject/readObject)
+     * always use the generic code path.
+     *
+     * @param compiledFieldAccess
+     * @return
+     */
+    public FSTConfiguration setCompiledFieldAccess(boolean compiledFieldAccess) {
+        this.compiledFieldAccess = compiledFieldAccess;
+        return this;
+    }
+
+    public boolean isIterativeTraversal() {
+        return iterativeTraversal;
+    }
+
+    /**
+     * if enabled, reference fields are written/read walking an explicit, heap allocated stack (FSTTraversalStack)
+     * instead of recursing once per object, so deeply nested graphs (e.g. long linked lists) do not overflow the
+     * thread stack. The wire format is unchanged, streams can be read by configurations not using this.
+     * <p>
+     * Applies to classes having a precompiled field plan (implies compiled field access for those). Objects
+     * written by serializers, Externalizables, arrays and classes using versioning, @Conditional or compatible
+     * mode are still handled recursively, so a graph nested deeply through e.g. collections still uses thread stack.
+     *
+     * @param iterativeTraversal
+     * @return this
+     */
+    public FSTConfiguration setIterativeTraversal(boolean iterativeTraversal) {
+        this.iterativeTraversal = iterativeTraversal;
+        return this;
+    }
+
+    public boolean isCompressPrimitiveArrays() {
+        return compressPrimitiveArrays;
+    }
+
+    /**
+     * if enabled, the default stream coder and the ByteBuffer coders (getByteBufferOutput/Input, FSTFramedReader)
+     * write int[], long[] and short[] zigzag varint (LEB128) encoded if that is smaller than the fixed size encoding,
+     * each array prefixed by a tag byte telling which one has been chosen.
+     * Arrays of small values (ids, counters, deltas) shrink to 1-2 bytes per element at the cost of encoding CPU,
+     * arrays of large or random values are written fixed size as before (+1 byte).
+     * <p>
+     * Changes the stream format, read and write side need to use the same setting.
+     *
+     * @param compressPrimitiveArrays
+     * @return this
+     */
+    public FSTConfiguration setCompressPrimitiveArrays(boolean compressPrimitiveArrays) {
+        this.compressPrimitiveArrays = compressPrimitiveArrays;
+        return this;
+    }
+
+    public boolean isCompressFloatingArrays() {
+        return compressFloatingArrays;
+    }
+
+    /**
+     * if enabled, the default stream coder and the ByteBuffer coders (getByteBufferOutput/Input, FSTFramedReader)
+     * write double[] and float[] Gorilla style XOR encoded (each value xor'ed with its predecessor, only the
+     * meaningful bits are written) if that is smaller than the fixed size encoding, each array prefixed by a tag byte
+     * telling which one has been chosen. Slowly changing series
+     * (prices, sensor readings, repeated values) shrink severalfold, random values are written fixed size as before (+1 byte).
+     * <p>
+     * Changes the stream format, read and write side need to use the same setting.
+     *
+     * @param compressFloatingArrays
+     * @return this
+     */
+    public FSTConfiguration setCompressFloatingArrays(boolean compressFloatingArrays) {
+        this.compressFloatingArrays = compressFloatingArrays;
+        return this;
+    }
+
+    public boolean isPackBooleanArrays() {
+        return packBooleanArrays;
+    }
+
+    /**
+     * if enabled, the default stream coder and the ByteBuffer coders (getByteBufferOutput/Input, FSTFramedReader)
+     * write boolean[] with 1 bit per element instead of 1 byte
+     * (same as boolean fields of an object are packed). Large flag/bitmap arrays shrink by factor 8.
+     * <p>
+     * Changes the stream format, read and write side need to use the same setting.
+     *
+     * @param packBooleanArrays
+     * @return this
+     */
+    public FSTConfiguration setPackBooleanArrays(boolean packBooleanArrays) {
+        this.packBooleanArrays = packBooleanArrays;
+        return this;
+    }
+
+    public int getStringTableSize() {
+        return stringTableSize;
+    }
+
+    /**
+     * if > 0, each stream keeps a table of the first stringTableSize distinct strings written. A string equal (not
+     * necessarily identical) to one in the table is written as a table index (1-3 bytes) instead of its content.
+     * Independent of setShareReferences, so repeated map keys, status codes or symbol names are deduplicated
+     * in unshared mode as well. Costs one hash lookup per string written.
+     * <p>
+     * Changes the stream format, read and write side need to use the same setting.
+     *
+     * @param stringTableSize max number of distinct strings per stream, 0 = disabled (default)
+     * @return this
+     */
+    public FSTConfiguration setStringTableSize(int stringTableSize) {
+        this.stringTableSize = stringTableSize;
+        return this;
+    }
+
+    public FSTStringCache getStringCache() {
+        return stringCache;
+    }
+
+    /**
+     * if set, the default stream decoder and the ByteBuffer decoder (getByteBufferInput, FSTFramedReader) look up each
+     * decoded string (up to cache.getMaxLength chars, no chars >= 255) in the given cache and return the cached
+     * instance on a hit, so readers holding on to deserialized objects don't keep duplicate strings. The cache is shared by all streams of this configuration, see FSTStringCache for
+     * statistics. Does not change the stream format.
+     *
+     * @param stringCache cache or null to disable
+     * @return this
+     */
+    public FSTConfiguration setStringCache(FSTStringCache stringCache) {
+        this.stringCache = stringCache;
+        return this;
+    }
+
+    public boolean isHomogeneousCollections() {
+        return homogeneousCollections;
+    }
+
+    /**
+     * if enabled, ArrayList, other collections and maps whose (non null) elements, keys or values all have the same class
+     * are written as "class once + bodies": each element header shrinks to 1 byte instead of a tag + class id,
+     * and the reader does not decode a class per element. Nulls and references are written as usual. Does not apply
+     * to elements written without a class header anyway (strings, Integer/Long/Boolean, enums, arrays).
+     * <p>
+     * Readers decode both formats. Only the write side needs this setting, but streams written with it can't be read
+     * by older versions.
+     *
+     * @param homogeneousCollections
+     * @return this
+     */
+    public FSTConfiguration setHomogeneousCollections(boolean homogeneousCollections) {
+        this.homogeneousCollections = homogeneousCollections;
+        return this;
+    }
+
+    public int getOutputFlushThreshold() {
+        return outputFlushThreshold;
+    }
+
+    /**
+     * if > 0, FSTObjectOutput streams writing to an OutputStream pass buffered bytes on to the stream as soon as
+     * more than outputFlushThreshold bytes are buffered, even in the middle of writing an object graph. This bounds
+     * the buffer size when writing huge graphs (e.g. snapshots to a file). Streams encoding to a byte array
+     * (e.g. asByteArray) are not affected. Default is 0 (buffer until flush() is called).
+     *
+     * @param outputFlushThreshold
+     * @return
+     */
+    public FSTConfiguration setOutputFlushThreshold(int outputFlushThreshold) {
+        this.outputFlushThreshold = outputFlushThreshold;
+        return this;
+    }
+
     FSTClassInstantiator getInstantiator(Class clazz) {
         return instantiator;
     }
@@ -341,6 +576,63 @@ public class FSTConfiguration {
         this.shareReferences = shareReferences;
     }
 
+    public boolean isCycleSafe() {
+        return cycleSafe;
+    }
+
+    /**
+     * only relevant if shareReferences is false. If true, objects currently being written (the path from the root
+     * to the current object) are tracked, so a reference back to one of them is written as a handle instead of
+     * failing with a StackOverflowError. Objects referenced more than once without forming a cycle are still written
+     * as copies. Much cheaper than shareReferences as only the current path is looked up.
+     * <p>
+     * Read and write side need to use the same setting.
+     *
+     * @param cycleSafe
+     * @return this
+     */
+    public FSTConfiguration setCycleSafe(boolean cycleSafe) {
+        this.cycleSafe = cycleSafe;
+        return this;
+    }
+
+    public boolean isSequentialHandles() {
+        return sequentialHandles;
+    }
+
+    /**
+     * if true, shared objects are numbered in the order they are written and back references refer to this number
+     * instead of the stream position of the referenced object. Handles get smaller (mostly 1-3 bytes instead of 3-5)
+     * and the reader resolves them by array index instead of a hash lookup, which pays off for large graphs
+     * with many shared references.
+     * <p>
+     * Changes the stream format, read and write side need to use the same setting. Has no effect if
+     * shareReferences is false.
+     *
+     * @param sequentialHandles
+     */
+    public FSTConfiguration setSequentialHandles(boolean sequentialHandles) {
+        this.sequentialHandles = sequentialHandles;
+        return this;
+    }
+
+    /**
+     * Preregister frequent strings (use at init time), e.g. map keys, currency codes, tenant ids. A registered string is
+     * written as a 2-4 byte code found by a hash lookup (no linear search like @OneOf). The read side returns the
+     * registered (interned) instance, so duplicates are not kept on the heap.
+     * <p>
+     * Read and write side need to have strings preregistered in the exact same order. Registering a string twice has no
+     * effect.
+     */
+    public FSTConfiguration registerStrings(String... strings) {
+        FSTStringDictionary dictionary = stringDictionary == null ? new FSTStringDictionary() : stringDictionary;
+        for (int i = 0; i < strings.length; i++) {
+            dictionary.register(strings[i]);
+        }
+        stringDictionary = dictionary;
+        return this;
+    }
+
     /**
      * Preregister a class (use at init time). This avoids having to write class names.
      * Its a very simple and effective optimization (frequently > 2 times faster for small objects).
@@ -430,6 +722,13 @@ public class FSTConfiguration {
         return serializationInfoRegistry;
     }
 
+    /**
+     * @return the (cached) serialization info of the given class. Lookups are lock free once the class is known.
+     */
+    public FSTClazzInfo getClassInfo(Class type) {
+        return serializationInfoRegistry.getCLInfo(type, this);
+    }
+
     public ClassLoader getClassLoader() {
         return classLoader;
     }
@@ -468,6 +767,23 @@ public class FSTConfiguration {
         return null;
     }
 
+    /**
+     * utility for thread safety and reuse. Do not close the resulting stream. However you should close
+     * the given InputStream 'in'
+     *
+     * @param in
+     * @return
+     */
+    public FSTObjectInput getObjectInput(InputStream in) {
+        FSTObjectInput fstObjectInput = getIn();
+        try {
+            fstObjectInput.resetForReuse(in);
+            return fstObjectInput;
+        } catch (IOException e) {
+            FSTUtil.<RuntimeException>rethrow(e);
+        }
+        return null;
+    }
 
     private FSTObjectInput getIn() {
         FSTObjectInput fstObjectInput = (FSTObjectInput) streamCoderFactory.getInput().get();
@@ -511,6 +827,45 @@ public class FSTConfiguration {
         return getObjectOutput(null);
     }
 
+    /**
+     * utility for thread safety and reuse. Writes directly to the given (direct, mapped or heap) buffer starting
+     * at its current position, there is no intermediate byte array. The buffer position is advanced while writing,
+     * a BufferOverflowException is thrown if the buffer is too small. The byte order of the buffer is set to
+     * little endian.
+     * Do not close the resulting stream.
+     *
+     * @param buffer
+     * @return
+     */
+    public FSTObjectOutput getByteBufferOutput(ByteBuffer buffer) {
+        FSTObjectOutput fstOut = byteBufferOutput.get();
+        if (fstOut == null || fstOut.closed) {
+            fstOut = new FSTObjectOutput(this, new FSTByteBufferEncoder(this));
+            byteBufferOutput.set(fstOut);
+        }
+        fstOut.resetForReUse(buffer);
+        return fstOut;
+    }
+
+    /**
+     * utility for thread safety and reuse. Reads directly from the given (direct, mapped or heap) buffer starting
+     * at its current position. After reading an object, the buffer position points to the first byte following it.
+     * The byte order of the buffer is set to little endian.
+     * Do not close the resulting stream.
+     *
+     * @param buffer
+     * @return
+     */
+    public FSTObjectInput getByteBufferInput(ByteBuffer buffer) {
+        FSTObjectInput fstIn = byteBufferInput.get();
+        if (fstIn == null || fstIn.closed) {
+            fstIn = new FSTObjectInput(this, new FSTByteBufferDecoder(this));
+            byteBufferInput.set(fstIn);
+        }
+        fstIn.resetForReuse(buffer);
+        return fstIn;
+    }
+
     /**
      * ignores all serialization related interfaces (Serializable, Externalizable) and serializes all classes using the
      * default scheme. Warning: this is a special mode of operation which fail serializing/deserializing many standard
@@ -531,6 +886,12 @@ public class FSTConfiguration {
         return serializationInfoRegistry.isStructMode();
     }
 
+    /**
+     * creates the encoder/decoder used by the FSTObjectOutput/FSTObjectInput streams of a configuration and
+     * holds the thread local pools the streams returned by getObjectOutput/getObjectInput are recycled from.
+     * The ThreadLocals are expected to be owned by the factory instance (not static), so configurations using
+     * different codecs don't hand out each other's streams.
+     */
     public interface StreamCoderFactory {
         FSTEncoder createStreamEncoder();
 
@@ -541,6 +902,26 @@ public class FSTConfiguration {
         ThreadLocal getOutput();
     }
 
+    public StreamCoderFactory getStreamCoderFactory() {
+        return streamCoderFactory;
+    }
+
+    /**
+     * install an alternative codec (e.g. byte[] only, compressing). Should be done right after creating the
+     * configuration, streams already handed out keep their codec. Encoder and decoder must agree on the
+     * wire format, streams written with one codec generally can't be read with another one.
+     *
+     * @param streamCoderFactory
+     * @return
+     */
+    public FSTConfiguration setStreamCoderFactory(StreamCoderFactory streamCoderFactory) {
+        if (streamCoderFactory == null) {
+            throw new NullPointerException("streamCoderFactory");
+        }
+        this.streamCoderFactory = streamCoderFactory;
+        return this;
+    }
+
     public FSTEncoder createStreamEncoder() {
         return streamCoderFactory.createStreamEncoder();
     }
@@ -621,8 +1002,8 @@ public class FSTConfiguration {
             return new FSTStreamDecoder(fstConfiguration);
         }
 
-        static final ThreadLocal input = new ThreadLocal();
-        static final ThreadLocal output = new ThreadLocal();
+        final ThreadLocal input = new ThreadLocal();
+        final ThreadLocal output = new ThreadLocal();
 
         @Override
         public ThreadLocal getInput() {
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2014 Ruediger Moeller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nustaq.serialization;
+
+import java.io.IOException;
+
+/**
+ * Encoding of @Delta long[]/int[] fields:
+ * <pre>
+ * len (-1 = null), if len > 0: PLAIN + plain array | DELTA + first value + blocks
+ * block (up to BLOCK deltas): min delta, bit width, deltas - min packed little endian using bit width bits each
+ * </pre>
+ * One instance per stream, reuses its block buffers.
+ */
+final class FSTDeltaCodec {
+
+    static final int BLOCK = 128;
+    static final byte PLAIN = 0;
+    static final byte DELTA = 1;
+
+    private final long deltas[] = new long[BLOCK];
+    private final byte packed[] = new byte[BLOCK * 8];
+
+    void write(FSTEncoder codec, Object array) throws IOException {
+        if (array == null) {
+            codec.writeFInt(-1);
+        } else if (array instanceof long[]) {
+            writeLongs(codec, (long[]) array);
+        } else {
+            writeInts(codec, (int[]) array);
+        }
+    }
+
+    Object read(FSTDecoder codec, Class type) throws IOException {
+        final int len = codec.readFInt();
+        if (len < 0) {
+            return null;
+        }
+        if (type == long[].class) {
+            return readLongs(codec, len);
+        }
+        return readInts(codec, len);
+    }
+
+    private void writeLongs(FSTEncoder codec, long arr[]) throws IOException {
+        final int len = arr.length;
+        codec.writeFInt(len);
+        if (len == 0) {
+            return;
+        }
+        for (int i = 1; i < len; i++) {
+            if (arr[i] < arr[i - 1] || arr[i] - arr[i - 1] < 0) { // descending or delta overflows
+                codec.writeFByte(PLAIN);
+                codec.writePrimitiveArray(arr, 0, len);
+                return;
+            }
+        }
+        codec.writeFByte(DELTA);
+        codec.writeFLong(arr[0]);
+        for (int start = 1; start < len; start += BLOCK) {
+            final int n = Math.min(BLOCK, len - start);
+            for (int i = 0; i < n; i++) {
+                deltas[i] = arr[start + i] - arr[start + i - 1];
+            }
+            writeBlock(codec, n);
+        }
+    }
+
+    private void writeInts(FSTEncoder codec, int arr[]) throws IOException {
+        final int len = arr.length;
+        codec.writeFInt(len);
+        if (len == 0) {
+            return;
+        }
+        for (int i = 1; i < len; i++) {
+            if (arr[i] < arr[i - 1]) {
+                codec.writeFByte(PLAIN);
+                codec.writePrimitiveArray(arr, 0, len);
+                return;
+            }
+        }
+        codec.writeFByte(DELTA);
+        codec.writeFInt(arr[0]);
+        for (int start = 1; start < len; start += BLOCK) {
+            final int n = Math.min(BLOCK, len - start);
+            for (int i = 0; i < n; i++) {
+                deltas[i] = (long) arr[start + i] - arr[start + i - 1];
+            }
+            writeBlock(codec, n);
+        }
+    }
+
+    private long[] readLongs(FSTDecoder codec, int len) throws IOException {
+        final long arr[] = new long[len];
+        if (len == 0) {
+            return arr;
+        }
+        if (codec.readFByte() == PLAIN) {
+            codec.readFPrimitiveArray(arr, long.class, len);
+            return arr;
+        }
+        arr[0] = codec.readFLong();
+        for (int start = 1; start < len; start += BLOCK) {
+            final int n = Math.min(BLOCK, len - start);
+            readBlock(codec, n);
+            for (int i = 0; i < n; i++) {
+                arr[start + i] = arr[start + i - 1] + deltas[i];
+            }
+        }
+        return arr;
+    }
+
+    private int[] readInts(FSTDecoder codec, int len) throws IOException {
+        final int arr[] = new int[len];
+        if (len == 0) {
+            return arr;
+        }
+        if (codec.readFByte() == PLAIN) {
+            codec.readFPrimitiveArray(arr, int.class, len);
+            return arr;
+        }
+        arr[0] = codec.readFInt();
+        for (int start = 1; start < len; start += BLOCK) {
+            final int n = Math.min(BLOCK, len - start);
+            readBlock(codec, n);
+            for (int i = 0; i < n; i++) {
+                arr[start + i] = (int) (arr[start + i - 1] + deltas[i]);
+            }
+        }
+        return arr;
+    }
+
+    /**
+     * frame of reference: write min delta and the bit width of (max - min), then pack deltas[0..n-1] - min
+     */
+    private void writeBlock(FSTEncoder codec, int n) throws IOException {
+        long min = deltas[0];
+        long max = deltas[0];
+        for (int i = 1; i < n; i++) {
+            min = Math.min(min, deltas[i]);
+            max = Math.max(max, deltas[i]);
+        }
+        final int bits = 64 - Long.numberOfLeadingZeros(max - min); // deltas are >= 0, so max - min < 2^63
+        codec.writeFLong(min);
+        codec.writeFByte(bits);
+        if (bits == 0) {
+            return; // constant delta
+        }
+        long acc = 0;
+        int accBits = 0;
+        int pos = 0;
+        for (int i = 0; i < n; i++) {
+            final long v = deltas[i] - min;
+            acc |= v << accBits;
+            final int free = 64 - accBits;
+            if (bits >= free) { // acc full, bits < 64 so free < 64 here
+                for (int b = 0; b < 8; b++) {
+                    packed[pos++] = (byte) (acc >>> (b * 8));
+                }
+                acc = v >>> free;
+                accBits = bits - free;
+            } else {
+                accBits += bits;
+            }
+        }
+        for (int b = 0; b < accBits; b += 8) {
+            packed[pos++] = (byte) (acc >>> b);
+        }
+        codec.writePrimitiveArray(packed, 0, pos);
+    }
+
+    /**
+     * unpack a block written by writeBlock to deltas[0..n-1]
+     */
+    private void readBlock(FSTDecoder codec, int n) throws IOException {
+        final long min = codec.readFLong();
+        final int bits = codec.readFByte();
+        if (bits == 0) {
+            for (int i = 0; i < n; i++) {
+                deltas[i] = min;
+            }
+            return;
+        }
+        codec.readFPrimitiveArray(packed, byte.class, (n * bits + 7) >>> 3);
+        final long mask = (1L << bits) - 1;
+        int bitPos = 0;
+        for (int i = 0; i < n; i++) {
+            int pos = bitPos >>> 3;
+            final int shift = bitPos & 7;
+            long v = (packed[pos++] & 0xFF) >>> shift;
+            int got = 8 - shift;
+            while (got < bits) {
+                v |= (long) (packed[pos++] & 0xFF) << got;
+                got += 8;
+            }
+            deltas[i] = min + (v & mask);
+            bitPos += bits;
+        }
+    }
+
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2014 Ruediger Moeller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nustaq.serialization;
+
+import org.nustaq.serialization.coders.FSTByteBufferDecoder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads frames written by FSTFramedWriter. Received bytes are appended to a receive buffer
+ * (received/readFrom), hasFrame() tells without blocking whether a complete frame has been received,
+ * readFrame() decodes it directly from the receive buffer.
+ * <p>
+ * The receive buffer, the decoder and the object/class name registries are reused for all frames. Consumed
+ * bytes are discarded only if there is not enough space left to receive, the buffer grows if a single frame
+ * does not fit.
+ * <p>
+ * Frames are decoded using FSTByteBufferDecoder, so they have to be written using the default stream codec.
+ * A frame header announcing a negative length or more than getMaxFrameSize bytes is rejected with an IOException,
+ * the connection can't be resynchronized after that.
+ * <p>
+ * Not threadsafe, use one instance per connection.
+ */
+public class FSTFramedReader {
+
+    private static final int MIN_RECEIVE = 4096;
+    public static final int DEFAULT_MAX_FRAME_SIZE = 64 * 1024 * 1024;
+
+    private final FSTObjectInput in;
+    // position = start of next frame, limit = end of received bytes
+    private ByteBuffer buffer;
+    private int maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+
+    public FSTFramedReader(FSTConfiguration conf) {
+        this(conf, 16 * 1024);
+    }
+
+    public FSTFramedReader(FSTConfiguration conf, int initialSize) {
+        in = new FSTObjectInput(conf, new FSTByteBufferDecoder(conf));
+        buffer = ByteBuffer.allocate(initialSize).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.limit(0);
+    }
+
+    /**
+     * append received bytes (copies them to the receive buffer)
+     */
+    public void received(byte bytes[], int off, int len) {
+        ensureFree(len);
+        System.arraycopy(bytes, off, buffer.array(), buffer.limit(), len);
+        buffer.limit(buffer.limit() + len);
+    }
+
+    /**
+     * receive as many bytes as the stream delivers with one read call (blocks if the stream blocks)
+     *
+     * @return number of bytes received or -1 on end of stream
+     */
+    public int readFrom(InputStream stream) throws IOException {
+        ensureFree(MIN_RECEIVE);
+        int read = stream.read(buffer.array(), buffer.limit(), buffer.capacity() - buffer.limit());
+        if (read > 0) {
+            buffer.limit(buffer.limit() + read);
+        }
+        return read;
+    }
+
+    /**
+     * receive from the given channel, does not block if the channel is in non-blocking mode
+     *
+     * @return number of bytes received or -1 on end of stream
+     */
+    public int readFrom(ReadableByteChannel channel) throws IOException {
+        ensureFree(MIN_RECEIVE);
+        int readPos = buffer.position();
+        buffer.position(buffer.limit());
+        buffer.limit(buffer.capacity());
+        try {
+            return channel.read(buffer);
+        } finally {
+            buffer.limit(buffer.position());
+            buffer.position(readPos);
+        }
+    }
+
+    /**
+     * @return true if a complete frame has been received
+     * @throws IOException if the header of the next frame is corrupt
+     */
+    public boolean hasFrame() throws IOException {
+        int available = buffer.remaining();
+        return available >= FSTFramedWriter.HEADER_SIZE
+                && available - FSTFramedWriter.HEADER_SIZE >= frameLength();
+    }
+
+    /**
+     * @return content length of the next frame, its header has to be received
+     */
+    private int frameLength() throws IOException {
+        int len = buffer.getInt(buffer.position());
+        if (len < 0 || len > maxFrameSize) {
+            throw new IOException("invalid frame length " + len + " (max frame size " + maxFrameSize + ")");
+        }
+        return len;
+    }
+
+    /**
+     * decode the next frame
+     *
+     * @return the object read or null if no complete frame has been received yet (see hasFrame)
+     */
+    public Object readFrame() throws IOException, ClassNotFoundException {
+        if (!hasFrame()) {
+            return null;
+        }
+        int frameEnd = buffer.position() + FSTFramedWriter.HEADER_SIZE + frameLength();
+        int received = buffer.limit();
+        buffer.limit(frameEnd);
+        try {
+            in.resetForReuse(buffer);
+            in.getCodec().skip(FSTFramedWriter.HEADER_SIZE);
+            return in.readObject();
+        } finally {
+            buffer.limit(received);
+            buffer.position(frameEnd);
+        }
+    }
+
+    /**
+     * @return number of received bytes not consumed by readFrame yet
+     */
+    public int available() {
+        return buffer.remaining();
+    }
+
+    private void ensureFree(int bytes) {
+        if (buffer.capacity() - buffer.limit() >= bytes) {
+            return;
+        }
+        int unread = buffer.remaining();
+        ByteBuffer target = buffer;
+        if (buffer.capacity() - unread < bytes) {
+            target = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, unread + bytes)).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        System.arraycopy(buffer.array(), buffer.position(), target.array(), 0, unread);
+        buffer = target;
+        buffer.limit(unread);
+        buffer.position(0);
+    }
+
+    /**
+     * keep class names across frames, see FSTObjectOutput.setSessionMode. Writer and reader of a connection
+     * both have to use session mode, no frame may be dropped.
+     */
+    public void setSessionMode(boolean sessionMode) {
+        in.setSessionMode(sessionMode);
+    }
+
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    /**
+     * frames announcing more content bytes are rejected (see hasFrame), guards against corrupt or hostile headers
+     * making the receive buffer grow without bounds.
+     *
+     * @param maxFrameSize default is DEFAULT_MAX_FRAME_SIZE
+     */
+    public void setMaxFrameSize(int maxFrameSize) {
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    public FSTConfiguration getConf() {
+        return in.getConf();
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2014 Ruediger Moeller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nustaq.serialization;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes independent messages as length prefixed frames: [int32 little endian payload length][fst stream].
+ * Each frame contains one object and can be decoded on its own by a FSTFramedReader.
+ * <p>
+ * The header is reserved before the object is written and patched afterwards, the frame is encoded directly into
+ * a buffer reused for all frames (as well as the object and class name registries), so there is no copying and
+ * no allocation per message once the buffer has grown to the largest message size.
+ * <p>
+ * Not threadsafe, use one instance per connection (or thread).
+ */
+public class FSTFramedWriter {
+
+    public static final int HEADER_SIZE = 4;
+
+    private final FSTObjectOutput out;
+
+    public FSTFramedWriter(FSTConfiguration conf) {
+        out = new FSTObjectOutput(conf);
+    }
+
+    /**
+     * encode given object into a frame. The frame is available using getBuffer() until the next frame is written.
+     *
+     * @param obj
+     * @return length of the frame (header included)
+     * @throws IOException
+     */
+    public int writeFrame(Object obj) throws IOException {
+        out.resetForReUse((OutputStream) null);
+        FSTEncoder codec = out.getCodec();
+        codec.ensureFree(HEADER_SIZE);
+        codec.skip(HEADER_SIZE);
+        out.writeObject(obj);
+        int len = codec.getWritten();
+        codec.writeInt32At(0, len - HEADER_SIZE);
+        return len;
+    }
+
+    /**
+     * encode given object into a frame and write it to the given stream (the stream is not flushed)
+     *
+     * @param obj
+     * @param target
+     * @return length of the frame (header included)
+     * @throws IOException
+     */
+    public int writeFrame(Object obj, OutputStream target) throws IOException {
+        int len = writeFrame(obj);
+        target.write(getBuffer(), 0, len);
+        return len;
+    }
+
+    /**
+     * @return buffer containing the last frame written starting at index 0. Do not keep a reference, the buffer
+     * is reused (and might be replaced if it needs to grow).
+     */
+    public byte[] getBuffer() {
+        return out.getBuffer();
+    }
+
+    /**
+     * keep class names across frames, see FSTObjectOutput.setSessionMode. Writer and reader of a connection
+     * both have to use session mode, no frame may be dropped.
+     */
+    public void setSessionMode(boolean sessionMode) {
+        out.setSessionMode(sessionMode);
+    }
+
+    public FSTConfiguration getConf() {
+        return out.getConf();
+    }
+
+}
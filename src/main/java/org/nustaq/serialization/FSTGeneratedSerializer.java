@@ -0,0 +1,80 @@
+/*
+ * Copyright 2014 Ruediger Moeller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nustaq.serialization;
+
+import java.io.IOException;
+
+/**
+ * Base class of serializers generated at compile time for classes annotated with
+ * {@link org.nustaq.serialization.annotations.Precompile} (see fst's annotation processor).
+ * <p>
+ * Subclasses read and write fields in the order FSTClazzInfo would use (defFieldComparator), encoded exactly like
+ * the reflective field loop of FSTObjectOutput/FSTObjectInput. So a peer using the generated serializer and a peer
+ * using reflection can talk to each other. FSTClazzInfo skips field reflection for classes handled by a generated
+ * serializer.
+ * <p>
+ * Generated serializers are registered by a generated {@link FSTSerializerIndex}, see
+ * {@link FSTConfiguration#registerGeneratedSerializers()}.
+ */
+public abstract class FSTGeneratedSerializer extends FSTBasicObjectSerializer {
+
+    private final boolean ignoreAnnotations;
+
+    protected FSTGeneratedSerializer(FSTConfiguration conf) {
+        ignoreAnnotations = conf.getCLInfoRegistry().isIgnoreAnnotations();
+    }
+
+    /**
+     * @return a new instance, fields are set by readFields afterwards
+     */
+    protected abstract Object newInstance();
+
+    protected abstract void writeFields(FSTObjectOutput out, Object toWrite) throws IOException;
+
+    protected abstract void readFields(FSTObjectInput in, Object toRead) throws Exception;
+
+    @Override
+    public final void writeObject(FSTObjectOutput out, Object toWrite, FSTClazzInfo clzInfo, FSTClazzInfo.FSTFieldInfo referencedBy, int streamPosition) throws IOException {
+        writeFields(out, toWrite);
+        out.getCodec().writeVersionTag((byte) 0);
+    }
+
+    @Override
+    public final Object instantiate(Class objectClass, FSTObjectInput in, FSTClazzInfo serializationInfo, FSTClazzInfo.FSTFieldInfo referencee, int streamPosition) throws Exception {
+        Object res = newInstance();
+        in.registerObject(res, streamPosition, serializationInfo, referencee);
+        readFields(in, res);
+        in.getCodec().readVersionTag();// just consume '0'
+        return res;
+    }
+
+    /**
+     * creates the context of an object field, equivalent to the FSTFieldInfo created reflectively for a field
+     * having the given type and annotations (@Predict, @Flat, @OneOf)
+     */
+    protected final FSTClazzInfo.FSTFieldInfo fieldInfo(String name, Class type, Class[] predict, boolean flat, String[] oneOf) {
+        return new FSTClazzInfo.FSTFieldInfo(name, type, predict, flat, oneOf, ignoreAnnotations);
+    }
+
+    protected final void writeObjectField(FSTObjectOutput out, FSTClazzInfo.FSTFieldInfo fieldInfo, Object value) throws IOException {
+        out.writeObjectWithContext(fieldInfo, value);
+    }
+
+    protected final Object readObjectField(FSTObjectInput in, FSTClazzInfo.FSTFieldInfo fieldInfo) throws Exception {
+        return in.readObjectWithHeader(fieldInfo);
+    }
+
+}
@@ -15,7 +15,9 @@
  */
 package org.nustaq.serialization;
 
+import org.nustaq.serialization.coders.FSTByteBufferDecoder;
 import org.nustaq.serialization.util.FSTUtil;
+import sun.misc.Unsafe;
 
 import java.io.ByteArrayInputStream;
 import java.io.EOFException;
@@ -33,6 +35,7 @@ import java.io.Serializable;
 import java.lang.reflect.Array;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -67,11 +70,35 @@ public class FSTObjectInput implements ObjectInput {
     private FSTClazzInfoRegistry clInfoRegistry;
 
     FSTConfiguration conf;
+    private boolean sessionMode;
+    private FSTTraversalStack traversal; // null if iterative traversal is disabled
+    private boolean deferFields; // next object's reference fields are read by readObjectFieldsIterative
+    private FSTDeltaCodec deltaCodec; // lazy, @Delta fields
+    private FSTStringTable stringTable; // null if disabled
 
     public FSTConfiguration getConf() {
         return conf;
     }
 
+    /**
+     * session mode: keep class names read across resets for the lifetime of this stream (e.g. a connection),
+     * required to read the output of a FSTObjectOutput in session mode (see FSTObjectOutput.setSessionMode).
+     *
+     * @param sessionMode
+     */
+    public void setSessionMode(boolean sessionMode) {
+        if (getCodec() instanceof FSTSessionCodec) {
+            ((FSTSessionCodec) getCodec()).setSessionMode(sessionMode);
+        } else if (sessionMode) {
+            throw new RuntimeException("codec " + getCodec().getClass().getName() + " does not support session mode (FSTSessionCodec)");
+        }
+        this.sessionMode = sessionMode;
+    }
+
+    public boolean isSessionMode() {
+        return sessionMode;
+    }
+
     @Override
     public void readFully(byte[] b) throws IOException {
         readFully(b, 0, b.length);
@@ -195,8 +222,15 @@ public class FSTObjectInput implements ObjectInput {
      * @param in the specified input stream
      */
     private FSTObjectInput(InputStream in, FSTConfiguration conf) {
-        setCodec(conf.createStreamDecoder());
+        this(conf, conf.createStreamDecoder());
         getCodec().setInputStream(in);
+    }
+
+    /**
+     * Creates a FSTObjectInput reading with the given decoder. The decoder's source has to be set by the caller.
+     */
+    FSTObjectInput(FSTConfiguration conf, FSTDecoder codec) {
+        setCodec(codec);
         initRegistries(conf);
         this.conf = conf;
     }
@@ -215,6 +249,9 @@ public class FSTObjectInput implements ObjectInput {
         } else {
             objects.clearForRead(conf);
         }
+        traversal = conf.isIterativeTraversal() ? new FSTTraversalStack() : null;
+        deferFields = false;
+        stringTable = conf.getStringTableSize() > 0 ? new FSTStringTable(conf.getStringTableSize()) : null;
     }
 
     @Override
@@ -310,7 +347,11 @@ public class FSTObjectInput implements ObjectInput {
         return null;
     }
 
-    private Object readObjectWithHeader(FSTClazzInfo.FSTFieldInfo referencee) throws Exception {
+    Object readObjectWithHeader(FSTClazzInfo.FSTFieldInfo referencee) throws Exception {
+        final boolean defer = deferFields;
+        if (defer) {
+            deferFields = false;
+        }
         FSTClazzInfo clzSerInfo;
         Class c;
         final int readPos = getCodec().getInputPos();
@@ -319,8 +360,11 @@ public class FSTObjectInput implements ObjectInput {
             // class name
             clzSerInfo = readClass();
             c = clzSerInfo.getClazz();
-            if (c.isArray())
+            if (c.isArray()) {
+                if (conf.sequentialHandles)
+                    reserveHandle(referencee, clzSerInfo, readPos);
                 return readArrayNoHeader(referencee, readPos, c);
+            }
             // fall through
         } else if (code == FSTObjectOutput.TYPED) {
             c = referencee.getType();
@@ -337,12 +381,14 @@ public class FSTObjectInput implements ObjectInput {
         } else {
             return instantiateSpecialTag(referencee, readPos, code);
         }
+        if (conf.sequentialHandles)
+            reserveHandle(referencee, clzSerInfo, readPos);
         try {
             FSTObjectSerializer ser = clzSerInfo.getSer();
             if (ser != null) {
                 return instantiateAndReadWithSer(c, ser, clzSerInfo, referencee, readPos);
             } else {
-                return instantiateAndReadNoSer(c, clzSerInfo, referencee, readPos);
+                return instantiateAndReadNoSer(c, clzSerInfo, referencee, readPos, defer);
             }
         } catch (Exception e) {
             FSTUtil.<RuntimeException>rethrow(e);
@@ -350,10 +396,25 @@ public class FSTObjectInput implements ObjectInput {
         return null;
     }
 
+    /**
+     * sequential handles: reserve the next handle if the writer has registered this object. Must use the same
+     * condition as FSTObjectOutput.writeObjectWithContext
+     */
+    private void reserveHandle(FSTClazzInfo.FSTFieldInfo referencee, FSTClazzInfo clzSerInfo, int readPos) {
+        FSTObjectSerializer ser = clzSerInfo.getSer();
+        if (!referencee.isFlat() && !clzSerInfo.isFlat() && (ser == null || !ser.alwaysCopy())) {
+            objects.reserveForRead(readPos);
+        }
+    }
+
     private Object instantiateSpecialTag(FSTClazzInfo.FSTFieldInfo referencee, int readPos, byte code) throws Exception {
         if (code == FSTObjectOutput.STRING) { // faster than switch, note: currently string tag not used by all codecs ..
+            objects.reserveForRead(readPos);
             String res = getCodec().readStringUTF();
-            objects.registerObjectForRead(res, readPos);
+            if (stringTable != null)
+                stringTable.add(res);
+            if (!objects.disabled) // strings are never referenced in cycle safe mode
+                objects.registerObjectForRead(res, readPos);
             return res;
         } else if (code == FSTObjectOutput.BIG_INT) {
             return instantiateBigInt();
@@ -374,6 +435,20 @@ public class FSTObjectInput implements ObjectInput {
                 case FSTObjectOutput.ONE_OF: {
                     return referencee.getOneOf()[getCodec().readFByte()];
                 }
+                case FSTObjectOutput.STRING_DICT: {
+                    if (conf.stringDictionary == null)
+                        throw new RuntimeException("stream has been written with registered strings, see FSTConfiguration.registerStrings");
+                    return conf.stringDictionary.get(getCodec().readFShort());
+                }
+                case FSTObjectOutput.STRING_REF: {
+                    if (stringTable == null)
+                        throw new RuntimeException("stream has been written with a string table, see FSTConfiguration.setStringTableSize");
+                    objects.reserveForRead(readPos);
+                    String res = stringTable.get(getCodec().readFInt());
+                    if (!objects.disabled)
+                        objects.registerObjectForRead(res, readPos);
+                    return res;
+                }
 //                case FSTObjectOutput.NULL: { return null; }
                 case FSTObjectOutput.DIRECT_ARRAY_OBJECT: {//Todo: remove case
                     Object directObject = null;
@@ -461,6 +536,7 @@ public class FSTObjectInput implements ObjectInput {
 
     private Object instantiateAndReadWithSer(Class c, FSTObjectSerializer ser, FSTClazzInfo clzSerInfo, FSTClazzInfo.FSTFieldInfo referencee, int readPos) throws Exception {
         boolean serInstance = false;
+        final int stackSize = objects.getStackSize();
         Object newObj = ser.instantiate(c, this, clzSerInfo, referencee, readPos);
         if (newObj == null) {
             newObj = clzSerInfo.newInstance();
@@ -483,10 +559,15 @@ public class FSTObjectInput implements ObjectInput {
                 objects.registerObjectForRead(newObj, readPos);
             }
         }
+        objects.resetStack(stackSize); // cycle safe mode: newObj has been read completely
         return newObj;
     }
 
-    private Object instantiateAndReadNoSer(Class c, FSTClazzInfo clzSerInfo, FSTClazzInfo.FSTFieldInfo referencee, int readPos) throws Exception {
+    /**
+     * @param defer iterative traversal: only read the primitive fields if possible, reference fields are read by
+     *              the calling readObjectFieldsIterative loop
+     */
+    private Object instantiateAndReadNoSer(Class c, FSTClazzInfo clzSerInfo, FSTClazzInfo.FSTFieldInfo referencee, int readPos, boolean defer) throws Exception {
         Object newObj;
         newObj = clzSerInfo.newInstance();
         if (newObj == null) {
@@ -495,9 +576,10 @@ public class FSTObjectInput implements ObjectInput {
         //fixme: code below improves unshared decoding perf, however disables to run mixed mode (clients can decide)
         //actually would need 2 flags for encode/decode
         //tested with json mixed mode does not work anyway ...
-        final boolean needsRefLookup = conf.shareReferences && !referencee.isFlat() && !clzSerInfo.isFlat();
+        final boolean needsRefLookup = (conf.shareReferences || objects.stackOnly) && !referencee.isFlat() && !clzSerInfo.isFlat();
         // previously :
 //        final boolean needsRefLookup = !referencee.isFlat() && !clzSerInfo.isFlat();
+        final int stackSize = objects.getStackSize();
         if (needsRefLookup) {
             objects.registerObjectForRead(newObj, readPos);
         }
@@ -512,12 +594,117 @@ public class FSTObjectInput implements ObjectInput {
                 newObj = replaced;
             }
         } else {
-            FSTClazzInfo.FSTFieldInfo[] fieldInfo = clzSerInfo.getFieldInfo();
-            readObjectFields(fieldInfo, newObj, 0, 0);
+            final FSTCompiledFields compiledFields = clzSerInfo.getCompiledFields();
+            if (compiledFields != null && defer) {
+                readCompiledPrimitives(compiledFields, newObj);
+                traversal.push(newObj, compiledFields, stackSize); // stack is reset once its fields have been read
+                return newObj;
+            } else if (compiledFields != null) {
+                readCompiledFields(compiledFields, newObj);
+            } else {
+                FSTClazzInfo.FSTFieldInfo[] fieldInfo = clzSerInfo.getFieldInfo();
+                readObjectFields(fieldInfo, newObj, 0, 0);
+            }
         }
+        objects.resetStack(stackSize);
         return newObj;
     }
 
+    /**
+     * counterpart of FSTObjectOutput.writeCompiledFields, see FSTCompiledFields
+     */
+    private void readCompiledFields(FSTCompiledFields compiledFields, Object newObj) throws Exception {
+        readCompiledPrimitives(compiledFields, newObj);
+        if (traversal != null) {
+            readObjectFieldsIterative(compiledFields, newObj);
+            return;
+        }
+        final Unsafe unsafe = FSTUtil.unFlaggedUnsafe;
+        final FSTDecoder codec = getCodec();
+        final FSTClazzInfo.FSTFieldInfo[] objectFields = compiledFields.objectFields;
+        final long[] objectOffsets = compiledFields.objectOffsets;
+        for (int i = 0; i < objectFields.length; i++) {
+            unsafe.putObject(newObj, objectOffsets[i], readObjectWithHeader(objectFields[i]));
+        }
+        codec.readVersionTag();// just consume '0'
+    }
+
+    /**
+     * counterpart of FSTObjectOutput.writeObjectFieldsIterative
+     */
+    private void readObjectFieldsIterative(FSTCompiledFields compiledFields, Object newObj) throws Exception {
+        final Unsafe unsafe = FSTUtil.unFlaggedUnsafe;
+        final FSTDecoder codec = getCodec();
+        final FSTTraversalStack traversal = this.traversal;
+        final int base = traversal.size;
+        traversal.push(newObj, compiledFields, -1); // stack of the root object is reset by the caller
+        while (traversal.size > base) {
+            final int top = traversal.size - 1;
+            final Object current = traversal.objects[top];
+            final FSTCompiledFields fields = traversal.fields[top];
+            final int i = traversal.next[top];
+            if (i == fields.objectFields.length) {
+                codec.readVersionTag();// just consume '0'
+                if (traversal.marks[top] >= 0) {
+                    objects.resetStack(traversal.marks[top]);
+                }
+                traversal.pop();
+                continue;
+            }
+            traversal.next[top] = i + 1;
+            deferFields = true;
+            unsafe.putObject(current, fields.objectOffsets[i], readObjectWithHeader(fields.objectFields[i]));
+        }
+    }
+
+    private void readCompiledPrimitives(FSTCompiledFields compiledFields, Object newObj) throws Exception {
+        final Unsafe unsafe = FSTUtil.unFlaggedUnsafe;
+        final FSTDecoder codec = getCodec();
+        final long[] booleanOffsets = compiledFields.booleanOffsets;
+        int booleanMask = 0;
+        for (int i = 0; i < booleanOffsets.length; i++) {
+            if ((i & 7) == 0) {
+                booleanMask = ((int) codec.readFByte() + 256) & 0xff;
+            }
+            unsafe.putBoolean(newObj, booleanOffsets[i], (booleanMask & 128) != 0);
+            booleanMask = booleanMask << 1;
+        }
+        final int[] primitiveTypes = compiledFields.primitiveTypes;
+        for (int r = 0; r < primitiveTypes.length; r++) {
+            final long[] offsets = compiledFields.primitiveOffsets[r];
+            switch (primitiveTypes[r]) {
+                case FSTClazzInfo.FSTFieldInfo.BYTE:
+                    for (int i = 0; i < offsets.length; i++)
+                        unsafe.putByte(newObj, offsets[i], codec.readFByte());
+                    break;
+                case FSTClazzInfo.FSTFieldInfo.CHAR:
+                    for (int i = 0; i < offsets.length; i++)
+                        unsafe.putChar(newObj, offsets[i], codec.readFChar());
+                    break;
+                case FSTClazzInfo.FSTFieldInfo.SHORT:
+                    for (int i = 0; i < offsets.length; i++)
+                        unsafe.putShort(newObj, offsets[i], codec.readFShort());
+                    break;
+                case FSTClazzInfo.FSTFieldInfo.INT:
+                    for (int i = 0; i < offsets.length; i++)
+                        unsafe.putInt(newObj, offsets[i], codec.readFInt());
+                    break;
+                case FSTClazzInfo.FSTFieldInfo.LONG:
+                    for (int i = 0; i < offsets.length; i++)
+                        unsafe.putLong(newObj, offsets[i], codec.readFLong());
+                    break;
+                case FSTClazzInfo.FSTFieldInfo.FLOAT:
+                    for (int i = 0; i < offsets.length; i++)
+                        unsafe.putFloat(newObj, offsets[i], codec.readFFloat());
+                    break;
+                case FSTClazzInfo.FSTFieldInfo.DOUBLE:
+                    for (int i = 0; i < offsets.length; i++)
+                        unsafe.putDouble(newObj, offsets[i], codec.readFDouble());
+                    break;
+            }
+        }
+    }
+
 
     private Object readObjectCompatible(FSTClazzInfo.FSTFieldInfo referencee, FSTClazzInfo serializationInfo, Object newObj) throws Exception {
         Class cl = serializationInfo.getClazz();
@@ -625,6 +812,8 @@ public class FSTObjectInput implements ObjectInput {
                                 break;
                         }
                     }
+                } else if (subInfo.isDelta()) {
+                    subInfo.setObjectValue(newObj, readDelta(subInfo));
                 } else {
                     if (subInfo.isConditional()) {
                         if (conditional == 0) {
@@ -642,6 +831,13 @@ public class FSTObjectInput implements ObjectInput {
         getCodec().readVersionTag();// just consume '0'
     }
 
+    private Object readDelta(FSTClazzInfo.FSTFieldInfo subInfo) throws IOException {
+        if (deltaCodec == null) {
+            deltaCodec = new FSTDeltaCodec();
+        }
+        return deltaCodec.read(getCodec(), subInfo.getType());
+    }
+
     private void readCompatibleObjectFields(FSTClazzInfo.FSTFieldInfo[] fieldInfo, Map<String, Object> res) throws Exception {
         int booleanMask = 0;
         int boolcount = 8;
@@ -675,6 +871,8 @@ public class FSTObjectInput implements ObjectInput {
                     } else if (subInfoType == long.class) {
                         res.put(subInfo.getName(), getCodec().readFLong());
                     }
+                } else if (subInfo.isDelta()) {
+                    res.put(subInfo.getName(), readDelta(subInfo));
                 } else {
                     // object
                     Object subObject = readObjectWithHeader(subInfo);
@@ -692,12 +890,15 @@ public class FSTObjectInput implements ObjectInput {
 
     private Object readArray(FSTClazzInfo.FSTFieldInfo referencee, int pos) throws Exception {
         Object classOrArray = getCodec().readArrayHeader();
-        if (pos < 0)
+        final boolean subArray = pos < 0; // of a multidim array, not registered by the writer
+        if (subArray)
             pos = getCodec().getInputPos();
         if (classOrArray == null)
             return null;
         if (!(classOrArray instanceof Class))
             return classOrArray;
+        if (conf.sequentialHandles && !subArray)
+            reserveHandle(referencee, clInfoRegistry.getCLInfo((Class) classOrArray, conf), pos);
         return readArrayNoHeader(referencee, pos, (Class) classOrArray);
     }
 
@@ -706,12 +907,14 @@ public class FSTObjectInput implements ObjectInput {
         if (len == -1) {
             return null;
         }
+        final int stackSize = objects.getStackSize();
         Class arrType = arrCl.getComponentType();
         if (!arrCl.getComponentType().isArray()) {
             Object array = Array.newInstance(arrType, len);
             if (!referencee.isFlat())
                 objects.registerObjectForRead(array, pos);
             if (arrCl.getComponentType().isPrimitive()) {
+                objects.resetStack(stackSize); // can't contain back references
                 return getCodec().readFPrimitiveArray(array, arrType, len);
             } else { // Object Array
                 Object arr[] = (Object[]) array;
@@ -719,6 +922,7 @@ public class FSTObjectInput implements ObjectInput {
                     arr[i] = readObjectWithHeader(referencee);
                 }
             }
+            objects.resetStack(stackSize);
             return array;
         } else { // multidim array
             Object array[] = (Object[]) Array.newInstance(arrType, len);
@@ -730,12 +934,13 @@ public class FSTObjectInput implements ObjectInput {
                 Object subArray = readArray(ref1, -1);
                 array[i] = subArray;
             }
+            objects.resetStack(stackSize);
             return array;
         }
     }
 
     public void registerObject(Object o, int streamPosition, FSTClazzInfo info, FSTClazzInfo.FSTFieldInfo referencee) {
-        if (!objects.disabled && !referencee.isFlat() && (info == null || !info.isFlat())) {
+        if ((!objects.disabled || objects.stackOnly) && !referencee.isFlat() && (info == null || !info.isFlat())) {
             objects.registerObjectForRead(o, streamPosition);
         }
     }
@@ -744,10 +949,24 @@ public class FSTObjectInput implements ObjectInput {
         return getCodec().readClass();
     }
 
+    /**
+     * forget objects, pending iterative traversal and strings of the previous stream
+     */
+    private void clearRefs() {
+        objects.clearForRead(conf);
+        if (traversal != null) {
+            traversal.clear();
+            deferFields = false;
+        }
+        if (stringTable != null) {
+            stringTable.clear();
+        }
+    }
+
     private void resetAndClearRefs() {
         try {
             reset();
-            objects.clearForRead(conf);
+            clearRefs();
         } catch (IOException e) {
             FSTUtil.<RuntimeException>rethrow(e);
         }
@@ -757,15 +976,36 @@ public class FSTObjectInput implements ObjectInput {
         getCodec().reset();
     }
 
+    void resetForReuse(InputStream in) throws IOException {
+        if (closed) {
+            throw new RuntimeException("can't reuse closed stream");
+        }
+        clearRefs();
+        getCodec().setInputStream(in);
+    }
+
     void resetForReuseUseArray(byte bytes[], int len) throws IOException {
         if (closed) {
             throw new RuntimeException("can't reuse closed stream");
         }
-        objects.clearForRead(conf);
+        clearRefs();
         getCodec().resetWith(bytes, len);
     }
 
-    private boolean closed = false;
+    /**
+     * read from the given buffer, requires a FSTByteBufferDecoder
+     *
+     * @param buffer
+     */
+    void resetForReuse(ByteBuffer buffer) {
+        if (closed) {
+            throw new RuntimeException("can't reuse closed stream");
+        }
+        clearRefs();
+        ((FSTByteBufferDecoder) getCodec()).setBuffer(buffer);
+    }
+
+    boolean closed = false;
 
     @Override
     public void close() throws IOException {
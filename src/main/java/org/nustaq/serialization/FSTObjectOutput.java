@@ -15,10 +15,13 @@
  */
 package org.nustaq.serialization;
 
+import org.nustaq.serialization.coders.FSTByteBufferEncoder;
 import org.nustaq.serialization.util.FSTUtil;
+import sun.misc.Unsafe;
 
 import java.io.*;
 import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -34,6 +37,8 @@ import java.util.*;
  */
 public class FSTObjectOutput implements ObjectOutput {
 
+    static final byte STRING_DICT = -21; // index into the configuration's string dictionary, see FSTStringDictionary
+    static final byte STRING_REF = -20; // index into the stream's string table, see FSTStringTable
     static final byte SPECIAL_COMPATIBILITY_OBJECT_TAG = -19; // see issue 52
     static final byte ONE_OF = -18;
     static final byte BIG_BOOLEAN_FALSE = -17;
@@ -58,7 +63,12 @@ public class FSTObjectOutput implements ObjectOutput {
 
     // double state to reduce pointer chasing
     private final boolean dontShare;
+    private final boolean cycleSafe; // dontShare, but detect back references to objects currently being written
     private final FSTClazzInfo stringInfo;
+    private final FSTTraversalStack traversal; // null if iterative traversal is disabled
+    private boolean deferFields; // next object's reference fields are written by writeObjectFieldsIterative
+    private FSTDeltaCodec deltaCodec; // lazy, @Delta fields
+    private final FSTStringTable stringTable; // null if disabled
 
     /**
      * Creates a new FSTObjectOutput stream to write data to the specified
@@ -80,9 +90,16 @@ public class FSTObjectOutput implements ObjectOutput {
      *            use.
      */
     private FSTObjectOutput(OutputStream out, FSTConfiguration conf) {
-        this.conf = conf;
-        setCodec(conf.createStreamEncoder());
+        this(conf, conf.createStreamEncoder());
         getCodec().setOutstream(out);
+    }
+
+    /**
+     * Creates a FSTObjectOutput writing with the given encoder. The encoder's target has to be set by the caller.
+     */
+    FSTObjectOutput(FSTConfiguration conf, FSTEncoder codec) {
+        this.conf = conf;
+        setCodec(codec);
 
         objects = (FSTObjectRegistry) conf.getCachedObject(FSTObjectRegistry.class);
         if (objects == null) {
@@ -92,7 +109,10 @@ public class FSTObjectOutput implements ObjectOutput {
             objects.clearForWrite(conf);
         }
         dontShare = objects.disabled;
+        cycleSafe = objects.stackOnly;
+        traversal = conf.isIterativeTraversal() ? new FSTTraversalStack() : null;
         stringInfo = getClassInfoRegistry().getCLInfo(String.class, conf);
+        stringTable = conf.getStringTableSize() > 0 ? new FSTStringTable(conf.getStringTableSize()) : null;
     }
 
     /**
@@ -142,6 +162,7 @@ public class FSTObjectOutput implements ObjectOutput {
     }
 
     boolean closed = false;
+    private boolean sessionMode;
 
     @Override
     public void close() throws IOException {
@@ -286,7 +307,7 @@ public class FSTObjectOutput implements ObjectOutput {
         return fstClazzInfo.useCompatibleMode() ? null : fstClazzInfo;
     }
 
-    private FSTClazzInfo writeObjectWithContext(FSTClazzInfo.FSTFieldInfo referencee, Object toWrite) throws IOException {
+    FSTClazzInfo writeObjectWithContext(FSTClazzInfo.FSTFieldInfo referencee, Object toWrite) throws IOException {
         return writeObjectWithContext(referencee, toWrite, null);
     }
 
@@ -294,6 +315,10 @@ public class FSTObjectOutput implements ObjectOutput {
 
     // splitting this slows down ...
     private FSTClazzInfo writeObjectWithContext(FSTClazzInfo.FSTFieldInfo referencee, Object toWrite, FSTClazzInfo ci) throws IOException {
+        final boolean defer = deferFields;
+        if (defer) {
+            deferFields = false;
+        }
         if (toWrite == null) {
             getCodec().writeTag(NULL, null, 0, toWrite, this);
             return null;
@@ -311,9 +336,26 @@ public class FSTObjectOutput implements ObjectOutput {
                     }
                 }
             }
+            final FSTStringDictionary dictionary = conf.stringDictionary;
+            if (dictionary != null) {
+                final int index = dictionary.indexOf((String) toWrite);
+                if (index >= 0) {
+                    getCodec().writeTag(STRING_DICT, null, index, toWrite, this);
+                    getCodec().writeFShort((short) index);
+                    return null;
+                }
+            }
             // shortpath
             if (!dontShare && writeHandleIfApplicable(toWrite, stringInfo))
                 return stringInfo;
+            if (stringTable != null) {
+                final int index = stringTable.indexOfOrAdd((String) toWrite);
+                if (index >= 0) {
+                    getCodec().writeTag(STRING_REF, null, index, toWrite, this);
+                    getCodec().writeFInt(index);
+                    return null;
+                }
+            }
             getCodec().writeTag(STRING, toWrite, 0, toWrite, this);
             getCodec().writeStringUTF((String) toWrite);
             return null;
@@ -339,7 +381,28 @@ public class FSTObjectOutput implements ObjectOutput {
         if (!dontShare && !referencee.isFlat() && !serializationInfo.isFlat() && (ser == null || !ser.alwaysCopy())) {
             if (writeHandleIfApplicable(toWrite, serializationInfo))
                 return serializationInfo;
+        } else if (cycleSafe && !referencee.isFlat() && !serializationInfo.isFlat() && (ser == null || !ser.alwaysCopy())) {
+            final int writePos = getCodec().getWritten();
+            final int handle = objects.getStackPosition(toWrite);
+            if (handle >= 0) { // back reference, would recurse endlessly
+                if (!getCodec().writeTag(HANDLE, null, handle, toWrite, this))
+                    getCodec().writeFInt(handle);
+                return serializationInfo;
+            }
+            objects.pushStack(toWrite, writePos);
+            final int pending = defer ? traversal.size : -1;
+            final FSTClazzInfo res = writeObjectContent(referencee, toWrite, clazz, serializationInfo, ser, defer);
+            if (pending >= 0 && traversal.size > pending) {
+                traversal.marks[pending] = 1; // fields not written yet, pop once done
+            } else {
+                objects.popStack(); // no finally, a failed write can't be continued anyway. Stack is cleared on reuse
+            }
+            return res;
         }
+        return writeObjectContent(referencee, toWrite, clazz, serializationInfo, ser, defer);
+    }
+
+    private FSTClazzInfo writeObjectContent(FSTClazzInfo.FSTFieldInfo referencee, Object toWrite, Class clazz, FSTClazzInfo serializationInfo, FSTObjectSerializer ser, boolean defer) throws IOException {
         if (clazz.isArray()) {
             if (getCodec().writeTag(ARRAY, toWrite, 0, toWrite, this))
                 return serializationInfo; // some codecs handle primitive arrays like an primitive type
@@ -357,7 +420,9 @@ public class FSTObjectOutput implements ObjectOutput {
                 }
             }
             if (!writeObjectHeader(serializationInfo, referencee, toWrite)) { // skip in case codec can write object as primitive
-                defaultWriteObject(toWrite, serializationInfo);
+                if (!defer || !deferObjectFields(toWrite, serializationInfo)) {
+                    defaultWriteObject(toWrite, serializationInfo);
+                }
             }
             return originalInfo;
         } else { // object has custom serializer
@@ -430,11 +495,144 @@ public class FSTObjectOutput implements ObjectOutput {
             getCodec().ensureFree(writeExternalWriteAhead);
             ((Externalizable) toWrite).writeExternal(this);
         } else {
-            FSTClazzInfo.FSTFieldInfo[] fieldInfo = serializationInfo.getFieldInfo();
-            writeObjectFields(toWrite, serializationInfo, fieldInfo, 0, 0);
+            final FSTCompiledFields compiledFields = serializationInfo.getCompiledFields();
+            if (compiledFields != null) {
+                writeCompiledFields(toWrite, compiledFields);
+            } else {
+                FSTClazzInfo.FSTFieldInfo[] fieldInfo = serializationInfo.getFieldInfo();
+                writeObjectFields(toWrite, serializationInfo, fieldInfo, 0, 0);
+            }
         }
     }
 
+    /**
+     * same format as writeObjectFields, see FSTCompiledFields
+     */
+    private void writeCompiledFields(Object toWrite, FSTCompiledFields compiledFields) throws IOException {
+        final Unsafe unsafe = FSTUtil.unFlaggedUnsafe;
+        final FSTEncoder codec = getCodec();
+        writeCompiledPrimitives(toWrite, compiledFields);
+        if (traversal != null) {
+            writeObjectFieldsIterative(toWrite, compiledFields);
+            return;
+        }
+        final FSTClazzInfo.FSTFieldInfo[] objectFields = compiledFields.objectFields;
+        final long[] objectOffsets = compiledFields.objectOffsets;
+        for (int i = 0; i < objectFields.length; i++) {
+            Object subObject = unsafe.getObject(toWrite, objectOffsets[i]);
+            if (subObject == null) {
+                codec.writeTag(NULL, null, 0, toWrite, this);
+            } else {
+                writeObjectWithContext(objectFields[i], subObject);
+            }
+        }
+        codec.writeVersionTag((byte) 0);
+    }
+
+    private void writeCompiledPrimitives(Object toWrite, FSTCompiledFields compiledFields) throws IOException {
+        final Unsafe unsafe = FSTUtil.unFlaggedUnsafe;
+        final FSTEncoder codec = getCodec();
+        final long[] booleanOffsets = compiledFields.booleanOffsets;
+        int booleanMask = 0;
+        int boolcount = 0;
+        for (int i = 0; i < booleanOffsets.length; i++) {
+            if (boolcount == 8) {
+                codec.writeFByte(booleanMask);
+                boolcount = 0;
+                booleanMask = 0;
+            }
+            booleanMask = (booleanMask << 1) | (unsafe.getBoolean(toWrite, booleanOffsets[i]) ? 1 : 0);
+            boolcount++;
+        }
+        if (boolcount > 0) {
+            codec.writeFByte(booleanMask << (8 - boolcount));
+        }
+        final int[] primitiveTypes = compiledFields.primitiveTypes;
+        for (int r = 0; r < primitiveTypes.length; r++) {
+            final long[] offsets = compiledFields.primitiveOffsets[r];
+            switch (primitiveTypes[r]) {
+                case FSTClazzInfo.FSTFieldInfo.BYTE:
+                    for (int i = 0; i < offsets.length; i++)
+                        codec.writeFByte(unsafe.getByte(toWrite, offsets[i]));
+                    break;
+                case FSTClazzInfo.FSTFieldInfo.CHAR:
+                    for (int i = 0; i < offsets.length; i++)
+                        codec.writeFChar(unsafe.getChar(toWrite, offsets[i]));
+                    break;
+                case FSTClazzInfo.FSTFieldInfo.SHORT:
+                    for (int i = 0; i < offsets.length; i++)
+                        codec.writeFShort(unsafe.getShort(toWrite, offsets[i]));
+                    break;
+                case FSTClazzInfo.FSTFieldInfo.INT:
+                    for (int i = 0; i < offsets.length; i++)
+                        codec.writeFInt(unsafe.getInt(toWrite, offsets[i]));
+                    break;
+                case FSTClazzInfo.FSTFieldInfo.LONG:
+                    for (int i = 0; i < offsets.length; i++)
+                        codec.writeFLong(unsafe.getLong(toWrite, offsets[i]));
+                    break;
+                case FSTClazzInfo.FSTFieldInfo.FLOAT:
+                    for (int i = 0; i < offsets.length; i++)
+                        codec.writeFFloat(unsafe.getFloat(toWrite, offsets[i]));
+                    break;
+                case FSTClazzInfo.FSTFieldInfo.DOUBLE:
+                    for (int i = 0; i < offsets.length; i++)
+                        codec.writeFDouble(unsafe.getDouble(toWrite, offsets[i]));
+                    break;
+            }
+        }
+    }
+
+    /**
+     * iterative traversal: writes the reference fields of toWrite and of all objects reached from there which have a
+     * compiled field plan using the heap allocated traversal stack instead of recursion. Same format as the
+     * recursive loop in writeCompiledFields. Objects written by serializers, arrays etc. still recurse.
+     */
+    private void writeObjectFieldsIterative(Object toWrite, FSTCompiledFields compiledFields) throws IOException {
+        final Unsafe unsafe = FSTUtil.unFlaggedUnsafe;
+        final FSTEncoder codec = getCodec();
+        final FSTTraversalStack traversal = this.traversal;
+        final int base = traversal.size;
+        traversal.push(toWrite, compiledFields, 0);
+        while (traversal.size > base) {
+            final int top = traversal.size - 1;
+            final Object current = traversal.objects[top];
+            final FSTCompiledFields fields = traversal.fields[top];
+            final int i = traversal.next[top];
+            if (i == fields.objectFields.length) {
+                codec.writeVersionTag((byte) 0);
+                if (traversal.marks[top] != 0) {
+                    objects.popStack();
+                }
+                traversal.pop();
+                continue;
+            }
+            traversal.next[top] = i + 1;
+            final Object subObject = unsafe.getObject(current, fields.objectOffsets[i]);
+            if (subObject == null) {
+                codec.writeTag(NULL, null, 0, current, this);
+            } else {
+                deferFields = true; // header + primitives only, the loop continues with its reference fields
+                writeObjectWithContext(fields.objectFields[i], subObject, null);
+            }
+        }
+    }
+
+    /**
+     * iterative traversal: write the primitive fields and push toWrite to the traversal stack
+     *
+     * @return false if toWrite has to be written by defaultWriteObject
+     */
+    private boolean deferObjectFields(Object toWrite, FSTClazzInfo serializationInfo) throws IOException {
+        final FSTCompiledFields compiledFields = serializationInfo.getCompiledFields();
+        if (compiledFields == null || serializationInfo.isExternalizable()) {
+            return false;
+        }
+        writeCompiledPrimitives(toWrite, compiledFields);
+        traversal.push(toWrite, compiledFields, 0);
+        return true;
+    }
+
     private void writeObjectCompatible(FSTClazzInfo.FSTFieldInfo referencee, Object toWrite, FSTClazzInfo serializationInfo) throws IOException {
         // Object header (nothing written till here)
         writeObjectHeader(serializationInfo, referencee, toWrite);
@@ -531,6 +729,11 @@ public class FSTObjectOutput implements ObjectOutput {
                             getCodec().writeFDouble(subInfo.getDoubleValue(toWrite));
                             break;
                     }
+                } else if (subInfo.isDelta()) {
+                    if (deltaCodec == null) {
+                        deltaCodec = new FSTDeltaCodec();
+                    }
+                    deltaCodec.write(getCodec(), subInfo.getObjectValue(toWrite));
                 } else if (subInfo.isConditional()) {
                     final int conditional = getCodec().getWritten();
                     getCodec().skip(4);
@@ -640,9 +843,23 @@ public class FSTObjectOutput implements ObjectOutput {
         getCodec().writeStringUTF(str);
     }
 
+    /**
+     * forget objects, pending iterative traversal and strings of the previous stream
+     */
+    private void clearRefs() {
+        objects.clearForWrite(conf);
+        if (traversal != null) {
+            traversal.clear();
+            deferFields = false;
+        }
+        if (stringTable != null) {
+            stringTable.clear();
+        }
+    }
+
     private void resetAndClearRefs() {
         getCodec().reset(null);
-        objects.clearForWrite(conf);
+        clearRefs();
     }
 
     /**
@@ -654,10 +871,21 @@ public class FSTObjectOutput implements ObjectOutput {
         if (closed)
             throw new RuntimeException("Can't reuse closed stream");
         getCodec().reset(null);
-        if (out != null) {
-            getCodec().setOutstream(out);
-        }
-        objects.clearForWrite(conf);
+        // out == null detaches a previously used stream, else incremental flushing would write to it
+        getCodec().setOutstream(out);
+        clearRefs();
+    }
+
+    /**
+     * write to the given buffer, requires a FSTByteBufferEncoder
+     *
+     * @param buffer
+     */
+    void resetForReUse(ByteBuffer buffer) {
+        if (closed)
+            throw new RuntimeException("Can't reuse closed stream");
+        ((FSTByteBufferEncoder) getCodec()).setBuffer(buffer);
+        clearRefs();
     }
 
     private FSTClazzInfoRegistry getClassInfoRegistry() {
@@ -892,6 +1120,29 @@ public class FSTObjectOutput implements ObjectOutput {
         return conf;
     }
 
+    /**
+     * session mode: class names are written only once for the lifetime of this stream (e.g. a connection)
+     * instead of once per flush/reset, classes not known to the configuration (registerClass) are sent
+     * incrementally. The receiving FSTObjectInput has to be in session mode as well and must read all messages
+     * in the order they have been written. Use with streams owned by a connection, not with the recycled ones
+     * obtained by FSTConfiguration.getObjectOutput. Requires a codec implementing FSTSessionCodec (the bundled
+     * coders do).
+     *
+     * @param sessionMode
+     */
+    public void setSessionMode(boolean sessionMode) {
+        if (getCodec() instanceof FSTSessionCodec) {
+            ((FSTSessionCodec) getCodec()).setSessionMode(sessionMode);
+        } else if (sessionMode) {
+            throw new RuntimeException("codec " + getCodec().getClass().getName() + " does not support session mode (FSTSessionCodec)");
+        }
+        this.sessionMode = sessionMode;
+    }
+
+    public boolean isSessionMode() {
+        return sessionMode;
+    }
+
     /**
      * @return the number of bytes written to this stream. This also is the number of
      * valid bytes in the buffer one obtains from the various getBuffer, getCopyOfBuffer methods.
@@ -19,6 +19,8 @@ import org.nustaq.serialization.util.FSTIdentity2IdMap;
 import org.nustaq.serialization.util.FSTInt2ObjectMap;
 import org.nustaq.serialization.util.FSTUtil;
 
+import java.util.Arrays;
+
 /**
  * Created with IntelliJ IDEA.
  * User: ruedi
@@ -30,6 +32,7 @@ final class FSTObjectRegistry {
 
     private static final int OBJ_DIVISOR = 16;
     private final static int POS_MAP_SIZE = 1000; // reduce this for testing
+    private final static int MAX_RETAINED_KEYS = 1 << 20;
 
     boolean disabled = false;
     private FSTIdentity2IdMap objects = new FSTIdentity2IdMap(11); // object => id
@@ -38,12 +41,39 @@ final class FSTObjectRegistry {
     private final Object reuseMap[] = new Object[POS_MAP_SIZE];
     private int highestPos = -1;
 
+    // sequential handles, see FSTConfiguration.setSequentialHandles
+    private boolean sequential;
+    private int writeSequence;
+    private int readSequence;
+    private Object sequenceObjects[] = new Object[16]; // handle => object
+    private int sequencePositions[] = new int[16];   // handle => stream position of the object (ascending)
+
+    // cycle safe unshared mode (see FSTConfiguration.setCycleSafe): only objects currently being written/read are tracked
+    boolean stackOnly;
+    private Object stackObjects[] = new Object[16];
+    private int stackPositions[] = new int[16];
+    private int stackSize;
+
     FSTObjectRegistry(FSTConfiguration conf) {
         disabled = !conf.isShareReferences();
+        sequential = conf.isSequentialHandles();
+        stackOnly = disabled && conf.isCycleSafe();
     }
 
     void clearForRead(FSTConfiguration conf) {
         disabled = !conf.isShareReferences();
+        sequential = conf.isSequentialHandles();
+        clearStack(conf);
+        if (readSequence > 0) {
+            if (sequenceObjects.length > 6 * readSequence && sequenceObjects.length > 1024) {
+                // avoid cleaning huge mem areas after having read a large object
+                sequenceObjects = new Object[readSequence];
+                sequencePositions = new int[readSequence];
+            } else {
+                FSTUtil.clear(sequenceObjects, readSequence);
+            }
+            readSequence = 0;
+        }
         if (!disabled) {
             if (idToObject.mKeys.length > 6 * idToObject.size() && idToObject.size() > 0) {
                 // avoid cleaning huge mem areas after having written a large object
@@ -59,8 +89,14 @@ final class FSTObjectRegistry {
 
     void clearForWrite(FSTConfiguration conf) {
         disabled = !conf.isShareReferences();
+        sequential = conf.isSequentialHandles();
+        clearStack(conf);
+        writeSequence = 0;
         if (!disabled) {
-            if (objects.size() > 0 && objects.keysLength() > 6 * objects.size()) {
+            if (objects.keysLength() > MAX_RETAINED_KEYS) {
+                // do not hold on to a huge table after having written a large object graph
+                objects = new FSTIdentity2IdMap(11);
+            } else if (objects.size() > 0 && objects.keysLength() > 6 * objects.size()) {
                 objects = new FSTIdentity2IdMap(objects.size());
             } else {
                 objects.clear();
@@ -68,10 +104,23 @@ final class FSTObjectRegistry {
         }
     }
 
+    private void clearStack(FSTConfiguration conf) {
+        stackOnly = disabled && conf.isCycleSafe();
+        FSTUtil.clear(stackObjects, stackSize);
+        stackSize = 0;
+    }
+
     Object getReadRegisteredObject(int handle) {
         if (disabled) {
+            if (stackOnly) {
+                final int index = getStackIndex(handle);
+                return index >= 0 ? stackObjects[index] : null;
+            }
             return null;
         }
+        if (sequential) {
+            return handle >= 0 && handle < readSequence ? sequenceObjects[handle] : null;
+        }
         int pos = handle / OBJ_DIVISOR;
         if (pos < reuseMap.length) {
             if (reuseMap[pos] == null) {
@@ -87,6 +136,20 @@ final class FSTObjectRegistry {
     }
 
     void replace(Object old, Object replaced, int streamPos) {
+        if (disabled) {
+            final int index = stackOnly ? getStackIndex(streamPos) : -1;
+            if (index >= 0) {
+                stackObjects[index] = replaced;
+            }
+            return;
+        }
+        if (sequential) {
+            int handle = getSequenceHandle(streamPos);
+            if (handle >= 0) {
+                sequenceObjects[handle] = replaced;
+            }
+            return;
+        }
         int pos = streamPos / OBJ_DIVISOR;
         final Object[] reuseMap = this.reuseMap;
         if (pos < reuseMap.length) {
@@ -106,9 +169,19 @@ final class FSTObjectRegistry {
 
     void registerObjectForRead(Object o, int streamPosition) {
         if (disabled /*|| streamPosition <= lastRegisteredReadPos*/) {
+            if (stackOnly) {
+                pushStack(o, streamPosition);
+            }
             return;
         }
 //        System.out.println("POK REGISTER AT READ:"+streamPosition+" : "+o);
+        if (sequential) {
+            int handle = getSequenceHandle(streamPosition);
+            if (handle >= 0) {
+                sequenceObjects[handle] = o;
+            }
+            return;
+        }
         int pos = streamPosition / OBJ_DIVISOR;
         Object[] reuseMap = this.reuseMap;
         if (pos < reuseMap.length) {
@@ -137,11 +210,91 @@ final class FSTObjectRegistry {
         if (clzInfo != null && clzInfo.isFlat()) {
             return Integer.MIN_VALUE;
         }
-        int handle = objects.putOrGet(o, streamPosition);
+        int handle = objects.putOrGet(o, sequential ? writeSequence : streamPosition);
         if (handle >= 0) {
             reUseType[0] = 0;
             return handle;
         }
+        if (sequential) {
+            writeSequence++;
+        }
         return Integer.MIN_VALUE;
     }
+
+    /**
+     * cycle safe unshared mode only. Objects are pushed when registered and dropped once they have been written/read
+     * completely (see resetStack), so the stack contains the path from the root to the current object.
+     */
+    void pushStack(Object o, int streamPosition) {
+        if (stackSize == stackObjects.length) {
+            stackObjects = Arrays.copyOf(stackObjects, stackSize * 2);
+            stackPositions = Arrays.copyOf(stackPositions, stackSize * 2);
+        }
+        stackObjects[stackSize] = o;
+        stackPositions[stackSize++] = streamPosition;
+    }
+
+    int getStackSize() {
+        return stackSize;
+    }
+
+    void popStack() {
+        stackObjects[--stackSize] = null;
+    }
+
+    void resetStack(int size) {
+        while (stackSize > size) {
+            stackObjects[--stackSize] = null;
+        }
+    }
+
+    /**
+     * @return stream position of o if it is currently on the stack (a back reference), else Integer.MIN_VALUE
+     */
+    int getStackPosition(Object o) {
+        final Object[] stackObjects = this.stackObjects;
+        for (int i = stackSize - 1; i >= 0; i--) {
+            if (stackObjects[i] == o) {
+                return stackPositions[i];
+            }
+        }
+        return Integer.MIN_VALUE;
+    }
+
+    private int getStackIndex(int streamPosition) {
+        for (int i = stackSize - 1; i >= 0; i--) {
+            if (stackPositions[i] == streamPosition) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * sequential handles only. Called by the reader for each object header the writer has registered
+     * (same order as registerObjectForWrite), so the n'th reserved object gets handle n. The object itself is
+     * stored later on by registerObjectForRead using the same stream position.
+     */
+    void reserveForRead(int streamPosition) {
+        if (disabled || !sequential) {
+            return;
+        }
+        if (readSequence == sequenceObjects.length) {
+            sequenceObjects = Arrays.copyOf(sequenceObjects, readSequence * 2);
+            sequencePositions = Arrays.copyOf(sequencePositions, readSequence * 2);
+        }
+        sequencePositions[readSequence++] = streamPosition;
+    }
+
+    /**
+     * @return handle reserved for the object at streamPosition or a negative value if none has been reserved
+     * (e.g. registrations done by serializers for objects the writer does not share)
+     */
+    private int getSequenceHandle(int streamPosition) {
+        final int last = readSequence - 1;
+        if (last >= 0 && sequencePositions[last] == streamPosition) {
+            return last;
+        }
+        return Arrays.binarySearch(sequencePositions, 0, readSequence, streamPosition);
+    }
 }
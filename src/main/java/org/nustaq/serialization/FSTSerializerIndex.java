@@ -0,0 +1,27 @@
+/*
+ * Copyright 2014 Ruediger Moeller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nustaq.serialization;
+
+/**
+ * registers a set of generated serializers (see FSTGeneratedSerializer). Implementations are generated by fst's
+ * annotation processor and listed in META-INF/services, so they can be found by
+ * {@link FSTConfiguration#registerGeneratedSerializers()}.
+ */
+public interface FSTSerializerIndex {
+
+    void registerSerializers(FSTConfiguration conf);
+
+}
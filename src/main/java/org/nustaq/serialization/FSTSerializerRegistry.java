@@ -15,7 +15,7 @@
  */
 package org.nustaq.serialization;
 
-import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created with IntelliJ IDEA.
@@ -73,7 +73,7 @@ class FSTSerializerRegistry {
         }
     }
 
-    private final HashMap<Class, SerEntry> map = new HashMap<>(97);
+    private final ConcurrentHashMap<Class, SerEntry> map = new ConcurrentHashMap<>(97);
 
     final FSTObjectSerializer getSerializer(Class cl) {
         if (cl.isPrimitive()) {
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2014 Ruediger Moeller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nustaq.serialization;
+
+/**
+ * optionally implemented by FSTEncoder/FSTDecoder implementations supporting session mode
+ * (see FSTObjectOutput.setSessionMode). Kept out of the codec interfaces, so existing codecs don't have to implement it.
+ */
+public interface FSTSessionCodec {
+
+    /**
+     * if true, classes registered dynamically while writing/reading (class name written to the stream) are kept
+     * on reset, so each class name is written once per session (e.g. a connection) instead of once per message.
+     * Encoder and decoder have to use session mode and all messages have to be read in order.
+     *
+     * @param sessionMode
+     */
+    void setSessionMode(boolean sessionMode);
+
+}
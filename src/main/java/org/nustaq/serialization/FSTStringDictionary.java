@@ -0,0 +1,106 @@
+/*
+ * Copyright 2014 Ruediger Moeller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nustaq.serialization;
+
+import java.util.Arrays;
+
+/**
+ * Strings preregistered on a FSTConfiguration (see FSTConfiguration.registerStrings). A registered string is written as
+ * FSTObjectOutput.STRING_DICT + its index, the reader returns the registered (interned) instance.
+ * <p>
+ * Filled at init time, read only afterwards, so it can be shared by all streams of a configuration.
+ */
+final class FSTStringDictionary {
+
+    static final int MAX_SIZE = Short.MAX_VALUE;
+
+    private String strings[] = new String[16]; // by index
+    private int size;
+    // open addressing hash of the strings, indices[slot] = index of keys[slot]
+    private String keys[] = new String[32];
+    private int indices[] = new int[32];
+
+    /**
+     * add a string, registering an already known string again does nothing
+     */
+    void register(String s) {
+        if (s == null) {
+            throw new RuntimeException("can't register null");
+        }
+        if (indexOf(s) >= 0) {
+            return;
+        }
+        if (size == MAX_SIZE) {
+            throw new RuntimeException("too many strings registered, max " + MAX_SIZE);
+        }
+        s = s.intern();
+        if (size == strings.length) {
+            strings = Arrays.copyOf(strings, size * 2);
+        }
+        strings[size] = s;
+        insert(keys, indices, s, size);
+        size++;
+        if (size * 2 > keys.length) {
+            final String newKeys[] = new String[keys.length * 2];
+            final int newIndices[] = new int[newKeys.length];
+            for (int i = 0; i < size; i++) {
+                insert(newKeys, newIndices, strings[i], i);
+            }
+            keys = newKeys;
+            indices = newIndices;
+        }
+    }
+
+    /**
+     * @return index of the string or -1 if it is not registered
+     */
+    int indexOf(String s) {
+        final String keys[] = this.keys;
+        final int mask = keys.length - 1;
+        int slot = hash(s) & mask;
+        String key;
+        while ((key = keys[slot]) != null) {
+            if (key.equals(s)) {
+                return indices[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    String get(int index) {
+        if (index < 0 || index >= size) {
+            throw new RuntimeException("unknown string dictionary index " + index + ", size " + size + ". Read and write side need to register the same strings.");
+        }
+        return strings[index];
+    }
+
+    private static void insert(String keys[], int indices[], String s, int index) {
+        final int mask = keys.length - 1;
+        int slot = hash(s) & mask;
+        while (keys[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = s;
+        indices[slot] = index;
+    }
+
+    private static int hash(String s) {
+        final int h = s.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2014 Ruediger Moeller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nustaq.serialization;
+
+import java.util.Arrays;
+
+/**
+ * Value based string table of a stream, see FSTConfiguration.setStringTableSize. Writer and reader add each string
+ * written/read in full (STRING tag) until the table is full, so both sides assign the same index to a string and
+ * repeated equal strings are written as FSTObjectOutput.STRING_REF + index.
+ */
+final class FSTStringTable {
+
+    private final int maxSize;
+    private int size;
+    private String strings[]; // reader: by index
+    // writer: open addressing hash of the strings, indices[slot] = index of keys[slot]
+    private String keys[];
+    private int indices[];
+
+    FSTStringTable(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * writer side
+     *
+     * @return index of an equal string or -1. In the latter case the string has been added if the table is not full.
+     */
+    int indexOfOrAdd(String s) {
+        if (keys == null) {
+            keys = new String[32];
+            indices = new int[32];
+        }
+        final int mask = keys.length - 1;
+        int slot = hash(s) & mask;
+        String key;
+        while ((key = keys[slot]) != null) {
+            if (key.equals(s)) {
+                return indices[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (size < maxSize) {
+            keys[slot] = s;
+            indices[slot] = size++;
+            if (size * 2 > keys.length) {
+                rehash(keys.length * 2);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * reader side, the string has been read in full
+     */
+    void add(String s) {
+        if (size < maxSize) {
+            if (strings == null) {
+                strings = new String[32];
+            } else if (size == strings.length) {
+                strings = Arrays.copyOf(strings, Math.min(maxSize, size * 2));
+            }
+            strings[size++] = s;
+        }
+    }
+
+    /**
+     * reader side
+     */
+    String get(int index) {
+        if (index < 0 || index >= size) {
+            throw new RuntimeException("invalid string table index " + index + ", size " + size);
+        }
+        return strings[index];
+    }
+
+    void clear() {
+        if (size == 0) {
+            return;
+        }
+        if (strings != null) {
+            if (strings.length > 1024) {
+                strings = null;
+            } else {
+                Arrays.fill(strings, 0, size, null);
+            }
+        }
+        if (keys != null) {
+            if (keys.length > 2048) {
+                keys = null;
+                indices = null;
+            } else {
+                Arrays.fill(keys, null);
+            }
+        }
+        size = 0;
+    }
+
+    private void rehash(int newLength) {
+        final String oldKeys[] = keys;
+        final int oldIndices[] = indices;
+        keys = new String[newLength];
+        indices = new int[newLength];
+        final int mask = newLength - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            final String key = oldKeys[i];
+            if (key != null) {
+                int slot = hash(key) & mask;
+                while (keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+                indices[slot] = oldIndices[i];
+            }
+        }
+    }
+
+    private static int hash(String s) {
+        final int h = s.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2014 Ruediger Moeller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nustaq.serialization;
+
+import java.util.Arrays;
+
+/**
+ * Heap allocated work stack of the iterative traversal (see FSTConfiguration.setIterativeTraversal): objects whose
+ * header and primitive fields have been written/read, but whose reference fields are still pending.
+ */
+final class FSTTraversalStack {
+
+    Object objects[] = new Object[16];
+    FSTCompiledFields fields[] = new FSTCompiledFields[16];
+    int next[] = new int[16];  // index of the next reference field
+    int marks[] = new int[16]; // cycle safe mode bookkeeping, see FSTObjectOutput/FSTObjectInput
+    int size;
+
+    void push(Object o, FSTCompiledFields compiledFields, int mark) {
+        if (size == objects.length) {
+            final int newLen = size * 2;
+            objects = Arrays.copyOf(objects, newLen);
+            fields = Arrays.copyOf(fields, newLen);
+            next = Arrays.copyOf(next, newLen);
+            marks = Arrays.copyOf(marks, newLen);
+        }
+        objects[size] = o;
+        fields[size] = compiledFields;
+        next[size] = 0;
+        marks[size++] = mark;
+    }
+
+    void pop() {
+        size--;
+        objects[size] = null;
+        fields[size] = null;
+    }
+
+    /**
+     * drop leftovers of a failed write/read
+     */
+    void clear() {
+        if (objects.length > 1024) {
+            objects = new Object[16];
+            fields = new FSTCompiledFields[16];
+            next = new int[16];
+            marks = new int[16];
+            size = 0;
+        }
+        while (size > 0) {
+            pop();
+        }
+    }
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2014 Ruediger Moeller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nustaq.serialization;
+
+import java.io.Externalizable;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Static type graph analysis backing FSTConfiguration.setAutoFlat.
+ * <p>
+ * A class is a value type if none of its instances can be part of a cycle: each serialized field is a primitive,
+ * a primitive array, an immutable leaf (String, boxed primitives, Class), an enum or a final class satisfying the
+ * same condition. Classes written by custom serializers, Externalizable or JDK compatible (readObject/writeObject)
+ * classes are never value types, as their content is not known statically.
+ * <p>
+ * The result only depends on the class definition, so writer and reader come to the same conclusion.
+ */
+final class FSTValueTypes {
+
+    private static final Set<Class> LEAFS = new HashSet<>(Arrays.<Class>asList(
+        String.class, Boolean.class, Byte.class, Character.class, Short.class, Integer.class, Long.class,
+        Float.class, Double.class, Class.class
+    ));
+
+    private FSTValueTypes() {
+    }
+
+    static boolean isValueType(FSTClazzInfo clInfo) {
+        final Class clazz = clInfo.getClazz();
+        if (clazz.isArray() || clazz.isEnum() || clazz.isInterface() || clazz == Object.class || LEAFS.contains(clazz)
+                || clInfo.isExternalizable() || clInfo.useCompatibleMode() || hasSerializer(clInfo.conf, clazz)) {
+            return false;
+        }
+        final FSTClazzInfo.FSTFieldInfo[] fieldInfo = clInfo.getFieldInfo();
+        if (fieldInfo == null) {
+            return false;
+        }
+        Set<Class> visiting = new HashSet<>();
+        visiting.add(clazz);
+        for (int i = 0; i < fieldInfo.length; i++) {
+            if (fieldInfo[i].getField() == null || !isValueField(fieldInfo[i].getType(), clInfo.conf, visiting)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isValueField(Class type, FSTConfiguration conf, Set<Class> visiting) {
+        if (type.isPrimitive() || type.isEnum() || LEAFS.contains(type)) {
+            return true;
+        }
+        if (type.isArray()) {
+            return type.getComponentType().isPrimitive();
+        }
+        if (!Modifier.isFinal(type.getModifiers()) || visiting.contains(type)) {
+            return false; // may hold any subclass or is part of a cycle of types
+        }
+        if (!Serializable.class.isAssignableFrom(type) || Externalizable.class.isAssignableFrom(type) || hasSerializer(conf, type)) {
+            return false;
+        }
+        visiting.add(type);
+        for (Class c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            if (hasCompatibilityMethods(c)) {
+                return false;
+            }
+            Field[] fields = c.getDeclaredFields();
+            for (int i = 0; i < fields.length; i++) {
+                final int modifiers = fields[i].getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+                    continue;
+                }
+                if (!isValueField(fields[i].getType(), conf, visiting)) {
+                    return false;
+                }
+            }
+        }
+        visiting.remove(type); // type may be referenced again by a sibling field
+        return true;
+    }
+
+    private static boolean hasSerializer(FSTConfiguration conf, Class c) {
+        return conf.getCLInfoRegistry().getSerializerRegistry().getSerializer(c) != null;
+    }
+
+    private static boolean hasCompatibilityMethods(Class c) {
+        Method[] methods = c.getDeclaredMethods();
+        for (int i = 0; i < methods.length; i++) {
+            final String name = methods[i].getName();
+            if (name.equals("writeObject") || name.equals("readObject") || name.equals("readObjectNoData")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
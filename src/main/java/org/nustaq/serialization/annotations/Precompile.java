@@ -0,0 +1,34 @@
+/*
+ * Copyright 2014 Ruediger Moeller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nustaq.serialization.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE})
+
+/**
+ * fst's annotation processor generates a serializer for classes annotated with this, avoiding reflection when
+ * the class is used the first time. The class needs a non private no-arg constructor and non private, non final
+ * fields. Versioned, conditional, delta encoded (@Delta) and compatible mode (writeObject/readObject) classes are
+ * not supported.
+ * Generated serializers are wire compatible with the reflective default serialization.
+ */
+public @interface Precompile {
+}
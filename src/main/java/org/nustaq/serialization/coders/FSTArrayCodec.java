@@ -0,0 +1,237 @@
+/*
+ * Copyright 2014 Ruediger Moeller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nustaq.serialization.coders;
+
+import org.nustaq.serialization.util.FSTUtil;
+import sun.misc.Unsafe;
+
+/**
+ * Compressed primitive array formats shared by the stream and ByteBuffer coders
+ * (see FSTConfiguration.setCompressPrimitiveArrays and setPackBooleanArrays).
+ * <p>
+ * int[], long[] and short[] are zigzag varint (LEB128) encoded if that is smaller than the fixed size encoding,
+ * boolean[] is packed 1 bit per element. All methods encode/decode from/to a byte array positioned by the caller
+ * and return the position following the encoded values, bounds are checked by the caller.
+ */
+final class FSTArrayCodec {
+
+    // tag byte of int/long/short arrays if FSTConfiguration.isCompressPrimitiveArrays,
+    // double/float arrays if FSTConfiguration.isCompressFloatingArrays
+    static final byte ARRAY_FIXED = 0;
+    static final byte ARRAY_VARINT = 1;
+    static final byte ARRAY_XOR = 2;
+
+    // max encoded bytes per element
+    static final int MAX_VARINT_INT = 5;
+    static final int MAX_VARINT_LONG = 10;
+    static final int MAX_VARINT_SHORT = 3;
+
+    private static final byte VARINT_SIZE[] = new byte[65]; // varint length by number of leading zeros of a long
+
+    static {
+        for (int i = 0; i < VARINT_SIZE.length; i++) {
+            VARINT_SIZE[i] = (byte) (Math.max(0, 63 - i) / 7 + 1);
+        }
+    }
+
+    private FSTArrayCodec() {
+    }
+
+    /**
+     * @return number of bytes writeVarInts will write
+     */
+    static long varIntSize(int arr[], int off, int len) {
+        long varLen = 0;
+        for (int i = off; i < off + len; i++) {
+            varLen += VARINT_SIZE[Long.numberOfLeadingZeros(((arr[i] << 1) ^ (arr[i] >> 31)) & 0xFFFFFFFFL)];
+        }
+        return varLen;
+    }
+
+    static long varLongSize(long arr[], int off, int len) {
+        long varLen = 0;
+        for (int i = off; i < off + len; i++) {
+            varLen += VARINT_SIZE[Long.numberOfLeadingZeros((arr[i] << 1) ^ (arr[i] >> 63))];
+        }
+        return varLen;
+    }
+
+    static long varShortSize(short arr[], int off, int len) {
+        long varLen = 0;
+        for (int i = off; i < off + len; i++) {
+            final int v = ((arr[i] << 1) ^ (arr[i] >> 31)) & 0xFFFF;
+            varLen += v < 128 ? 1 : (v < 16384 ? 2 : 3);
+        }
+        return varLen;
+    }
+
+    /**
+     * @return size of the fixed length short encoding (1 byte for 0..254, else 3)
+     */
+    static long fixedShortSize(short arr[], int off, int len) {
+        long fixedLen = 0;
+        for (int i = off; i < off + len; i++) {
+            fixedLen += arr[i] < 255 && arr[i] >= 0 ? 1 : 3;
+        }
+        return fixedLen;
+    }
+
+    static int writeVarInts(int arr[], int off, int len, byte buf[], int count) {
+        for (int i = off; i < off + len; i++) {
+            int v = (arr[i] << 1) ^ (arr[i] >> 31);
+            while ((v & ~0x7F) != 0) {
+                buf[count++] = (byte) (v | 0x80);
+                v >>>= 7;
+            }
+            buf[count++] = (byte) v;
+        }
+        return count;
+    }
+
+    static int writeVarLongs(long arr[], int off, int len, byte buf[], int count) {
+        for (int i = off; i < off + len; i++) {
+            long v = (arr[i] << 1) ^ (arr[i] >> 63);
+            while ((v & ~0x7FL) != 0) {
+                buf[count++] = (byte) (v | 0x80);
+                v >>>= 7;
+            }
+            buf[count++] = (byte) v;
+        }
+        return count;
+    }
+
+    static int writeVarShorts(short arr[], int off, int len, byte buf[], int count) {
+        for (int i = off; i < off + len; i++) {
+            final short c = arr[i];
+            int v = ((c << 1) ^ (c >> 31)) & 0xFFFF;
+            while ((v & ~0x7F) != 0) {
+                buf[count++] = (byte) (v | 0x80);
+                v >>>= 7;
+            }
+            buf[count++] = (byte) v;
+        }
+        return count;
+    }
+
+    static int readVarInts(byte buf[], int count, int arr[], int off, int len) {
+        for (int j = off; j < off + len; j++) {
+            int v = buf[count++];
+            if (v < 0) { // more than one byte
+                v &= 0x7F;
+                int shift = 7;
+                byte b;
+                do {
+                    b = buf[count++];
+                    v |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+            }
+            arr[j] = (v >>> 1) ^ -(v & 1);
+        }
+        return count;
+    }
+
+    static int readVarLongs(byte buf[], int count, long arr[], int off, int len) {
+        for (int j = off; j < off + len; j++) {
+            long v = buf[count++];
+            if (v < 0) { // more than one byte
+                v &= 0x7F;
+                int shift = 7;
+                byte b;
+                do {
+                    b = buf[count++];
+                    v |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+            }
+            arr[j] = (v >>> 1) ^ -(v & 1);
+        }
+        return count;
+    }
+
+    static int readVarShorts(byte buf[], int count, short arr[], int off, int len) {
+        for (int j = off; j < off + len; j++) {
+            int v = buf[count++];
+            if (v < 0) { // more than one byte
+                v &= 0x7F;
+                int shift = 7;
+                byte b;
+                do {
+                    b = buf[count++];
+                    v |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+            }
+            arr[j] = (short) ((v >>> 1) ^ -(v & 1));
+        }
+        return count;
+    }
+
+    /**
+     * @return number of bytes of a packed boolean array
+     */
+    static int packedBooleanSize(int len) {
+        return (len + 7) >>> 3;
+    }
+
+    /**
+     * element i in bit i%8 of byte i/8. If BULK_ARRAY_COPY, 8 elements are read as one long
+     * (a boolean is a 0/1 byte) and gathered into a byte by a single multiplication.
+     */
+    static int writePackedBooleans(boolean arr[], int off, int len, byte buf[], int count) {
+        final int max = off + len;
+        int i = off;
+        if (FSTUtil.BULK_ARRAY_COPY) {
+            final Unsafe unsafe = FSTUtil.unFlaggedUnsafe;
+            long adr = Unsafe.ARRAY_BOOLEAN_BASE_OFFSET + off;
+            for (; i + 8 <= max; i += 8, adr += 8) {
+                final long bytes = unsafe.getLong(arr, adr) & 0x0101010101010101L;
+                buf[count++] = (byte) ((bytes * 0x0102040810204080L) >>> 56);
+            }
+        }
+        for (; i < max; i += 8) {
+            final int end = Math.min(max, i + 8);
+            int b = 0;
+            for (int j = i; j < end; j++) {
+                if (arr[j]) {
+                    b |= 1 << (j - i);
+                }
+            }
+            buf[count++] = (byte) b;
+        }
+        return count;
+    }
+
+    /**
+     * If BULK_ARRAY_COPY, each byte is spread to 8 0/1 bytes and written to the array as one long.
+     */
+    static int readPackedBooleans(byte buf[], int pos, boolean arr[], int len) {
+        int i = 0;
+        if (FSTUtil.BULK_ARRAY_COPY) {
+            final Unsafe unsafe = FSTUtil.unFlaggedUnsafe;
+            long adr = Unsafe.ARRAY_BOOLEAN_BASE_OFFSET;
+            for (int count = pos; i + 8 <= len; i += 8, adr += 8) {
+                final long bits = ((buf[count++] & 0xFFL) * 0x0101010101010101L) & 0x8040201008040201L;
+                unsafe.putLong(arr, adr, ((bits + 0x7F7F7F7F7F7F7F7FL) & 0x8080808080808080L) >>> 7);
+            }
+        }
+        for (; i < len; i++) {
+            arr[i] = (buf[pos + (i >>> 3)] & (1 << (i & 7))) != 0;
+        }
+        return pos + packedBooleanSize(len);
+    }
+
+}
@@ -0,0 +1,457 @@
+/*
+ * Copyright 2014 Ruediger Moeller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nustaq.serialization.coders;
+
+import org.nustaq.serialization.FSTClazzInfo;
+import org.nustaq.serialization.FSTClazzNameRegistry;
+import org.nustaq.serialization.FSTConfiguration;
+import org.nustaq.serialization.FSTDecoder;
+import org.nustaq.serialization.FSTSessionCodec;
+import org.nustaq.serialization.util.FSTStringCache;
+import org.nustaq.serialization.util.FSTUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes a stream written with FSTStreamEncoder or FSTByteBufferEncoder directly from a (direct/mapped or heap)
+ * ByteBuffer, without copying it to a heap byte[] first.
+ * <p>
+ * Reading starts at the current position of the buffer and advances it, so after reading an object the buffer
+ * position points to the first byte following it. Reading beyond the limit of the buffer throws a
+ * BufferUnderflowException. The byte order of the buffer is set to little endian.
+ */
+public class FSTByteBufferDecoder implements FSTDecoder, FSTSessionCodec {
+
+    private ByteBuffer buffer;
+    private int start;
+    private byte ascStringCache[];
+    private FSTConfiguration conf;
+    private FSTClazzNameRegistry clnames;
+    private boolean sessionMode; // keep dynamically registered class names on reset
+    private FSTXorCodec xorCodec;
+    private byte scratch[]; // compressed arrays and strings of direct or read only buffers are copied here first
+    private int sourcePos;
+    private int sourceLimit;
+
+    public FSTByteBufferDecoder(FSTConfiguration conf) {
+        setConf(conf);
+    }
+
+    @Override
+    public void setConf(FSTConfiguration conf) {
+        this.conf = conf;
+        clnames = (FSTClazzNameRegistry) conf.getCachedObject(FSTClazzNameRegistry.class);
+        if (clnames == null) {
+            clnames = new FSTClazzNameRegistry(conf.getClassRegistry());
+        } else {
+            clnames.clear();
+        }
+    }
+
+    /**
+     * read from given buffer starting at its current position. Resets stream positions and class name table.
+     *
+     * @param buffer
+     */
+    public void setBuffer(ByteBuffer buffer) {
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        start = buffer.position();
+        if (!sessionMode) {
+            clnames.clear();
+        }
+    }
+
+    public ByteBuffer getByteBuffer() {
+        return buffer;
+    }
+
+    public int ensureReadAhead(int bytes) {
+        return buffer.remaining() >= bytes ? 0 : -1;
+    }
+
+    private char chBufS[];
+
+    private char[] getCharBuf(int siz) {
+        char chars[] = chBufS;
+        if (chars == null || chars.length < siz) {
+            chars = new char[Math.max(siz, 15)];
+            chBufS = chars;
+        }
+        return chars;
+    }
+
+    public String readStringUTF() throws IOException {
+        int len = readFInt();
+        // no escape (255) within the next len bytes => all chars < 255, decoded in bulk (and looked up in the string cache)
+        final byte source[] = decodeSource(len);
+        final int max = sourcePos + len;
+        if (max <= sourceLimit) {
+            int i = sourcePos;
+            while (i < max && source[i] != -1) {
+                i++;
+            }
+            if (i == max) {
+                final int off = sourcePos;
+                consumed(max);
+                final FSTStringCache cache = conf.getStringCache();
+                if (cache != null) {
+                    return cache.get(source, off, len);
+                }
+                return new String(source, off, len, StandardCharsets.ISO_8859_1);
+            }
+        }
+        char[] charBuf = getCharBuf(len);
+        final ByteBuffer buf = buffer;
+        for (int i = 0; i < len; i++) {
+            char head = (char) (buf.get() & 0xff);
+            if (head < 255) {
+                charBuf[i] = head;
+            } else {
+                charBuf[i] = buf.getChar();
+            }
+        }
+        return new String(charBuf, 0, len);
+    }
+
+    public byte readObjectHeaderTag() throws IOException {
+        return readFByte();
+    }
+
+    @Override
+    public String readStringAsc() throws IOException {
+        int len = readFInt();
+        if (ascStringCache == null || ascStringCache.length < len)
+            ascStringCache = new byte[len];
+        buffer.get(ascStringCache, 0, len);
+        return new String(ascStringCache, 0, 0, len);
+    }
+
+    /**
+     * assumes class header+len already read
+     *
+     * @param componentType
+     * @param len
+     * @return
+     */
+    @Override
+    public Object readFPrimitiveArray(Object array, Class componentType, int len) {
+        try {
+            if (componentType == byte.class) {
+                byte[] arr = (byte[]) array;
+                buffer.get(arr, 0, len);
+                return arr;
+            } else if (componentType == int.class) {
+                final int[] arr = (int[]) array;
+                if (conf.isCompressPrimitiveArrays() && readFByte() == FSTArrayCodec.ARRAY_VARINT) {
+                    final byte source[] = decodeSource((long) len * FSTArrayCodec.MAX_VARINT_INT);
+                    consumed(FSTArrayCodec.readVarInts(source, sourcePos, arr, 0, len));
+                } else {
+                    readFIntArr(len, arr);
+                }
+                return arr;
+            } else if (componentType == long.class) {
+                long[] arr = (long[]) array;
+                if (conf.isCompressPrimitiveArrays() && readFByte() == FSTArrayCodec.ARRAY_VARINT) {
+                    final byte source[] = decodeSource((long) len * FSTArrayCodec.MAX_VARINT_LONG);
+                    consumed(FSTArrayCodec.readVarLongs(source, sourcePos, arr, 0, len));
+                    return arr;
+                }
+                buffer.asLongBuffer().get(arr, 0, len);
+                buffer.position(buffer.position() + len * 8);
+                return arr;
+            } else if (componentType == char.class) {
+                char[] arr = (char[]) array;
+                for (int j = 0; j < len; j++) {
+                    arr[j] = readFChar();
+                }
+                return arr;
+            } else if (componentType == double.class) {
+                double[] arr = (double[]) array;
+                if (conf.isCompressFloatingArrays() && readFByte() == FSTArrayCodec.ARRAY_XOR) {
+                    readXorArr(arr, len);
+                    return arr;
+                }
+                buffer.asDoubleBuffer().get(arr, 0, len);
+                buffer.position(buffer.position() + len * 8);
+                return arr;
+            } else if (componentType == short.class) {
+                short[] arr = (short[]) array;
+                if (conf.isCompressPrimitiveArrays() && readFByte() == FSTArrayCodec.ARRAY_VARINT) {
+                    final byte source[] = decodeSource((long) len * FSTArrayCodec.MAX_VARINT_SHORT);
+                    consumed(FSTArrayCodec.readVarShorts(source, sourcePos, arr, 0, len));
+                    return arr;
+                }
+                for (int j = 0; j < len; j++) {
+                    arr[j] = readFShort();
+                }
+                return arr;
+            } else if (componentType == float.class) {
+                float[] arr = (float[]) array;
+                if (conf.isCompressFloatingArrays() && readFByte() == FSTArrayCodec.ARRAY_XOR) {
+                    readXorArr(arr, len);
+                    return arr;
+                }
+                buffer.asFloatBuffer().get(arr, 0, len);
+                buffer.position(buffer.position() + len * 4);
+                return arr;
+            } else if (componentType == boolean.class) {
+                boolean[] arr = (boolean[]) array;
+                if (conf.isPackBooleanArrays()) {
+                    final byte source[] = decodeSource(FSTArrayCodec.packedBooleanSize(len));
+                    consumed(FSTArrayCodec.readPackedBooleans(source, sourcePos, arr, len));
+                    return arr;
+                }
+                for (int j = 0; j < len; j++) {
+                    arr[j] = buffer.get() != 0;
+                }
+                return arr;
+            } else {
+                throw new RuntimeException("unexpected primitive type " + componentType.getName());
+            }
+        } catch (IOException e) {
+            FSTUtil.<RuntimeException>rethrow(e);
+        }
+        return null;
+    }
+
+    /**
+     * XOR encoded double[]/float[], see FSTStreamEncoder.writeXorArr. Tag already read.
+     */
+    private void readXorArr(Object arr, int len) throws IOException {
+        final int size = readPlainInt();
+        if (xorCodec == null) {
+            xorCodec = new FSTXorCodec();
+        }
+        final byte source[] = decodeSource(size);
+        if (sourceLimit - sourcePos < size) {
+            throw new BufferUnderflowException();
+        }
+        if (arr instanceof double[])
+            xorCodec.decodeDoubles(source, sourcePos, (double[]) arr, len);
+        else
+            xorCodec.decodeFloats(source, sourcePos, (float[]) arr, len);
+        consumed(sourcePos + size);
+    }
+
+    /**
+     * @return the array the compressed array codecs read up to maxLen bytes from, starting at sourcePos: the backing
+     * array of a heap buffer, else a scratch array the bytes following the buffer position are copied to
+     */
+    private byte[] decodeSource(long maxLen) {
+        if (buffer.hasArray()) {
+            sourcePos = buffer.arrayOffset() + buffer.position();
+            sourceLimit = buffer.arrayOffset() + buffer.limit();
+            return buffer.array();
+        }
+        final int len = (int) Math.min(buffer.remaining(), maxLen);
+        if (scratch == null || scratch.length < len) {
+            scratch = new byte[len];
+        }
+        final int pos = buffer.position();
+        buffer.get(scratch, 0, len);
+        buffer.position(pos);
+        sourcePos = 0;
+        sourceLimit = len;
+        return scratch;
+    }
+
+    /**
+     * advance the buffer position to end (a position in the array returned by decodeSource)
+     */
+    private void consumed(int end) {
+        if (end > sourceLimit) {
+            throw new BufferUnderflowException();
+        }
+        buffer.position(buffer.position() + end - sourcePos);
+    }
+
+    @Override // uncompressed version
+    public void readFIntArr(int len, int[] arr) throws IOException {
+        buffer.asIntBuffer().get(arr, 0, len);
+        buffer.position(buffer.position() + len * 4);
+    }
+
+    @Override
+    public int readFInt() throws IOException {
+        final byte head = buffer.get();
+        // -128 = short byte, -127 == 4 byte
+        if (head > -127 && head <= 127) {
+            return head;
+        }
+        if (head == -128) {
+            return buffer.getShort();
+        } else {
+            return buffer.getInt();
+        }
+    }
+
+    @Override
+    public double readFDouble() throws IOException {
+        return Double.longBitsToDouble(buffer.getLong());
+    }
+
+    /**
+     * Reads a 4 byte float.
+     */
+    @Override
+    public float readFFloat() throws IOException {
+        return Float.intBitsToFloat(buffer.getInt());
+    }
+
+    @Override
+    public final byte readFByte() throws IOException {
+        return buffer.get();
+    }
+
+    @Override
+    public final int readIntByte() throws IOException {
+        if (!buffer.hasRemaining())
+            return -1;
+        return buffer.get() & 0xff;
+    }
+
+    @Override
+    public long readFLong() throws IOException {
+        byte head = buffer.get();
+        // -128 = short byte, -127 == 4 byte
+        if (head > -126 && head <= 127) {
+            return head;
+        }
+        if (head == -128) {
+            return buffer.getShort();
+        } else if (head == -127) {
+            return buffer.getInt();
+        } else {
+            return buffer.getLong();
+        }
+    }
+
+    @Override
+    public char readFChar() throws IOException {
+        char head = (char) (buffer.get() & 0xff);
+        if (head < 255) {
+            return head;
+        }
+        return buffer.getChar();
+    }
+
+    @Override
+    public short readFShort() throws IOException {
+        int head = buffer.get() & 0xff;
+        if (head < 255) {
+            return (short) head;
+        }
+        return buffer.getShort();
+    }
+
+    @Override
+    public int readPlainInt() throws IOException {
+        return buffer.getInt();
+    }
+
+    @Override
+    public int getInputPos() {
+        return buffer.position() - start;
+    }
+
+    @Override
+    public void moveTo(int position) {
+        buffer.position(start + position);
+    }
+
+    /**
+     * this decoder can't read from a stream, use setBuffer
+     */
+    @Override
+    public void setInputStream(InputStream in) {
+        throw new RuntimeException("FSTByteBufferDecoder can't read from an InputStream, use setBuffer");
+    }
+
+    @Override
+    public void reset() {
+        if (!sessionMode) {
+            clnames.clear();
+        }
+    }
+
+    @Override
+    public void resetWith(byte[] bytes, int len) {
+        setBuffer(ByteBuffer.wrap(bytes, 0, len));
+    }
+
+    @Override
+    public FSTClazzInfo readClass() throws IOException, ClassNotFoundException {
+        return clnames.decodeClass(this, conf);
+    }
+
+    @Override
+    public Class classForName(String name) throws ClassNotFoundException {
+        return clnames.classForName(name, conf);
+    }
+
+    @Override
+    public void setSessionMode(boolean sessionMode) {
+        this.sessionMode = sessionMode;
+        if (!sessionMode) {
+            clnames.clear();
+        }
+    }
+
+    @Override
+    public void registerClass(Class possible) {
+        clnames.registerClass(possible, conf);
+    }
+
+    @Override
+    public void close() {
+        conf.returnObject(clnames);
+    }
+
+    @Override
+    public void skip(int n) {
+        buffer.position(buffer.position() + n);
+    }
+
+    @Override
+    public void readPlainBytes(byte[] b, int off, int len) {
+        buffer.get(b, off, len);
+    }
+
+    @Override
+    public Class readArrayHeader() throws Exception {
+        return readClass().getClazz();
+    }
+
+    @Override
+    public int readVersionTag() throws IOException {
+        return readFByte();
+    }
+
+    @Override
+    public void pushBack(int bytes) {
+        buffer.position(buffer.position() - bytes);
+    }
+
+    @Override
+    public int available() {
+        return buffer.remaining();
+    }
+}
@@ -0,0 +1,496 @@
+/*
+ * Copyright 2014 Ruediger Moeller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nustaq.serialization.coders;
+
+import org.nustaq.serialization.*;
+import org.nustaq.serialization.util.FSTUtil;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Encoder writing directly into a (direct/mapped or heap) ByteBuffer instead of the heap byte[] of FSTOutputStream,
+ * so messages can be handed to NIO channels or shared memory without another copy.
+ * The stream written is identical to the one written by FSTStreamEncoder.
+ * <p>
+ * Bytes are written at the current position of the buffer, the position is advanced with each write.
+ * Stream positions (handles) are relative to the buffer position at the time the buffer was set
+ * (or the encoder has been reset by a flush). The buffer does not grow, if it is too small a
+ * BufferOverflowException is thrown. The byte order of the buffer is set to little endian.
+ */
+public class FSTByteBufferEncoder implements FSTEncoder, FSTSessionCodec {
+
+    private FSTConfiguration conf;
+
+    private FSTClazzNameRegistry clnames;
+    private boolean sessionMode; // keep dynamically registered class names on reset
+    private ByteBuffer buffer;
+    private int start;
+    private FSTXorCodec xorCodec;
+    private byte scratch[]; // compressed arrays of direct or read only buffers are encoded here first
+    private int targetPos;
+
+    public FSTByteBufferEncoder(FSTConfiguration conf) {
+        this.conf = conf;
+        clnames = (FSTClazzNameRegistry) conf.getCachedObject(FSTClazzNameRegistry.class);
+        if (clnames == null) {
+            clnames = new FSTClazzNameRegistry(conf.getClassRegistry());
+        } else {
+            clnames.clear();
+        }
+    }
+
+    @Override
+    public void setConf(FSTConfiguration conf) {
+        this.conf = conf;
+    }
+
+    /**
+     * write to given buffer starting at its current position. Resets stream positions and class name table.
+     *
+     * @param buffer
+     */
+    public void setBuffer(ByteBuffer buffer) {
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        start = buffer.position();
+        if (!sessionMode) {
+            clnames.clear();
+        }
+    }
+
+    public ByteBuffer getByteBuffer() {
+        return buffer;
+    }
+
+    /**
+     * write prim array no len no tag
+     *
+     * @param array
+     * @throws IOException
+     */
+    public void writePrimitiveArray(Object array, int off, int len) throws IOException {
+        Class<?> componentType = array.getClass().getComponentType();
+        if (componentType == byte.class) {
+            writeRawBytes((byte[]) array, off, len);
+        } else if (componentType == char.class) {
+            char arr[] = (char[]) array;
+            for (int i = off; i < off + len; i++) {
+                writeFChar(arr[i]);
+            }
+        } else if (componentType == short.class) {
+            if (conf.isCompressPrimitiveArrays())
+                writeCompressedShortArr((short[]) array, off, len);
+            else
+                writeFShortArr((short[]) array, off, len);
+        } else if (componentType == int.class) {
+            if (conf.isCompressPrimitiveArrays())
+                writeCompressedIntArr((int[]) array, off, len);
+            else
+                writeFIntArr((int[]) array, off, len);
+        } else if (componentType == double.class) {
+            if (conf.isCompressFloatingArrays())
+                writeXorArr(array, off, len, 8);
+            else
+                writeFDoubleArr((double[]) array, off, len);
+        } else if (componentType == float.class) {
+            if (conf.isCompressFloatingArrays())
+                writeXorArr(array, off, len, 4);
+            else
+                writeFFloatArr((float[]) array, off, len);
+        } else if (componentType == long.class) {
+            if (conf.isCompressPrimitiveArrays())
+                writeCompressedLongArr((long[]) array, off, len);
+            else
+                writeFLongArr((long[]) array, off, len);
+        } else if (componentType == boolean.class) {
+            if (conf.isPackBooleanArrays()) {
+                final byte target[] = encodeTarget(FSTArrayCodec.packedBooleanSize(len));
+                putEncoded(target, FSTArrayCodec.writePackedBooleans((boolean[]) array, off, len, target, targetPos));
+            } else {
+                boolean arr[] = (boolean[]) array;
+                ensureFree(len);
+                for (int i = off; i < off + len; i++) {
+                    buffer.put((byte) (arr[i] ? 1 : 0));
+                }
+            }
+        } else {
+            throw new RuntimeException("expected primitive array");
+        }
+    }
+
+    private void writeFShortArr(short[] arr, int off, int len) throws IOException {
+        for (int i = off; i < off + len; i++) {
+            writeFShort(arr[i]);
+        }
+    }
+
+    private void writeFIntArr(int[] arr, int off, int len) throws IOException {
+        ensureFree(len * 4);
+        buffer.asIntBuffer().put(arr, off, len);
+        buffer.position(buffer.position() + len * 4);
+    }
+
+    private void writeFLongArr(long[] arr, int off, int len) throws IOException {
+        ensureFree(len * 8);
+        buffer.asLongBuffer().put(arr, off, len);
+        buffer.position(buffer.position() + len * 8);
+    }
+
+    private void writeFDoubleArr(double[] arr, int off, int len) throws IOException {
+        ensureFree(len * 8);
+        for (int i = off; i < off + len; i++) {
+            buffer.putLong(Double.doubleToLongBits(arr[i]));
+        }
+    }
+
+    private void writeFFloatArr(float[] arr, int off, int len) throws IOException {
+        ensureFree(len * 4);
+        for (int i = off; i < off + len; i++) {
+            buffer.putInt(Float.floatToIntBits(arr[i]));
+        }
+    }
+
+    /**
+     * compressed mode, same format as FSTStreamEncoder: zigzag varint if smaller than fixed size, prefixed by
+     * ARRAY_FIXED/ARRAY_VARINT
+     */
+    private void writeCompressedIntArr(int[] arr, int off, int len) throws IOException {
+        final long varLen = FSTArrayCodec.varIntSize(arr, off, len);
+        if (varLen >= (long) len * 4) {
+            writeFByte(FSTArrayCodec.ARRAY_FIXED);
+            writeFIntArr(arr, off, len);
+            return;
+        }
+        writeFByte(FSTArrayCodec.ARRAY_VARINT);
+        final byte target[] = encodeTarget(varLen);
+        putEncoded(target, FSTArrayCodec.writeVarInts(arr, off, len, target, targetPos));
+    }
+
+    private void writeCompressedLongArr(long[] arr, int off, int len) throws IOException {
+        final long varLen = FSTArrayCodec.varLongSize(arr, off, len);
+        if (varLen >= (long) len * 8) {
+            writeFByte(FSTArrayCodec.ARRAY_FIXED);
+            writeFLongArr(arr, off, len);
+            return;
+        }
+        writeFByte(FSTArrayCodec.ARRAY_VARINT);
+        final byte target[] = encodeTarget(varLen);
+        putEncoded(target, FSTArrayCodec.writeVarLongs(arr, off, len, target, targetPos));
+    }
+
+    private void writeCompressedShortArr(short[] arr, int off, int len) throws IOException {
+        final long varLen = FSTArrayCodec.varShortSize(arr, off, len);
+        if (varLen >= FSTArrayCodec.fixedShortSize(arr, off, len)) {
+            writeFByte(FSTArrayCodec.ARRAY_FIXED);
+            writeFShortArr(arr, off, len);
+            return;
+        }
+        writeFByte(FSTArrayCodec.ARRAY_VARINT);
+        final byte target[] = encodeTarget(varLen);
+        putEncoded(target, FSTArrayCodec.writeVarShorts(arr, off, len, target, targetPos));
+    }
+
+    /**
+     * compressed mode, same format as FSTStreamEncoder: XOR encoded if smaller than fixed size, prefixed by
+     * ARRAY_FIXED or ARRAY_XOR + plain int byte length of the encoded values.
+     */
+    private void writeXorArr(Object array, int off, int len, int valueBytes) throws IOException {
+        final long maxLen = FSTXorCodec.maxEncodedSize(len, valueBytes);
+        if (len > 1 && maxLen < Integer.MAX_VALUE / 2) {
+            if (xorCodec == null) {
+                xorCodec = new FSTXorCodec();
+            }
+            final byte target[] = encodeTarget(maxLen + 5);
+            final int start = targetPos + 5;
+            final int end = valueBytes == 8 ?
+                xorCodec.encodeDoubles((double[]) array, off, len, target, start) :
+                xorCodec.encodeFloats((float[]) array, off, len, target, start);
+            final int size = end - start;
+            if (size < len * valueBytes) {
+                target[targetPos] = FSTArrayCodec.ARRAY_XOR;
+                target[targetPos + 1] = (byte) size;
+                target[targetPos + 2] = (byte) (size >>> 8);
+                target[targetPos + 3] = (byte) (size >>> 16);
+                target[targetPos + 4] = (byte) (size >>> 24);
+                putEncoded(target, end);
+                return;
+            }
+        }
+        writeFByte(FSTArrayCodec.ARRAY_FIXED);
+        if (valueBytes == 8)
+            writeFDoubleArr((double[]) array, off, len);
+        else
+            writeFFloatArr((float[]) array, off, len);
+    }
+
+    /**
+     * @return the array the compressed array codecs write up to maxLen bytes to, starting at targetPos: the backing
+     * array of a heap buffer having enough room, else a scratch array copied to the buffer by putEncoded
+     */
+    private byte[] encodeTarget(long maxLen) {
+        if (buffer.hasArray() && buffer.remaining() >= maxLen) {
+            targetPos = buffer.arrayOffset() + buffer.position();
+            return buffer.array();
+        }
+        if (scratch == null || scratch.length < maxLen) {
+            scratch = new byte[(int) maxLen];
+        }
+        targetPos = 0;
+        return scratch;
+    }
+
+    /**
+     * advance the buffer position to end (a position in target as returned by encodeTarget)
+     */
+    private void putEncoded(byte target[], int end) {
+        if (target == scratch) {
+            buffer.put(scratch, 0, end);
+        } else {
+            buffer.position(end - buffer.arrayOffset());
+        }
+    }
+
+    /**
+     * does not write length, just plain bytes
+     *
+     * @param array
+     * @param length
+     * @throws java.io.IOException
+     */
+    public void writeRawBytes(byte[] array, int start, int length) throws IOException {
+        buffer.put(array, start, length);
+    }
+
+    @Override
+    public void writeStringUTF(String str) throws IOException {
+        final int strlen = str.length();
+        writeFInt(strlen);
+        final ByteBuffer buf = buffer;
+        for (int i = 0; i < strlen; i++) {
+            final char c = str.charAt(i);
+            if (c < 255) {
+                buf.put((byte) c);
+            } else {
+                buf.put((byte) 255);
+                buf.putChar(c);
+            }
+        }
+    }
+
+    @Override
+    public void writeFShort(short c) throws IOException {
+        if (c < 255 && c >= 0) {
+            buffer.put((byte) c);
+        } else {
+            buffer.put((byte) 255);
+            buffer.putShort(c);
+        }
+    }
+
+    public boolean writeTag(byte tag, Object info, long somValue, Object toWrite, FSTObjectOutput oout) throws IOException {
+        writeFByte(tag);
+        return false;
+    }
+
+    @Override
+    public void writeFChar(char c) throws IOException {
+        if (c < 255) {
+            buffer.put((byte) c);
+        } else {
+            buffer.put((byte) 255);
+            buffer.putChar(c);
+        }
+    }
+
+    @Override
+    public final void writeFByte(int v) throws IOException {
+        buffer.put((byte) v);
+    }
+
+    @Override
+    public void writeFInt(int anInt) throws IOException {
+        // -128 = short byte, -127 == 4 byte
+        if (anInt > -127 && anInt <= 127) {
+            buffer.put((byte) anInt);
+        } else if (anInt >= Short.MIN_VALUE && anInt <= Short.MAX_VALUE) {
+            ensureFree(3);
+            buffer.put((byte) -128);
+            buffer.putShort((short) anInt);
+        } else {
+            ensureFree(5);
+            buffer.put((byte) -127);
+            buffer.putInt(anInt);
+        }
+    }
+
+    @Override
+    public void writeFLong(long anInt) throws IOException {
+        if (anInt > -126 && anInt <= 127) {
+            buffer.put((byte) anInt);
+        } else if (anInt >= Short.MIN_VALUE && anInt <= Short.MAX_VALUE) {
+            ensureFree(3);
+            buffer.put((byte) -128);
+            buffer.putShort((short) anInt);
+        } else if (anInt >= Integer.MIN_VALUE && anInt <= Integer.MAX_VALUE) {
+            ensureFree(5);
+            buffer.put((byte) -127);
+            buffer.putInt((int) anInt);
+        } else {
+            ensureFree(9);
+            buffer.put((byte) -126);
+            buffer.putLong(anInt);
+        }
+    }
+
+    /**
+     * Writes a 4 byte float.
+     */
+    @Override
+    public void writeFFloat(float value) throws IOException {
+        buffer.putInt(Float.floatToIntBits(value));
+    }
+
+    @Override
+    public void writeFDouble(double value) throws IOException {
+        buffer.putLong(Double.doubleToLongBits(value));
+    }
+
+    @Override
+    public int getWritten() {
+        return buffer.position() - start;
+    }
+
+    @Override
+    public void close() throws IOException {
+        conf.returnObject(clnames);
+    }
+
+    /**
+     * out != null: write to the given array from now on. out == null: written bytes stay in the buffer,
+     * stream positions restart at the current buffer position.
+     */
+    @Override
+    public void reset(byte[] out) {
+        if (out != null) {
+            setBuffer(ByteBuffer.wrap(out));
+            return;
+        }
+        if (buffer != null) {
+            start = buffer.position();
+        }
+        if (!sessionMode) {
+            clnames.clear();
+        }
+    }
+
+    @Override
+    public void skip(int i) {
+        buffer.position(buffer.position() + i);
+    }
+
+    /**
+     * used to write uncompressed int (guaranteed length = 4) at a (eventually recent) position
+     *
+     * @param position
+     * @param v
+     */
+    @Override
+    public void writeInt32At(int position, int v) {
+        buffer.putInt(start + position, v);
+    }
+
+    /**
+     * this encoder can't write to a stream, null is accepted (keeps the current buffer)
+     *
+     * @param outstream
+     */
+    @Override
+    public void setOutstream(OutputStream outstream) {
+        if (outstream != null) {
+            throw new RuntimeException("FSTByteBufferEncoder can't write to an OutputStream, use setBuffer");
+        }
+    }
+
+    /**
+     * nothing to flush, bytes are written to the buffer immediately
+     */
+    @Override
+    public void flush() throws IOException {
+    }
+
+    @Override
+    public void ensureFree(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            throw new BufferOverflowException();
+        }
+    }
+
+    /**
+     * @return a copy of the bytes written since the last reset
+     */
+    @Override
+    public byte[] getBuffer() {
+        byte res[] = new byte[getWritten()];
+        ByteBuffer dup = buffer.duplicate();
+        dup.position(start);
+        dup.get(res);
+        return res;
+    }
+
+    @Override
+    public void setSessionMode(boolean sessionMode) {
+        this.sessionMode = sessionMode;
+        if (!sessionMode) {
+            clnames.clear();
+        }
+    }
+
+    public void registerClass(Class possible) {
+        clnames.registerClass(possible, conf);
+    }
+
+    @Override
+    public final void writeClass(Class cl) {
+        try {
+            clnames.encodeClass(this, cl);
+        } catch (IOException e) {
+            FSTUtil.<RuntimeException>rethrow(e);
+        }
+    }
+
+    @Override
+    public final void writeClass(FSTClazzInfo clInf) {
+        try {
+            clnames.encodeClass(this, clInf);
+        } catch (IOException e) {
+            FSTUtil.<RuntimeException>rethrow(e);
+        }
+    }
+
+    @Override
+    public void writeVersionTag(int version) throws IOException {
+        writeFByte(version);
+    }
+
+    @Override
+    public FSTConfiguration getConf() {
+        return conf;
+    }
+
+}
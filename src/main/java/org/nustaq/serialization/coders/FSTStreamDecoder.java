@@ -19,21 +19,30 @@ import org.nustaq.serialization.FSTClazzInfo;
 import org.nustaq.serialization.FSTClazzNameRegistry;
 import org.nustaq.serialization.FSTConfiguration;
 import org.nustaq.serialization.FSTDecoder;
+import org.nustaq.serialization.FSTSessionCodec;
 import org.nustaq.serialization.util.FSTInputStream;
+import org.nustaq.serialization.util.FSTStringCache;
 import org.nustaq.serialization.util.FSTUtil;
+import sun.misc.Unsafe;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Default Coder used for serialization. Decodes a binary stream written with FSTStreamEncoder
  */
-public class FSTStreamDecoder implements FSTDecoder {
+public class FSTStreamDecoder implements FSTDecoder, FSTSessionCodec {
 
     private FSTInputStream input;
     private byte ascStringCache[];
     private FSTConfiguration conf;
     private FSTClazzNameRegistry clnames;
+    private FSTXorCodec xorCodec;
+    private boolean sessionMode; // keep dynamically registered class names on reset
+
+    private static final int SKIP_CHUNK = 8000; // max bytes read ahead at once by skip
+    private static final int VARINT_BLOCK = 1024;
 
     public FSTStreamDecoder(FSTConfiguration conf) {
         this.conf = conf;
@@ -74,12 +83,30 @@ public class FSTStreamDecoder implements FSTDecoder {
 
     public String readStringUTF() throws IOException {
         int len = readFInt();
-        char[] charBuf = getCharBuf(len * 3);
         input.ensureReadAhead(len * 3);
         byte buf[] = input.buf;
         int count = input.pos;
-        int chcount = 0;
-        for (int i = 0; i < len; i++) {
+        // no escape (255) within the first len bytes => all chars < 255, copied in bulk (a single copy on compact string jvms)
+        final int max = count + len;
+        int i = count;
+        while (i < max && buf[i] != -1) {
+            i++;
+        }
+        if (i == max) {
+            input.pos = max;
+            final FSTStringCache cache = conf.getStringCache();
+            if (cache != null) {
+                return cache.get(buf, count, len);
+            }
+            return new String(buf, count, len, StandardCharsets.ISO_8859_1);
+        }
+        char[] charBuf = getCharBuf(len * 3);
+        int chcount = i - count; // plain prefix
+        for (int j = 0; j < chcount; j++) {
+            charBuf[j] = (char) (buf[count + j] & 0xff);
+        }
+        count = i;
+        for (i = chcount; i < len; i++) {
             char head = (char) ((buf[count++] + 256) & 0xff);
             if (head < 255) {
                 charBuf[chcount++] = head;
@@ -126,17 +153,23 @@ public class FSTStreamDecoder implements FSTDecoder {
         try {
             if (componentType == byte.class) {
                 byte[] arr = (byte[]) array;
-                ensureReadAhead(arr.length); // fixme: move this stuff to the stream !
+                ensureReadAhead(len); // fixme: move this stuff to the stream !
                 System.arraycopy(input.buf, input.pos, arr, 0, len);
                 input.pos += len;
                 return arr;
             } else if (componentType == int.class) {
                 final int[] arr = (int[]) array;
-                readFIntArr(len, arr);
+                if (conf.isCompressPrimitiveArrays() && readFByte() == FSTArrayCodec.ARRAY_VARINT)
+                    readVarIntArr(len, arr);
+                else
+                    readFIntArr(len, arr);
                 return arr;
             } else if (componentType == long.class) {
                 long[] arr = (long[]) array;
-                readFLongArr(len, arr);
+                if (conf.isCompressPrimitiveArrays() && readFByte() == FSTArrayCodec.ARRAY_VARINT)
+                    readVarLongArr(len, arr);
+                else
+                    readFLongArr(len, arr);
                 return arr;
             } else if (componentType == char.class) {
                 char[] arr = (char[]) array;
@@ -146,28 +179,54 @@ public class FSTStreamDecoder implements FSTDecoder {
                 return arr;
             } else if (componentType == double.class) {
                 double[] arr = (double[]) array;
-                ensureReadAhead(arr.length * 8);
+                if (conf.isCompressFloatingArrays() && readFByte() == FSTArrayCodec.ARRAY_XOR) {
+                    readXorArr(arr, len);
+                    return arr;
+                }
+                ensureReadAhead(len * 8);
+                if (FSTUtil.BULK_ARRAY_COPY) {
+                    FSTUtil.copyFromBytes(input.buf, input.pos, arr, Unsafe.ARRAY_DOUBLE_BASE_OFFSET, 8, len);
+                    input.pos += len * 8;
+                    return arr;
+                }
                 for (int j = 0; j < len; j++) {
                     arr[j] = readFDouble();
                 }
                 return arr;
             } else if (componentType == short.class) {
-                short[] arr = (short[]) array;
-                ensureReadAhead(arr.length * 2);
+                short[] arr = (short[]) array; // variable length encoded, no bulk copy
+                if (conf.isCompressPrimitiveArrays() && readFByte() == FSTArrayCodec.ARRAY_VARINT) {
+                    readVarShortArr(len, arr);
+                    return arr;
+                }
+                ensureReadAhead(len * 2);
                 for (int j = 0; j < len; j++) {
                     arr[j] = readFShort();
                 }
                 return arr;
             } else if (componentType == float.class) {
                 float[] arr = (float[]) array;
-                ensureReadAhead(arr.length * 4);
+                if (conf.isCompressFloatingArrays() && readFByte() == FSTArrayCodec.ARRAY_XOR) {
+                    readXorArr(arr, len);
+                    return arr;
+                }
+                ensureReadAhead(len * 4);
+                if (FSTUtil.BULK_ARRAY_COPY) {
+                    FSTUtil.copyFromBytes(input.buf, input.pos, arr, Unsafe.ARRAY_FLOAT_BASE_OFFSET, 4, len);
+                    input.pos += len * 4;
+                    return arr;
+                }
                 for (int j = 0; j < len; j++) {
                     arr[j] = readFFloat();
                 }
                 return arr;
             } else if (componentType == boolean.class) {
                 boolean[] arr = (boolean[]) array;
-                ensureReadAhead(arr.length);
+                if (conf.isPackBooleanArrays()) {
+                    readPackedBooleanArr(len, arr);
+                    return arr;
+                }
+                ensureReadAhead(len);
                 for (int j = 0; j < len; j++) {
                     arr[j] = readFByte() != 0;
                 }
@@ -183,8 +242,13 @@ public class FSTStreamDecoder implements FSTDecoder {
 
     @Override // uncompressed version
     public void readFIntArr(int len, int[] arr) throws IOException {
-        int bytelen = arr.length * 4;
+        int bytelen = len * 4;
         ensureReadAhead(bytelen);
+        if (FSTUtil.BULK_ARRAY_COPY) {
+            FSTUtil.copyFromBytes(input.buf, input.pos, arr, Unsafe.ARRAY_INT_BASE_OFFSET, 4, len);
+            input.pos += bytelen;
+            return;
+        }
         int count = input.pos;
         final byte buf[] = input.buf;
         for (int j = 0; j < len; j++) {
@@ -197,9 +261,66 @@ public class FSTStreamDecoder implements FSTDecoder {
         input.pos += bytelen;
     }
 
+    /**
+     * 1 bit per element, see FSTArrayCodec.writePackedBooleans
+     */
+    private void readPackedBooleanArr(int len, boolean[] arr) throws IOException {
+        input.ensureReadAhead(FSTArrayCodec.packedBooleanSize(len));
+        input.pos = FSTArrayCodec.readPackedBooleans(input.buf, input.pos, arr, len);
+    }
+
+    /**
+     * XOR encoded double[]/float[], see FSTStreamEncoder.writeXorArr. Tag already read.
+     */
+    private void readXorArr(Object arr, int len) throws IOException {
+        final int size = readPlainInt();
+        ensureReadAhead(size);
+        if (xorCodec == null) {
+            xorCodec = new FSTXorCodec();
+        }
+        if (arr instanceof double[])
+            xorCodec.decodeDoubles(input.buf, input.pos, (double[]) arr, len);
+        else
+            xorCodec.decodeFloats(input.buf, input.pos, (float[]) arr, len);
+        input.pos += size;
+    }
+
+    /**
+     * zigzag varint encoded int array, see FSTStreamEncoder.writeCompressedIntArr. Reads ahead in blocks of
+     * VARINT_BLOCK elements (max size each) instead of checking each element.
+     */
+    private void readVarIntArr(int len, int[] arr) throws IOException {
+        for (int j = 0; j < len; j += VARINT_BLOCK) {
+            final int blockLen = Math.min(len - j, VARINT_BLOCK);
+            input.ensureReadAhead(blockLen * FSTArrayCodec.MAX_VARINT_INT);
+            input.pos = FSTArrayCodec.readVarInts(input.buf, input.pos, arr, j, blockLen);
+        }
+    }
+
+    private void readVarLongArr(int len, long[] arr) throws IOException {
+        for (int j = 0; j < len; j += VARINT_BLOCK) {
+            final int blockLen = Math.min(len - j, VARINT_BLOCK);
+            input.ensureReadAhead(blockLen * FSTArrayCodec.MAX_VARINT_LONG);
+            input.pos = FSTArrayCodec.readVarLongs(input.buf, input.pos, arr, j, blockLen);
+        }
+    }
+
+    private void readVarShortArr(int len, short[] arr) throws IOException {
+        for (int j = 0; j < len; j += VARINT_BLOCK) {
+            final int blockLen = Math.min(len - j, VARINT_BLOCK);
+            input.ensureReadAhead(blockLen * FSTArrayCodec.MAX_VARINT_SHORT);
+            input.pos = FSTArrayCodec.readVarShorts(input.buf, input.pos, arr, j, blockLen);
+        }
+    }
+
     private void readFLongArr(int len, long[] arr) throws IOException {
-        int bytelen = arr.length * 8;
+        int bytelen = len * 8;
         ensureReadAhead(bytelen);
+        if (FSTUtil.BULK_ARRAY_COPY) {
+            FSTUtil.copyFromBytes(input.buf, input.pos, arr, Unsafe.ARRAY_LONG_BASE_OFFSET, 8, len);
+            input.pos += bytelen;
+            return;
+        }
         int count = input.pos;
         final byte buf[] = input.buf;
         for (int j = 0; j < len; j++) {
@@ -370,18 +491,20 @@ public class FSTStreamDecoder implements FSTDecoder {
 
     @Override
     public int getInputPos() {
-        return input.pos;
+        return input.pos + input.getOff();
     }
 
     @Override
     public void moveTo(int position) {
-        input.pos = position;
+        input.pos = position - input.getOff();
     }
 
     @Override
     public void reset() {
         input.reset();
-        clnames.clear();
+        if (!sessionMode) {
+            clnames.clear();
+        }
     }
 
     @Override
@@ -390,12 +513,16 @@ public class FSTStreamDecoder implements FSTDecoder {
             input = new FSTInputStream(in);
         else
             input.initFromStream(in);
-        clnames.clear();
+        if (!sessionMode) {
+            clnames.clear();
+        }
     }
 
     @Override
     public void resetWith(byte[] bytes, int len) {
-        clnames.clear();
+        if (!sessionMode) {
+            clnames.clear();
+        }
         input.resetForReuse(bytes, len);
 //        input.reset();
 //        input.count = len;
@@ -414,6 +541,14 @@ public class FSTStreamDecoder implements FSTDecoder {
         return clnames.classForName(name, conf);
     }
 
+    @Override
+    public void setSessionMode(boolean sessionMode) {
+        this.sessionMode = sessionMode;
+        if (!sessionMode) {
+            clnames.clear();
+        }
+    }
+
     @Override
     public void registerClass(Class possible) {
         clnames.registerClass(possible, conf);
@@ -426,7 +561,16 @@ public class FSTStreamDecoder implements FSTDecoder {
 
     @Override
     public void skip(int n) {
-        input.pos += n;
+        // read ahead chunkwise, so skipped bytes are compacted away instead of growing the buffer
+        while (n > 0) {
+            input.ensureReadAhead(Math.min(n, SKIP_CHUNK));
+            final int skipped = (int) input.skip(n);
+            if (skipped <= 0) {
+                input.pos += n; // end of input
+                return;
+            }
+            n -= skipped;
+        }
     }
 
     @Override
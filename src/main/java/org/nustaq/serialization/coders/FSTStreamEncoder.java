@@ -18,6 +18,7 @@ package org.nustaq.serialization.coders;
 import org.nustaq.serialization.*;
 import org.nustaq.serialization.util.FSTOutputStream;
 import org.nustaq.serialization.util.FSTUtil;
+import sun.misc.Unsafe;
 
 import java.io.IOException;
 import java.io.OutputStream;
@@ -25,12 +26,14 @@ import java.io.OutputStream;
 /**
  * Default Coder used for serialization. Serializes into a binary stream
  */
-public class FSTStreamEncoder implements FSTEncoder {
+public class FSTStreamEncoder implements FSTEncoder, FSTSessionCodec {
 
     private FSTConfiguration conf;
 
     private FSTClazzNameRegistry clnames;
+    private boolean sessionMode; // keep dynamically registered class names on reset
     private FSTOutputStream buffout;
+    private FSTXorCodec xorCodec;
 
     public FSTStreamEncoder(FSTConfiguration conf) {
         this.conf = conf;
@@ -54,9 +57,22 @@ public class FSTStreamEncoder implements FSTEncoder {
         }
     }
 
+    /**
+     * packed mode: 1 bit per element, see FSTArrayCodec.writePackedBooleans
+     */
+    private void writePackedBooleanArr(boolean[] arr, int off, int len) throws IOException {
+        buffout.ensureFree(FSTArrayCodec.packedBooleanSize(len));
+        buffout.pos = FSTArrayCodec.writePackedBooleans(arr, off, len, buffout.buf, buffout.pos);
+    }
+
     private void writeFFloatArr(float[] arr, int off, int len) throws IOException {
-        int byteLen = arr.length * 4;
+        int byteLen = len * 4;
         buffout.ensureFree(byteLen);
+        if (FSTUtil.BULK_ARRAY_COPY) { // note: NaN payloads are kept instead of being collapsed to the canonical NaN
+            FSTUtil.copyToBytes(arr, Unsafe.ARRAY_FLOAT_BASE_OFFSET, 4, off, len, buffout.buf, buffout.pos);
+            buffout.pos += byteLen;
+            return;
+        }
         byte buf[] = buffout.buf;
         int count = buffout.pos;
         int max = off + len;
@@ -72,8 +88,13 @@ public class FSTStreamEncoder implements FSTEncoder {
     }
 
     private void writeFDoubleArr(double[] arr, int off, int len) throws IOException {
-        final int byteLen = arr.length * 8;
+        final int byteLen = len * 8;
         buffout.ensureFree(byteLen);
+        if (FSTUtil.BULK_ARRAY_COPY) { // note: NaN payloads are kept instead of being collapsed to the canonical NaN
+            FSTUtil.copyToBytes(arr, Unsafe.ARRAY_DOUBLE_BASE_OFFSET, 8, off, len, buffout.buf, buffout.pos);
+            buffout.pos += byteLen;
+            return;
+        }
         final byte buf[] = buffout.buf;
         int count = buffout.pos;
         final int max = off + len;
@@ -180,8 +201,13 @@ public class FSTStreamEncoder implements FSTEncoder {
 
     // uncompressed version
     private void writeFIntArr(int[] arr, int off, int len) throws IOException {
-        int byteLen = arr.length * 4;
+        int byteLen = len * 4;
         buffout.ensureFree(byteLen);
+        if (FSTUtil.BULK_ARRAY_COPY) {
+            FSTUtil.copyToBytes(arr, Unsafe.ARRAY_INT_BASE_OFFSET, 4, off, len, buffout.buf, buffout.pos);
+            buffout.pos += byteLen;
+            return;
+        }
         byte buf[] = buffout.buf;
         int count = buffout.pos;
         int max = off + len;
@@ -197,8 +223,13 @@ public class FSTStreamEncoder implements FSTEncoder {
     }
 
     private void writeFLongArr(long[] arr, int off, int len) throws IOException {
-        int byteLen = arr.length * 8;
+        int byteLen = len * 8;
         buffout.ensureFree(byteLen);
+        if (FSTUtil.BULK_ARRAY_COPY) {
+            FSTUtil.copyToBytes(arr, Unsafe.ARRAY_LONG_BASE_OFFSET, 8, off, len, buffout.buf, buffout.pos);
+            buffout.pos += byteLen;
+            return;
+        }
         byte buf[] = buffout.buf;
         int count = buffout.pos;
         for (int i = off; i < off + len; i++) {
@@ -216,6 +247,84 @@ public class FSTStreamEncoder implements FSTEncoder {
         buffout.pos += byteLen;
     }
 
+    /**
+     * compressed mode: zigzag varint if smaller than fixed size, prefixed by ARRAY_FIXED/ARRAY_VARINT
+     */
+    private void writeCompressedIntArr(int[] arr, int off, int len) throws IOException {
+        final long varLen = FSTArrayCodec.varIntSize(arr, off, len);
+        if (varLen >= (long) len * 4) {
+            writeFByte(FSTArrayCodec.ARRAY_FIXED);
+            writeFIntArr(arr, off, len);
+            return;
+        }
+        buffout.ensureFree((int) varLen + 1);
+        buffout.buf[buffout.pos] = FSTArrayCodec.ARRAY_VARINT;
+        buffout.pos = FSTArrayCodec.writeVarInts(arr, off, len, buffout.buf, buffout.pos + 1);
+    }
+
+    private void writeCompressedLongArr(long[] arr, int off, int len) throws IOException {
+        final long varLen = FSTArrayCodec.varLongSize(arr, off, len);
+        if (varLen >= (long) len * 8) {
+            writeFByte(FSTArrayCodec.ARRAY_FIXED);
+            writeFLongArr(arr, off, len);
+            return;
+        }
+        buffout.ensureFree((int) varLen + 1);
+        buffout.buf[buffout.pos] = FSTArrayCodec.ARRAY_VARINT;
+        buffout.pos = FSTArrayCodec.writeVarLongs(arr, off, len, buffout.buf, buffout.pos + 1);
+    }
+
+    /**
+     * short arrays are variable length already (1 byte for 0..254, else 3), varint is smaller for small negative values
+     * and values up to 16383
+     */
+    private void writeCompressedShortArr(short[] arr, int off, int len) throws IOException {
+        final long varLen = FSTArrayCodec.varShortSize(arr, off, len);
+        if (varLen >= FSTArrayCodec.fixedShortSize(arr, off, len)) {
+            writeFByte(FSTArrayCodec.ARRAY_FIXED);
+            writeFShortArr(arr, off, len);
+            return;
+        }
+        buffout.ensureFree((int) varLen + 1);
+        buffout.buf[buffout.pos] = FSTArrayCodec.ARRAY_VARINT;
+        buffout.pos = FSTArrayCodec.writeVarShorts(arr, off, len, buffout.buf, buffout.pos + 1);
+    }
+
+    /**
+     * compressed mode: XOR encoded if smaller than fixed size, prefixed by ARRAY_FIXED or ARRAY_XOR + plain int byte length
+     * of the encoded values. The worst case size is reserved upfront, so the buffer can't be flushed while encoding and
+     * the fixed size fallback just rewinds.
+     */
+    private void writeXorArr(Object array, int off, int len, int valueBytes) throws IOException {
+        final long maxLen = FSTXorCodec.maxEncodedSize(len, valueBytes) + 5;
+        if (len > 1 && maxLen < Integer.MAX_VALUE / 2) {
+            if (xorCodec == null) {
+                xorCodec = new FSTXorCodec();
+            }
+            buffout.ensureFree((int) maxLen);
+            final byte buf[] = buffout.buf;
+            final int start = buffout.pos;
+            final int end = valueBytes == 8 ?
+                xorCodec.encodeDoubles((double[]) array, off, len, buf, start + 5) :
+                xorCodec.encodeFloats((float[]) array, off, len, buf, start + 5);
+            final int size = end - start - 5;
+            if (size < len * valueBytes) {
+                buf[start] = FSTArrayCodec.ARRAY_XOR;
+                buf[start + 1] = (byte) size;
+                buf[start + 2] = (byte) (size >>> 8);
+                buf[start + 3] = (byte) (size >>> 16);
+                buf[start + 4] = (byte) (size >>> 24);
+                buffout.pos = end;
+                return;
+            }
+        }
+        writeFByte(FSTArrayCodec.ARRAY_FIXED);
+        if (valueBytes == 8)
+            writeFDoubleArr((double[]) array, off, len);
+        else
+            writeFFloatArr((float[]) array, off, len);
+    }
+
     /**
      * write prim array no len no tag
      *
@@ -229,17 +338,35 @@ public class FSTStreamEncoder implements FSTEncoder {
         } else if (componentType == char.class) {
             writeFCharArr((char[]) array, off, len);
         } else if (componentType == short.class) {
-            writeFShortArr((short[]) array, off, len);
+            if (conf.isCompressPrimitiveArrays())
+                writeCompressedShortArr((short[]) array, off, len);
+            else
+                writeFShortArr((short[]) array, off, len);
         } else if (componentType == int.class) {
-            writeFIntArr((int[]) array, off, len);
+            if (conf.isCompressPrimitiveArrays())
+                writeCompressedIntArr((int[]) array, off, len);
+            else
+                writeFIntArr((int[]) array, off, len);
         } else if (componentType == double.class) {
-            writeFDoubleArr((double[]) array, off, len);
+            if (conf.isCompressFloatingArrays())
+                writeXorArr(array, off, len, 8);
+            else
+                writeFDoubleArr((double[]) array, off, len);
         } else if (componentType == float.class) {
-            writeFFloatArr((float[]) array, off, len);
+            if (conf.isCompressFloatingArrays())
+                writeXorArr(array, off, len, 4);
+            else
+                writeFFloatArr((float[]) array, off, len);
         } else if (componentType == long.class) {
-            writeFLongArr((long[]) array, off, len);
+            if (conf.isCompressPrimitiveArrays())
+                writeCompressedLongArr((long[]) array, off, len);
+            else
+                writeFLongArr((long[]) array, off, len);
         } else if (componentType == boolean.class) {
-            writeFBooleanArr((boolean[]) array, off, len);
+            if (conf.isPackBooleanArrays())
+                writePackedBooleanArr((boolean[]) array, off, len);
+            else
+                writeFBooleanArr((boolean[]) array, off, len);
         } else {
             throw new RuntimeException("expected primitive array");
         }
@@ -260,14 +387,22 @@ public class FSTStreamEncoder implements FSTEncoder {
     }
 
     @Override
+    @SuppressWarnings("deprecation")
     public void writeStringUTF(String str) throws IOException {
         final int strlen = str.length();
 
         writeFInt(strlen);
-        buffout.ensureFree(strlen * 3);
+        // chars < 255 are written as is, only the tail starting at the first one that needs an escape (rare) takes 3 bytes per char
+        int plain = 0;
+        while (plain < strlen && str.charAt(plain) < 255) {
+            plain++;
+        }
+        buffout.ensureFree(plain + (strlen - plain) * 3);
         final byte[] bytearr = buffout.buf;
         int count = buffout.pos;
-        for (int i = 0; i < strlen; i++) {
+        str.getBytes(0, plain, bytearr, count); // low bytes only, a plain array copy for latin-1 strings
+        count += plain;
+        for (int i = plain; i < strlen; i++) {
             final char c = str.charAt(i);
             bytearr[count++] = (byte) c;
             if (c >= 255) {
@@ -401,7 +536,7 @@ public class FSTStreamEncoder implements FSTEncoder {
 
     @Override
     public int getWritten() {
-        return buffout.pos - buffout.getOff();
+        return buffout.pos + buffout.getOff();
     }
 
     /**
@@ -422,11 +557,22 @@ public class FSTStreamEncoder implements FSTEncoder {
         } else {
             buffout.reset(out);
         }
-        clnames.clear();
+        if (!sessionMode) {
+            clnames.clear();
+        }
     }
 
+    /**
+     * skipped bytes are patched later on using writeInt32At, so they must not be flushed incrementally
+     */
     @Override
     public void skip(int i) {
+        try {
+            buffout.ensureFree(i); // may flush, so pin afterwards
+        } catch (IOException e) {
+            FSTUtil.<RuntimeException>rethrow(e);
+        }
+        buffout.pin(getWritten());
         buffout.pos += i;
     }
 
@@ -438,10 +584,12 @@ public class FSTStreamEncoder implements FSTEncoder {
      */
     @Override
     public void writeInt32At(int position, int v) {
+        position -= buffout.getOff();
         buffout.buf[position] = (byte) (v >>> 0);
         buffout.buf[position + 1] = (byte) (v >>> 8);
         buffout.buf[position + 2] = (byte) (v >>> 16);
         buffout.buf[position + 3] = (byte) (v >>> 24);
+        buffout.unpin();
     }
 
     /**
@@ -463,6 +611,7 @@ public class FSTStreamEncoder implements FSTEncoder {
             buffout.setOutstream(buffout);
         else
             buffout.setOutstream(outstream);
+        buffout.setFlushThreshold(conf.getOutputFlushThreshold());
     }
 
     /**
@@ -485,6 +634,14 @@ public class FSTStreamEncoder implements FSTEncoder {
         return buffout.buf;
     }
 
+    @Override
+    public void setSessionMode(boolean sessionMode) {
+        this.sessionMode = sessionMode;
+        if (!sessionMode) {
+            clnames.clear();
+        }
+    }
+
     public void registerClass(Class possible) {
         clnames.registerClass(possible, conf);
     }
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2014 Ruediger Moeller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nustaq.serialization.coders;
+
+/**
+ * Gorilla style XOR compression of double[]/float[] (see FSTConfiguration.setCompressFloatingArrays).
+ * Each value is XOR'ed with its predecessor, the result is written as
+ * <pre>
+ * 0                          identical value
+ * 1 0 meaningful bits        leading/trailing zeros fit into the previous window
+ * 1 1 leading(5) length(6/5) meaningful bits   new window
+ * </pre>
+ * Bits are packed little endian, first value is written raw. Slowly changing series shrink severalfold,
+ * random values grow by up to 2 bits (the caller falls back to fixed size then).
+ * <p>
+ * Encodes/decodes from/to a byte array positioned by the caller, the instance is reused by a stream.
+ */
+final class FSTXorCodec {
+
+    private byte buf[];
+    private int pos;
+    private long acc;
+    private int accBits;
+
+    /**
+     * @return max number of bytes encodeDoubles/encodeFloats may write for len values
+     */
+    static long maxEncodedSize(int len, int valueBytes) {
+        return (long) len * (valueBytes + 2) + 16;
+    }
+
+    /**
+     * @return position after the encoded values
+     */
+    int encodeDoubles(double arr[], int off, int len, byte target[], int targetPos) {
+        start(target, targetPos);
+        long prev = Double.doubleToRawLongBits(arr[off]);
+        writeBits(prev, 64);
+        int prevLead = -1;
+        int prevTrail = 0;
+        for (int i = off + 1; i < off + len; i++) {
+            final long bits = Double.doubleToRawLongBits(arr[i]);
+            final long xor = bits ^ prev;
+            prev = bits;
+            if (xor == 0) {
+                writeBits(0, 1);
+                continue;
+            }
+            final int lead = Math.min(Long.numberOfLeadingZeros(xor), 31);
+            final int trail = Long.numberOfTrailingZeros(xor);
+            if (prevLead >= 0 && lead >= prevLead && trail >= prevTrail) {
+                writeBits(1, 2); // 1 0
+                writeBits(xor >>> prevTrail, 64 - prevLead - prevTrail);
+            } else {
+                final int meaningful = 64 - lead - trail;
+                writeBits(3, 2); // 1 1
+                writeBits(lead, 5);
+                writeBits(meaningful & 63, 6); // 64 => 0
+                writeBits(xor >>> trail, meaningful);
+                prevLead = lead;
+                prevTrail = trail;
+            }
+        }
+        return finish();
+    }
+
+    int encodeFloats(float arr[], int off, int len, byte target[], int targetPos) {
+        start(target, targetPos);
+        int prev = Float.floatToRawIntBits(arr[off]);
+        writeBits(prev & 0xFFFFFFFFL, 32);
+        int prevLead = -1;
+        int prevTrail = 0;
+        for (int i = off + 1; i < off + len; i++) {
+            final int bits = Float.floatToRawIntBits(arr[i]);
+            final int xor = bits ^ prev;
+            prev = bits;
+            if (xor == 0) {
+                writeBits(0, 1);
+                continue;
+            }
+            final int lead = Integer.numberOfLeadingZeros(xor); // < 32 as xor != 0
+            final int trail = Integer.numberOfTrailingZeros(xor);
+            if (prevLead >= 0 && lead >= prevLead && trail >= prevTrail) {
+                writeBits(1, 2);
+                writeBits((xor >>> prevTrail) & 0xFFFFFFFFL, 32 - prevLead - prevTrail);
+            } else {
+                final int meaningful = 32 - lead - trail;
+                writeBits(3, 2);
+                writeBits(lead, 5);
+                writeBits(meaningful & 31, 5); // 32 => 0
+                writeBits((xor >>> trail) & 0xFFFFFFFFL, meaningful);
+                prevLead = lead;
+                prevTrail = trail;
+            }
+        }
+        return finish();
+    }
+
+    /**
+     * @return position after the encoded values
+     */
+    int decodeDoubles(byte source[], int sourcePos, double arr[], int len) {
+        buf = source;
+        pos = sourcePos << 3; // bit position
+        long prev = readBits(64);
+        arr[0] = Double.longBitsToDouble(prev);
+        int lead = 0;
+        int meaningful = 0;
+        for (int i = 1; i < len; i++) {
+            if (readBits(1) != 0) {
+                if (readBits(1) != 0) {
+                    lead = (int) readBits(5);
+                    meaningful = (int) readBits(6);
+                    if (meaningful == 0) {
+                        meaningful = 64;
+                    }
+                }
+                prev ^= readBits(meaningful) << (64 - lead - meaningful);
+            }
+            arr[i] = Double.longBitsToDouble(prev);
+        }
+        buf = null;
+        return (pos + 7) >>> 3;
+    }
+
+    int decodeFloats(byte source[], int sourcePos, float arr[], int len) {
+        buf = source;
+        pos = sourcePos << 3;
+        int prev = (int) readBits(32);
+        arr[0] = Float.intBitsToFloat(prev);
+        int lead = 0;
+        int meaningful = 0;
+        for (int i = 1; i < len; i++) {
+            if (readBits(1) != 0) {
+                if (readBits(1) != 0) {
+                    lead = (int) readBits(5);
+                    meaningful = (int) readBits(5);
+                    if (meaningful == 0) {
+                        meaningful = 32;
+                    }
+                }
+                prev ^= (int) readBits(meaningful) << (32 - lead - meaningful);
+            }
+            arr[i] = Float.intBitsToFloat(prev);
+        }
+        buf = null;
+        return (pos + 7) >>> 3;
+    }
+
+    private void start(byte target[], int targetPos) {
+        buf = target;
+        pos = targetPos;
+        acc = 0;
+        accBits = 0;
+    }
+
+    private int finish() {
+        for (int b = 0; b < accBits; b += 8) {
+            buf[pos++] = (byte) (acc >>> b);
+        }
+        buf = null;
+        return pos;
+    }
+
+    /**
+     * append the n (1..64) low bits of v, higher bits of v have to be 0
+     */
+    private void writeBits(long v, int n) {
+        acc |= v << accBits;
+        final int free = 64 - accBits;
+        if (n >= free) {
+            final byte b[] = buf;
+            int p = pos;
+            for (int i = 0; i < 64; i += 8) {
+                b[p++] = (byte) (acc >>> i);
+            }
+            pos = p;
+            acc = free == 64 ? 0 : v >>> free;
+            accBits = n - free;
+        } else {
+            accBits += n;
+        }
+    }
+
+    /**
+     * read n (1..64) bits, pos is a bit position while decoding
+     */
+    private long readBits(int n) {
+        int p = pos >>> 3;
+        final int shift = pos & 7;
+        long v = (buf[p++] & 0xFF) >>> shift;
+        int got = 8 - shift;
+        while (got < n) {
+            v |= (long) (buf[p++] & 0xFF) << got;
+            got += 8;
+        }
+        pos += n;
+        return n == 64 ? v : v & ((1L << n) - 1);
+    }
+
+}
@@ -40,6 +40,21 @@ public class FSTArrayListSerializer extends FSTBasicObjectSerializer {
     public void writeObject(FSTObjectOutput out, Object toWrite, FSTClazzInfo clzInfo, FSTClazzInfo.FSTFieldInfo referencedBy, int streamPosition) throws IOException {
         ArrayList col = (ArrayList)toWrite;
         int size = col.size();
+        Class elementClass = FSTCollectionSerializer.getHomogeneousClass(out, col);
+        if ( elementClass != null ) {
+            out.writeInt(-size);
+            out.writeClassTag(elementClass);
+            Class possibles[] = { elementClass };
+            FSTClazzInfo info = null;
+            for (int i = 0; i < size; i++) {
+                Object o = col.get(i);
+                if ( o != null )
+                    info = out.writeObjectInternal(o, info, possibles);
+                else
+                    out.writeObjectInternal(o, null, possibles);
+            }
+            return;
+        }
         out.writeInt(size);
         Class lastClz = null;
         FSTClazzInfo lastInfo = null;
@@ -57,10 +72,15 @@ public class FSTArrayListSerializer extends FSTBasicObjectSerializer {
     public Object instantiate(Class objectClass, FSTObjectInput in, FSTClazzInfo serializationInfo, FSTClazzInfo.FSTFieldInfo referencee, int streamPosition) throws Exception {
         try {
             int len = in.readInt();
+            Class possibles[] = null;
+            if ( len < 0 ) { // homogeneous
+                len = -len;
+                possibles = new Class[] { in.readClass().getClazz() };
+            }
             ArrayList<Object> res = new ArrayList<>(len);
             in.registerObject(res, streamPosition,serializationInfo, referencee);
             for ( int i = 0; i < len; i++ ) {
-                final Object o = in.readObjectInternal(null);
+                final Object o = in.readObjectInternal(possibles);
                 res.add(o);
             }
             return res;
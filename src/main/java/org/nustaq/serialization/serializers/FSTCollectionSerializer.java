@@ -34,6 +34,20 @@ public class FSTCollectionSerializer extends FSTBasicObjectSerializer {
     public void writeObject(FSTObjectOutput out, Object toWrite, FSTClazzInfo clzInfo, FSTClazzInfo.FSTFieldInfo referencedBy, int streamPosition) throws IOException {
         Collection col = (Collection)toWrite;
         int size = col.size();
+        Class elementClass = getHomogeneousClass(out, col);
+        if ( elementClass != null ) {
+            out.writeInt(-size);
+            out.writeClassTag(elementClass);
+            Class possibles[] = { elementClass };
+            FSTClazzInfo info = null;
+            for (Object o : col) {
+                if ( o != null )
+                    info = out.writeObjectInternal(o, info, possibles);
+                else
+                    out.writeObjectInternal(o, null, possibles);
+            }
+            return;
+        }
         out.writeInt(size);
         Class lastClz = null;
         FSTClazzInfo lastInfo = null;
@@ -64,6 +78,11 @@ public class FSTCollectionSerializer extends FSTBasicObjectSerializer {
         try {
             Object res;
             int len = in.readInt();
+            Class possibles[] = null;
+            if ( len < 0 ) { // homogeneous
+                len = -len;
+                possibles = new Class[] { in.readClass().getClazz() };
+            }
             if ( objectClass == ArrayList.class ) {
                 res = new ArrayList(len);
             } else
@@ -89,7 +108,7 @@ public class FSTCollectionSerializer extends FSTBasicObjectSerializer {
                 ((ArrayList)col).ensureCapacity(len);
             }
             for ( int i = 0; i < len; i++ ) {
-                final Object o = in.readObjectInternal(null);
+                final Object o = in.readObjectInternal(possibles);
                 col.add(o);
             }
             return res;
@@ -98,4 +117,49 @@ public class FSTCollectionSerializer extends FSTBasicObjectSerializer {
         }
         return null;
     }
+
+    /**
+     * @return true if elements of this class are written with a class header, so writing the class once for a
+     * homogeneous collection saves bytes (see FSTConfiguration.setHomogeneousCollections)
+     */
+    static boolean isHomogeneousCandidate(Class c) {
+        return c != String.class && c != Integer.class && c != Long.class && c != Boolean.class
+            && !c.isArray() && !Enum.class.isAssignableFrom(c);
+    }
+
+    /**
+     * @return the class shared by all non null elements if the collection should be written "class once + bodies", else null
+     */
+    static Class getHomogeneousClass(FSTObjectOutput out, Collection col) {
+        if ( !out.getConf().isHomogeneousCollections() || col.size() < 2 ) {
+            return null;
+        }
+        Class clz = null;
+        if ( col instanceof ArrayList ) {
+            ArrayList l = (ArrayList) col;
+            for (int i = 0; i < l.size(); i++) {
+                Object o = l.get(i);
+                if ( o != null ) {
+                    if ( clz == null ) {
+                        clz = o.getClass();
+                        if ( !isHomogeneousCandidate(clz) )
+                            return null;
+                    } else if ( o.getClass() != clz )
+                        return null;
+                }
+            }
+        } else {
+            for (Object o : col) {
+                if ( o != null ) {
+                    if ( clz == null ) {
+                        clz = o.getClass();
+                        if ( !isHomogeneousCandidate(clz) )
+                            return null;
+                    } else if ( o.getClass() != clz )
+                        return null;
+                }
+            }
+        }
+        return clz;
+    }
 }
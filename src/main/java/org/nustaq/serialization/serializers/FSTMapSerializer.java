@@ -35,6 +35,9 @@ public class FSTMapSerializer extends FSTBasicObjectSerializer {
     @Override
     public void writeObject(FSTObjectOutput out, Object toWrite, FSTClazzInfo clzInfo, FSTClazzInfo.FSTFieldInfo referencedBy, int streamPosition) throws IOException {
         Map col = (Map)toWrite;
+        if ( out.getConf().isHomogeneousCollections() && col.size() > 1 && writeHomogeneous(out, col) ) {
+            return;
+        }
         out.writeInt(col.size());
         FSTClazzInfo lastKClzI = null;
         FSTClazzInfo lastVClzI = null;
@@ -58,10 +61,76 @@ public class FSTMapSerializer extends FSTBasicObjectSerializer {
         }
     }
 
+    /**
+     * keys and/or values sharing one class (see FSTConfiguration.setHomogeneousCollections): -size, flags, classes once
+     *
+     * @return false if neither keys nor values are homogeneous, nothing has been written then
+     */
+    private boolean writeHomogeneous(FSTObjectOutput out, Map col) throws IOException {
+        Class keyClz = null, valueClz = null;
+        boolean keysMixed = false, valuesMixed = false;
+        for (Iterator iterator = col.entrySet().iterator(); iterator.hasNext() && !(keysMixed && valuesMixed); ) {
+            Map.Entry next = (Map.Entry) iterator.next();
+            Object key = next.getKey();
+            Object value = next.getValue();
+            if ( key != null && !keysMixed ) {
+                if ( keyClz == null )
+                    keyClz = key.getClass();
+                keysMixed = key.getClass() != keyClz;
+            }
+            if ( value != null && !valuesMixed ) {
+                if ( valueClz == null )
+                    valueClz = value.getClass();
+                valuesMixed = value.getClass() != valueClz;
+            }
+        }
+        Class keyPossibles[] = keyClz != null && !keysMixed && FSTCollectionSerializer.isHomogeneousCandidate(keyClz) ? new Class[] { keyClz } : null;
+        Class valuePossibles[] = valueClz != null && !valuesMixed && FSTCollectionSerializer.isHomogeneousCandidate(valueClz) ? new Class[] { valueClz } : null;
+        if ( keyPossibles == null && valuePossibles == null ) {
+            return false;
+        }
+        out.writeInt(-col.size());
+        out.writeByte((keyPossibles != null ? 1 : 0) | (valuePossibles != null ? 2 : 0));
+        if ( keyPossibles != null )
+            out.writeClassTag(keyClz);
+        if ( valuePossibles != null )
+            out.writeClassTag(valueClz);
+        FSTClazzInfo lastKClzI = null;
+        FSTClazzInfo lastVClzI = null;
+        Class lastKClz = null;
+        Class lastVClz = null;
+        for (Iterator iterator = col.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry next = (Map.Entry) iterator.next();
+            Object key = next.getKey();
+            Object value = next.getValue();
+            if ( key != null && value != null ) {
+                lastKClzI = out.writeObjectInternal(key, key.getClass() == lastKClz ? lastKClzI : null, keyPossibles);
+                lastVClzI = out.writeObjectInternal(value, value.getClass() == lastVClz ? lastVClzI : null, valuePossibles);
+                lastKClz = key.getClass();
+                lastVClz = value.getClass();
+            } else
+            {
+                out.writeObjectInternal(key, null, keyPossibles);
+                out.writeObjectInternal(value, null, valuePossibles);
+            }
+        }
+        return true;
+    }
+
     @Override
     public Object instantiate(Class objectClass, FSTObjectInput in, FSTClazzInfo serializationInfo, FSTClazzInfo.FSTFieldInfo referencee, int streamPosition) throws Exception {
         Object res = null;
         int len = in.readInt();
+        Class keyPossibles[] = null;
+        Class valuePossibles[] = null;
+        if ( len < 0 ) { // homogeneous keys and/or values
+            len = -len;
+            int flags = in.readByte();
+            if ( (flags & 1) != 0 )
+                keyPossibles = new Class[] { in.readClass().getClazz() };
+            if ( (flags & 2) != 0 )
+                valuePossibles = new Class[] { in.readClass().getClazz() };
+        }
         if ( objectClass == HashMap.class ) {
             res = new HashMap(len);
         } else
@@ -74,8 +143,8 @@ public class FSTMapSerializer extends FSTBasicObjectSerializer {
         in.registerObject(res, streamPosition,serializationInfo, referencee);
         Map col = (Map)res;
         for ( int i = 0; i < len; i++ ) {
-            Object key = in.readObjectInternal(null);
-            Object val = in.readObjectInternal(null);
+            Object key = in.readObjectInternal(keyPossibles);
+            Object val = in.readObjectInternal(valuePossibles);
             col.put(key,val);
         }
         return res;
@@ -16,364 +16,139 @@
 
 package org.nustaq.serialization.util;
 
-import java.util.ArrayList;
-import java.util.List;
-
 /**
- * Created with IntelliJ IDEA.
- * User: ruedi
- * Date: 20.11.12
- * Time: 19:57
- * To change this template use File | Settings | File Templates.
+ * Identity map object => int, used to detect already written objects and classes.
+ * <p>
+ * Open addressing with linear probing on two flat arrays (keys and primitive values), so lookups touch
+ * consecutive memory and no entry objects or boxed values are created, even for graphs with millions of objects.
+ * The table is kept at most half full.
+ * <p>
+ * Absent keys are reported as Integer.MIN_VALUE. Keys must not be null.
  */
 public class FSTIdentity2IdMap {
-    private static final int RESERVE = 4;
-    private static final int MAX_DEPTH = 4;
-    private static final int[] prim = {
-            3, 5, 7, 11, 13, 17, 19, 23, 29, 37, 67, 97, 139,
-            211, 331, 641, 1097, 1531, 2207, 3121, 5059, 7607, 10891,
-            15901, 19993, 30223, 50077, 74231, 99991, 150001, 300017,
-            1000033, 1500041, 200033, 3000077, 5000077, 10000019
-
-    };
 
-    private static int adjustSize(int size) {
-        for (int i = 0; i < prim.length - 1; i++) {
-            if (size < prim[i]) {
-                return prim[i] + RESERVE;
-            }
-        }
-        return size + RESERVE;
-    }
+    private static final int MIN_CAPACITY = 8;
+    private static final int MAX_CAPACITY = 1 << 30;
 
-    private static final int GROFAC = 2;
-
-    private int mask;
     private Object[] mKeys;
-    private int klen;
     private int mValues[];
     private int mNumberOfElements;
-    private FSTIdentity2IdMap next;
-    private List<Object> linearScanList; // in case of too deep nesting, this one is filled and linear search is applied
-    private List<Integer> linearScanVals; // in case of too deep nesting, this one is filled and linear search is applied
+    private int shift;     // 32 - log2(capacity), index is taken from the upper bits of the scrambled hash
+    private int threshold; // grow once more elements are present
 
     public FSTIdentity2IdMap(int initialSize) {
-        if (initialSize < 2) {
-            initialSize = 2;
+        int capacity = MIN_CAPACITY;
+        while (capacity < initialSize * 2 && capacity < MAX_CAPACITY) {
+            capacity <<= 1;
         }
+        allocate(capacity);
+    }
 
-        initialSize = adjustSize(initialSize * GROFAC);
-
-        mKeys = new Object[initialSize];
-        mValues = new int[initialSize];
-        mNumberOfElements = 0;
-        mask = (Integer.highestOneBit(initialSize) << 1) - 1;
-        klen = initialSize - 4;
+    private void allocate(int capacity) {
+        mKeys = new Object[capacity];
+        mValues = new int[capacity];
+        shift = 32 - Integer.numberOfTrailingZeros(capacity);
+        threshold = capacity == MAX_CAPACITY ? MAX_CAPACITY - 1 : capacity >>> 1;
     }
 
     public int size() {
-        if (linearScanList != null)
-            return linearScanList.size();
-        return mNumberOfElements + (next != null ? next.size() : 0);
+        return mNumberOfElements;
     }
 
+    /**
+     * @return the value of key if present, else key is added with the given value and Integer.MIN_VALUE is returned
+     */
     final public int putOrGet(Object key, int value) {
-        int hash = calcHash(key);
-        return putOrGetHash(key, value, hash, this, 0);
-    }
-
-    private int putOrGetHash(Object key, int value, int hash, FSTIdentity2IdMap parent, int depth) {
-        if (linearScanList != null) {
-            for (int i = 0; i < linearScanList.size(); i++) {
-                Object o = linearScanList.get(i);
-                if (o == key) {
-                    return linearScanVals.get(i);
-                }
+        final Object[] keys = mKeys;
+        final int mask = keys.length - 1;
+        int idx = calcIndex(key);
+        Object k;
+        while ((k = keys[idx]) != null) {
+            if (k == key) {
+                return mValues[idx];
             }
-            linearScanList.add(key);
-            linearScanVals.add(value);
-            return Integer.MIN_VALUE;
+            idx = (idx + 1) & mask;
         }
-        if (mNumberOfElements * GROFAC > mKeys.length) {
-            if (parent != null) {
-                if ((parent.mNumberOfElements + mNumberOfElements) * GROFAC > parent.mKeys.length) {
-                    parent.resize(parent.mKeys.length * GROFAC);
-                    return parent.putOrGet(key, value);
-                } else {
-                    resize(mKeys.length * GROFAC);
-                }
-            } else {
-                resize(mKeys.length * GROFAC);
-            }
+        keys[idx] = key;
+        mValues[idx] = value;
+        if (++mNumberOfElements > threshold) {
+            resize();
         }
-
-        Object[] mKeys = this.mKeys;
-        int idx = calcIndexFromHash(hash);
-
-        Object mKeyAtIdx = mKeys[idx];
-        if (mKeyAtIdx == null) // new
-        {
-            mNumberOfElements++;
-            mValues[idx] = value;
-            mKeys[idx] = key;
-            return Integer.MIN_VALUE;
-        } else if (mKeyAtIdx == key)    // present
-        {
-            return mValues[idx];
-        } else {
-            Object mKeyAtIdxPlus1 = mKeys[idx + 1];
-            if (mKeyAtIdxPlus1 == null) // new
-            {
-                mNumberOfElements++;
-                mValues[idx + 1] = value;
-                mKeys[idx + 1] = key;
-                return Integer.MIN_VALUE;
-            } else if (mKeyAtIdxPlus1 == key)    // present
-            {
-                return mValues[idx + 1];
-            } else {
-                Object mKeysAtIndexPlus2 = mKeys[idx + 2];
-                if (mKeysAtIndexPlus2 == null) // new
-                {
-                    mNumberOfElements++;
-                    mValues[idx + 2] = value;
-                    mKeys[idx + 2] = key;
-                    return Integer.MIN_VALUE;
-                } else if (mKeysAtIndexPlus2 == key)    // present
-                {
-                    return mValues[idx + 2];
-                } else {
-                    return putOrGetNext(hash, key, value, depth + 1);
-                }
-            }
-        }
-    }
-
-    private int putOrGetNext(final int hash, final Object key, final int value, int depth) {
-        if (next == null) { // new
-            int newSiz = mKeys.length / 10;
-            next = new FSTIdentity2IdMap(newSiz);
-            if (depth > MAX_DEPTH) {
-                next.linearScanVals = new ArrayList<>(3);
-                next.linearScanList = new ArrayList<>(3);
-            }
-            next.putHash(key, value, hash, this, depth);
-            return Integer.MIN_VALUE;
-        }
-        return next.putOrGetHash(key, value, hash, this, depth + 1);
+        return Integer.MIN_VALUE;
     }
 
     final public void put(Object key, int value) {
-        int hash = calcHash(key);
-        putHash(key, value, hash, this, 0);
-    }
-
-    private void putHash(Object key, int value, int hash, FSTIdentity2IdMap parent, int depth) {
-        if (linearScanList != null) {
-            for (int i = 0; i < linearScanList.size(); i++) {
-                Object o = linearScanList.get(i);
-                if (o == key) {
-                    linearScanVals.set(i, value);
-                    return;
-                }
-            }
-            linearScanList.add(key);
-            linearScanVals.add(value);
-            return;
-        }
-        if (mNumberOfElements * GROFAC > mKeys.length) {
-            if (parent != null) {
-                if ((parent.mNumberOfElements + mNumberOfElements) * GROFAC > parent.mKeys.length) {
-                    parent.resize(parent.mKeys.length * GROFAC);
-                    parent.put(key, value);
-                    return;
-                } else {
-                    resize(mKeys.length * GROFAC);
-                }
-            } else {
-                resize(mKeys.length * GROFAC);
-            }
-        }
-
-        Object[] mKeys = this.mKeys;
-        int idx = calcIndexFromHash(hash);
-
-        if (mKeys[idx] == null) // new
-        {
-            mNumberOfElements++;
-            mValues[idx] = value;
-            mKeys[idx] = key;
-        } else if (mKeys[idx] == key)    // overwrite
-        {
-//            bloom|=hash;
-            mValues[idx] = value;
-        } else {
-            if (mKeys[idx + 1] == null) // new
-            {
-                mNumberOfElements++;
-                mValues[idx + 1] = value;
-                mKeys[idx + 1] = key;
-            } else if (mKeys[idx + 1] == key)    // overwrite
-            {
-//                bloom|=hash;
-                mValues[idx + 1] = value;
-            } else {
-                if (mKeys[idx + 2] == null) // new
-                {
-                    mNumberOfElements++;
-                    mValues[idx + 2] = value;
-                    mKeys[idx + 2] = key;
-                } else if (mKeys[idx + 2] == key)    // overwrite
-                {
-//                    bloom|=hash;
-                    mValues[idx + 2] = value;
-                } else {
-                    putNext(hash, key, value, depth + 1);
-                }
+        final Object[] keys = mKeys;
+        final int mask = keys.length - 1;
+        int idx = calcIndex(key);
+        Object k;
+        while ((k = keys[idx]) != null) {
+            if (k == key) {
+                mValues[idx] = value;
+                return;
             }
+            idx = (idx + 1) & mask;
         }
-    }
-
-    private void putNext(final int hash, final Object key, final int value, int depth) {
-        if (next == null) {
-            int newSiz = mKeys.length / 10;
-            next = new FSTIdentity2IdMap(newSiz);
-            if (depth > MAX_DEPTH) {
-                next.linearScanVals = new ArrayList<>(3);
-                next.linearScanList = new ArrayList<>(3);
-            }
+        keys[idx] = key;
+        mValues[idx] = value;
+        if (++mNumberOfElements > threshold) {
+            resize();
         }
-        next.putHash(key, value, hash, this, depth + 1);
     }
 
     final public int get(final Object key) {
-        int hash = calcHash(key);
-        return getHash(key, hash);
-    }
-
-    private int getHash(final Object key, final int hash) {
-        if (linearScanList != null) {
-            for (int i = 0; i < linearScanList.size(); i++) {
-                Object o = linearScanList.get(i);
-                if (o == key) {
-                    return linearScanVals.get(i);
-                }
+        final Object[] keys = mKeys;
+        final int mask = keys.length - 1;
+        int idx = calcIndex(key);
+        Object k;
+        while ((k = keys[idx]) != null) {
+            if (k == key) {
+                return mValues[idx];
             }
-            return Integer.MIN_VALUE;
-        }
-
-        final int idx = calcIndexFromHash(hash);
-
-        Object mapsKey = mKeys[idx];
-        if (mapsKey == null) // not found
-        {
-            return Integer.MIN_VALUE;
-        } else if (mapsKey == key)  // found
-        {
-            return mValues[idx];
-        } else {
-            mapsKey = mKeys[idx + 1];
-            if (mapsKey == null) // not found
-            {
-                return Integer.MIN_VALUE;
-            } else if (mapsKey == key)  // found
-            {
-                return mValues[idx + 1];
-            } else {
-                mapsKey = mKeys[idx + 2];
-                if (mapsKey == null) // not found
-                {
-                    return Integer.MIN_VALUE;
-                } else if (mapsKey == key)  // found
-                {
-                    return mValues[idx + 2];
-                } else {
-                    if (next == null) {
-                        return Integer.MIN_VALUE;
-                    }
-                    return next.getHash(key, hash);
+            idx = (idx + 1) & mask;
+        }
+        return Integer.MIN_VALUE;
+    }
+
+    private void resize() {
+        final Object[] oldKeys = mKeys;
+        final int[] oldValues = mValues;
+        if (oldKeys.length == MAX_CAPACITY) {
+            throw new RuntimeException("identity map is full");
+        }
+        allocate(oldKeys.length << 1);
+        final Object[] keys = mKeys;
+        final int[] values = mValues;
+        final int mask = keys.length - 1;
+        for (int n = 0; n < oldKeys.length; n++) {
+            final Object key = oldKeys[n];
+            if (key != null) {
+                int idx = calcIndex(key);
+                while (keys[idx] != null) {
+                    idx = (idx + 1) & mask;
                 }
+                keys[idx] = key;
+                values[idx] = oldValues[n];
             }
         }
     }
 
-    private void resize(int newSize) {
-        newSize = adjustSize(newSize);
-        Object[] oldTabKey = mKeys;
-        int[] oldTabVal = mValues;
-
-        mKeys = new Object[newSize];
-        mValues = new int[newSize];
-        mNumberOfElements = 0;
-        mask = (Integer.highestOneBit(newSize) << 1) - 1;
-        klen = newSize - RESERVE;
-
-        for (int n = 0; n < oldTabKey.length; n++) {
-            if (oldTabKey[n] != null) {
-                put(oldTabKey[n], oldTabVal[n]);
-            }
-        }
-        if (next != null) {
-            FSTIdentity2IdMap oldNext = next;
-            next = null;
-            oldNext.rePut(this);
-        }
-    }
-
-    private void rePut(FSTIdentity2IdMap kfstObject2IntMap) {
-        if (linearScanList != null) {
-            int size = linearScanList.size();
-            for (int i = 0; i < size; i++) {
-                Object key = linearScanList.get(i);
-                int value = linearScanVals.get(i);
-                kfstObject2IntMap.put(key, value);
-            }
-            return;
-        }
-
-        for (int i = 0; i < mKeys.length; i++) {
-            Object mKey = mKeys[i];
-            if (mKey != null) {
-                kfstObject2IntMap.put(mKey, mValues[i]);
-            }
-        }
-        if (next != null) {
-            next.rePut(kfstObject2IntMap);
-        }
-    }
-
-    private int calcIndexFromHash(int hash) {
-        int res = hash & mask;
-        while (res >= klen) {
-            res = res >>> 1;
-        }
-        return res;
-    }
-
-    private static int calcHash(Object x) {
-        int h = System.identityHashCode(x);
-//        return h>>2;
-        return ((h << 1) - (h << 8)) & 0x7fffffff;
+    private int calcIndex(Object key) {
+        // fibonacci hashing spreads the (often sequential) identity hashes over the table
+        return (System.identityHashCode(key) * 0x9E3779B9) >>> shift;
     }
 
     public void clear() {
-        if (size() == 0) {
+        if (mNumberOfElements == 0) {
             return;
         }
-        if (linearScanList != null) {
-            linearScanList.clear();
-            linearScanVals.clear();
-        }
-        FSTUtil.clear(mKeys);
-        FSTUtil.clear(mValues);
-//        Arrays.fill(mKeys,null);
-//        Arrays.fill(mValues,0);
+        FSTUtil.clear(mKeys); // values of free slots are never read
         mNumberOfElements = 0;
-        if (next != null) {
-            next.clear();
-        }
     }
 
+    /**
+     * @return capacity of the table
+     */
     public int keysLength() {
         return mKeys.length;
     }
@@ -28,10 +28,12 @@ import java.io.InputStream;
 public final class FSTInputStream extends InputStream {
 
     private final int chunk_size = 8000;
+    private static final int KEEP_BEHIND = 16; // consumed bytes kept on compaction, decoders might push back
     private static final ThreadLocal<byte[]> cachedBuffer = new ThreadLocal<>();
     public byte buf[];
     public int pos;
     private int count; // avaiable valid read bytes
+    private int off; // stream position of buf[0]
     private InputStream in;
     private boolean fullyRead = false; // true if input source has been read til end
     private boolean byteBacked = false;
@@ -50,9 +52,14 @@ public final class FSTInputStream extends InputStream {
     }
 
     public void initFromStream(InputStream in) {
+        if (byteBacked) {
+            buf = null; // don't overwrite an array given to resetForReuse
+        }
         fullyRead = false;
         byteBacked = false;
         pos = 0;
+        count = 0;
+        off = 0;
         this.in = in;
         if (buf == null) {
             buf = cachedBuffer.get();
@@ -70,6 +77,9 @@ public final class FSTInputStream extends InputStream {
 
     private void readNextChunk(InputStream in) {
         int read;
+        if (buf.length < count + chunk_size) {
+            compact(); // outside the try, errors must not be taken for the end of input
+        }
         try {
             if (buf.length < count + chunk_size) {
                 ensureCapacity(Math.max(Math.min(Integer.MAX_VALUE - 1, buf.length * 2), count + chunk_size)); // at least grab 5kb
@@ -85,6 +95,22 @@ public final class FSTInputStream extends InputStream {
         }
     }
 
+    /**
+     * discard consumed bytes, so reading a long stream only keeps the unread window instead of
+     * growing the buffer to the size of the stream. Stream positions stay stable (see getOff()).
+     * Back references are resolved via the object registry, they don't need the bytes of the referenced object.
+     */
+    private void compact() {
+        int discard = Math.min(pos, count) - KEEP_BEHIND; // pos > count if skipped beyond the bytes read
+        if (discard <= 0 || byteBacked) {
+            return;
+        }
+        System.arraycopy(buf, discard, buf, 0, count - discard);
+        count -= discard;
+        pos -= discard;
+        off += discard;
+    }
+
     private void ensureCapacity(int siz) {
         if (buf.length < siz && !fullyRead) {
             byte newBuf[] = new byte[siz];
@@ -147,6 +173,7 @@ public final class FSTInputStream extends InputStream {
     public void reset() {
         count = 0;
         pos = 0;
+        off = 0;
         fullyRead = false;
         byteBacked = false;
     }
@@ -156,11 +183,15 @@ public final class FSTInputStream extends InputStream {
             in.close();
     }
 
+    // return offset of pos to stream position
+    public int getOff() {
+        return off;
+    }
+
     public void ensureReadAhead(int bytes) {
         if (byteBacked)
             return;
-        int targetCount = pos + bytes;
-        while (!fullyRead && count < targetCount) {
+        while (!fullyRead && count < pos + bytes) { // pos changes on compaction
             readNextChunk(in);
         }
     }
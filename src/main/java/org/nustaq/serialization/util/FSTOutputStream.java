@@ -38,7 +38,11 @@ public final class FSTOutputStream extends OutputStream {
      */
     public int pos;
     private OutputStream outstream;
-    private int off;
+    private int off; // bytes written to outstream by incremental flushes, stream position of buf[0]
+    private int flushThreshold; // > 0: flush to outstream once pos reaches this (high-water mark)
+    private int limit; // buf.length or flushThreshold, ensureFree takes the slow path beyond
+    private int pins; // number of reserved (not yet patched) positions
+    private int pinnedPosition; // stream position of the first reserved position
 
     public FSTOutputStream(OutputStream out) {
         this(4000, out);
@@ -47,21 +51,93 @@ public final class FSTOutputStream extends OutputStream {
     public FSTOutputStream(int size, OutputStream out) {
         buf = new byte[size];
         outstream = out;
+        updateLimit();
     }
 
     public void setOutstream(OutputStream outstream) {
         this.outstream = outstream;
+        updateLimit();
+    }
+
+    /**
+     * if > 0 and an underlying stream is set, buffered bytes are written to the stream as soon as the buffer
+     * holds more than flushThreshold bytes, so writing a huge object graph does not buffer it completely.
+     * Stream positions continue across those flushes (see getOff()). Reserved positions (see pin) and all
+     * bytes following them are kept until the reservation is released, if this prevents flushing the buffer
+     * grows as usual.
+     *
+     * @param flushThreshold 0 = buffer everything until flush() is called
+     */
+    public void setFlushThreshold(int flushThreshold) {
+        this.flushThreshold = flushThreshold;
+        updateLimit();
+    }
+
+    public int getFlushThreshold() {
+        return flushThreshold;
+    }
+
+    private boolean isIncremental() {
+        return flushThreshold > 0 && outstream != null && outstream != this;
+    }
+
+    private void updateLimit() {
+        limit = isIncremental() && pos < flushThreshold ? Math.min(flushThreshold, buf.length) : buf.length;
     }
 
     public final void ensureFree(int free) throws IOException {
         // inline ..
+        if (pos + free - limit > 0)
+            overflow(free);
+    }
+
+    private void overflow(int free) throws IOException {
+        if (isIncremental()) {
+            flushPinned();
+        }
         if (pos + free - buf.length > 0)
             grow(pos + free);
+        updateLimit();
+    }
+
+    /**
+     * write buffered bytes up to the first reserved position to the underlying stream
+     */
+    private void flushPinned() throws IOException {
+        int flushable = Math.min(pins > 0 ? pinnedPosition - off : pos, pos);
+        if (flushable <= 0) {
+            return;
+        }
+        if (pos > buf.length) { // pos advanced without ensureFree
+            grow(pos);
+        }
+        outstream.write(buf, 0, flushable);
+        System.arraycopy(buf, flushable, buf, 0, pos - flushable);
+        pos -= flushable;
+        off += flushable;
+    }
+
+    /**
+     * reserve a stream position which will be patched later on (e.g. a length written after the content),
+     * incremental flushing stops before it until unpin is called. Reservations may nest.
+     *
+     * @param streamPosition
+     */
+    public void pin(int streamPosition) {
+        if (pins++ == 0) {
+            pinnedPosition = streamPosition;
+        }
+    }
+
+    public void unpin() {
+        if (pins > 0) {
+            pins--;
+        }
     }
 
     private void ensureCapacity(int minCapacity) throws IOException {
-        if (minCapacity - buf.length > 0)
-            grow(minCapacity);
+        if (minCapacity - limit > 0)
+            overflow(minCapacity - pos);
     }
 
     private void grow(int minCapacity) {
@@ -109,6 +185,8 @@ public final class FSTOutputStream extends OutputStream {
     public void reset() {
         pos = 0;
         off = 0;
+        pins = 0;
+        updateLimit();
     }
 
     public byte toByteArray()[] {
@@ -136,11 +214,11 @@ public final class FSTOutputStream extends OutputStream {
     }
 
     public void reset(byte[] out) {
-        reset();
         buf = out;
+        reset();
     }
 
-    // return offset of pos to stream position
+    // return offset of pos to stream position (bytes written by incremental flushes)
     public int getOff() {
         return off;
     }
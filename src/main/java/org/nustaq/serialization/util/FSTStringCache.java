@@ -0,0 +1,140 @@
+/*
+ * Copyright 2014 Ruediger Moeller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nustaq.serialization.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Bounded cache canonicalizing decoded strings, see FSTConfiguration.setStringCache. Keyed on the encoded bytes, so
+ * a hit returns the cached instance without building a String. Strings containing chars >= 255 (escaped on the wire)
+ * are not cached.
+ * <p>
+ * Direct mapped: each string hashes to one of size slots, a miss replaces the slot's entry (eviction). Entries are
+ * immutable, so the cache can be shared by concurrently reading streams without locking. Statistics are not
+ * synchronized and may be slightly off under concurrent use.
+ */
+public final class FSTStringCache {
+
+    private static final class Entry {
+        final int hash;
+        final byte bytes[];
+        final String string;
+
+        Entry(int hash, byte[] bytes, String string) {
+            this.hash = hash;
+            this.bytes = bytes;
+            this.string = string;
+        }
+    }
+
+    private final Entry entries[];
+    private final int maxLength;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param size      number of slots (rounded up to a power of 2)
+     * @param maxLength longer strings are not cached
+     */
+    public FSTStringCache(int size, int maxLength) {
+        int slots = Integer.highestOneBit(Math.max(16, size) - 1) << 1;
+        entries = new Entry[slots];
+        this.maxLength = maxLength;
+    }
+
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    /**
+     * @return a string holding the latin-1 chars buf[off..off+len), the cached instance if present
+     */
+    public String get(byte buf[], int off, int len) {
+        if (len > maxLength) {
+            return new String(buf, off, len, StandardCharsets.ISO_8859_1);
+        }
+        int hash = len;
+        for (int i = off; i < off + len; i++) {
+            hash = 31 * hash + buf[i];
+        }
+        final Entry entries[] = this.entries;
+        final int slot = (hash ^ (hash >>> 16)) & (entries.length - 1);
+        final Entry entry = entries[slot];
+        if (entry != null && entry.hash == hash && equals(entry.bytes, buf, off, len)) {
+            hits++;
+            return entry.string;
+        }
+        misses++;
+        if (entry != null) {
+            evictions++;
+        }
+        final byte key[] = Arrays.copyOfRange(buf, off, off + len);
+        final String string = new String(key, StandardCharsets.ISO_8859_1);
+        entries[slot] = new Entry(hash, key, string);
+        return string;
+    }
+
+    private static boolean equals(byte key[], byte buf[], int off, int len) {
+        if (key.length != len) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (key[i] != buf[off + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return hits / lookups or 0 if there was no lookup yet
+     */
+    public double getHitRate() {
+        final long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     * remove all entries and reset the statistics
+     */
+    public void clear() {
+        Arrays.fill(entries, null);
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "FSTStringCache{slots=" + entries.length + ", maxLength=" + maxLength + ", hits=" + hits
+            + ", misses=" + misses + ", evictions=" + evictions + '}';
+    }
+
+}
@@ -17,6 +17,7 @@ package org.nustaq.serialization.util;
 
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 
 import sun.misc.Unsafe;
@@ -57,6 +58,43 @@ public class FSTUtil {
         throw (T) exception;
     }
 
+    /**
+     * true if primitive arrays can be copied from/to the little endian wire format as is (native byte order
+     * is little endian), see copyToBytes/copyFromBytes
+     */
+    public static final boolean BULK_ARRAY_COPY = unFlaggedUnsafe != null && ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+    private static final long COPY_CHUNK = 1024 * 1024; // bounds time to safepoint when copying huge arrays
+
+    /**
+     * copy len elements of a primitive array starting at off to buf[pos]. Requires BULK_ARRAY_COPY.
+     *
+     * @param arrayBaseOffset Unsafe.ARRAY_*_BASE_OFFSET of the array's type
+     * @param elementSize     size of an element in bytes
+     */
+    public static void copyToBytes(Object array, long arrayBaseOffset, int elementSize, int off, int len, byte[] buf, int pos) {
+        copyMemory(array, arrayBaseOffset + (long) off * elementSize, buf, Unsafe.ARRAY_BYTE_BASE_OFFSET + pos, (long) len * elementSize);
+    }
+
+    /**
+     * copy len elements from buf[pos] to the start of a primitive array. Requires BULK_ARRAY_COPY.
+     *
+     * @param arrayBaseOffset Unsafe.ARRAY_*_BASE_OFFSET of the array's type
+     * @param elementSize     size of an element in bytes
+     */
+    public static void copyFromBytes(byte[] buf, int pos, Object array, long arrayBaseOffset, int elementSize, int len) {
+        copyMemory(buf, Unsafe.ARRAY_BYTE_BASE_OFFSET + pos, array, arrayBaseOffset, (long) len * elementSize);
+    }
+
+    private static void copyMemory(Object src, long srcOffset, Object dst, long dstOffset, long length) {
+        while (length > 0) {
+            final long size = Math.min(length, COPY_CHUNK);
+            unFlaggedUnsafe.copyMemory(src, srcOffset, dst, dstOffset, size);
+            length -= size;
+            srcOffset += size;
+            dstOffset += size;
+        }
+    }
+
     // obsolete
     private static String getPackage(Class clazz) {
         String s = clazz.getName();
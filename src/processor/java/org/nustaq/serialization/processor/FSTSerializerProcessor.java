@@ -0,0 +1,568 @@
+/*
+ * Copyright 2014 Ruediger Moeller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nustaq.serialization.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates an FSTGeneratedSerializer for each class annotated with @Precompile plus an FSTSerializerIndex
+ * registering them (listed in META-INF/services, see FSTConfiguration.registerGeneratedSerializers()).
+ * <p>
+ * Fields are collected and ordered the same way FSTClazzInfo does it at runtime (all non static, non transient
+ * fields of the class hierarchy, sorted like defFieldComparator), so generated and reflective serialization produce
+ * identical streams.
+ * <p>
+ * The index class defaults to [package of first annotated class].FSTGeneratedSerializerIndex, use the processor
+ * option -Afst.index=com.acme.MyIndex in case several modules share a package.
+ */
+public class FSTSerializerProcessor extends AbstractProcessor {
+
+    static final String ANN_PKG = "org.nustaq.serialization.annotations.";
+    static final String PRECOMPILE = ANN_PKG + "Precompile";
+    static final String INDEX_OPTION = "fst.index";
+    static final String SERIALIZER_SUFFIX = "_FSTSerializer";
+
+    private final List<String> generated = new ArrayList<>();
+    private String indexPackage;
+    private boolean indexWritten;
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(PRECOMPILE);
+    }
+
+    @Override
+    public Set<String> getSupportedOptions() {
+        return Collections.singleton(INDEX_OPTION);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver()) {
+            return false;
+        }
+        TypeElement precompile = processingEnv.getElementUtils().getTypeElement(PRECOMPILE);
+        if (precompile == null) {
+            return false;
+        }
+        Set<? extends Element> annotated = roundEnv.getElementsAnnotatedWith(precompile);
+        for (Element element : annotated) {
+            if (indexWritten) {
+                error(element, "@Precompile class generated after the serializer index has been written");
+                continue;
+            }
+            if (element.getKind() != ElementKind.CLASS) {
+                error(element, "@Precompile is only supported on classes");
+                continue;
+            }
+            TypeElement clazz = (TypeElement) element;
+            List<FieldModel> fields = collectFields(clazz);
+            if (fields != null && checkClass(clazz)) {
+                writeSerializer(clazz, fields);
+            }
+        }
+        // written in the round compiling the generated serializers instead of the last round, javac warns about
+        // sources created in the last round (breaks -Werror builds)
+        if (annotated.isEmpty() && !generated.isEmpty() && !indexWritten) {
+            writeIndex();
+            indexWritten = true;
+        }
+        return true;
+    }
+
+    /////////////////////////////////////////////////////////////////////////////////////////
+    // validation + field collection, mirrors FSTClazzInfo.getAllFields/createFields
+
+    private boolean checkClass(TypeElement clazz) {
+        boolean ok = true;
+        Set<Modifier> mods = clazz.getModifiers();
+        if (mods.contains(Modifier.ABSTRACT) || mods.contains(Modifier.PRIVATE)) {
+            error(clazz, "@Precompile classes must not be abstract or private");
+            ok = false;
+        }
+        if (clazz.getNestingKind() == NestingKind.MEMBER && !mods.contains(Modifier.STATIC)) {
+            error(clazz, "@Precompile nested classes must be static");
+            ok = false;
+        } else if (clazz.getNestingKind() == NestingKind.LOCAL || clazz.getNestingKind() == NestingKind.ANONYMOUS) {
+            error(clazz, "@Precompile is not supported on local or anonymous classes");
+            ok = false;
+        }
+        if (!isSubtype(clazz.asType(), "java.io.Serializable")) {
+            error(clazz, "@Precompile classes must implement java.io.Serializable");
+            ok = false;
+        }
+        if (isSubtype(clazz.asType(), "java.io.Externalizable")) {
+            error(clazz, "@Precompile is not supported for Externalizable classes");
+            ok = false;
+        }
+        boolean hasNoArgConstructor = false;
+        for (ExecutableElement cons : ElementFilter.constructorsIn(clazz.getEnclosedElements())) {
+            if (cons.getParameters().isEmpty() && !cons.getModifiers().contains(Modifier.PRIVATE)) {
+                hasNoArgConstructor = true;
+            }
+        }
+        if (!hasNoArgConstructor) {
+            error(clazz, "@Precompile classes need a non private no-arg constructor");
+            ok = false;
+        }
+        for (TypeElement c = clazz; c != null; c = superClass(c)) {
+            for (ExecutableElement method : ElementFilter.methodsIn(c.getEnclosedElements())) {
+                String name = method.getSimpleName().toString();
+                if (method.getParameters().size() == 1 && (name.equals("writeObject") || name.equals("readObject"))) {
+                    String param = erasure(method.getParameters().get(0).asType());
+                    if (param.equals("java.io.ObjectOutputStream") || param.equals("java.io.ObjectInputStream")) {
+                        error(clazz, "@Precompile is not supported for classes using writeObject/readObject (" + c.getQualifiedName() + ")");
+                        ok = false;
+                    }
+                }
+            }
+        }
+        return ok;
+    }
+
+    private List<FieldModel> collectFields(TypeElement clazz) {
+        List<FieldModel> res = new ArrayList<>();
+        boolean ok = true;
+        String pkg = packageOf(clazz);
+        for (TypeElement c = clazz; c != null; c = superClass(c)) {
+            if (c != clazz && isInnerClass(c)) {
+                error(clazz, "@Precompile does not support inner (non static) superclasses (" + c.getQualifiedName() + ")");
+                ok = false;
+            }
+            boolean transientClass = isTransientHierarchy(c);
+            for (VariableElement field : ElementFilter.fieldsIn(c.getEnclosedElements())) {
+                Set<Modifier> mods = field.getModifiers();
+                if (mods.contains(Modifier.STATIC) || mods.contains(Modifier.TRANSIENT)) {
+                    continue;
+                }
+                if (transientClass && !hasAnnotation(field, ANN_PKG + "Serialize")) {
+                    continue;
+                }
+                FieldModel fm = new FieldModel(field, c);
+                if (mods.contains(Modifier.PRIVATE) || mods.contains(Modifier.FINAL)) {
+                    error(field, "@Precompile requires non private, non final fields (" + c.getQualifiedName() + "." + fm.name + ")");
+                    ok = false;
+                } else if (!mods.contains(Modifier.PUBLIC) && !pkg.equals(packageOf(c))) {
+                    error(field, "field " + c.getQualifiedName() + "." + fm.name + " is not accessible from package " + pkg);
+                    ok = false;
+                }
+                if (hasAnnotation(field, ANN_PKG + "Conditional")) {
+                    error(field, "@Precompile does not support @Conditional fields");
+                    ok = false;
+                }
+                if (hasAnnotation(field, ANN_PKG + "Delta")) {
+                    error(field, "@Precompile does not support @Delta fields");
+                    ok = false;
+                }
+                AnnotationMirror version = annotation(field, ANN_PKG + "Version");
+                if (version != null && ((Number) annotationValue(version).getValue()).intValue() != 0) {
+                    error(field, "@Precompile does not support @Version fields");
+                    ok = false;
+                }
+                res.add(fm);
+            }
+        }
+        Collections.sort(res, FIELD_ORDER);
+        return ok ? res : null;
+    }
+
+    /**
+     * FSTClazzInfo.getAllFields checks the fields declared by a class against the class and all of its superclasses,
+     * so a @Transient superclass drops all subclass fields not annotated @Serialize
+     */
+    private boolean isTransientHierarchy(TypeElement declaring) {
+        for (TypeElement c = declaring; c != null; c = superClass(c)) {
+            if (hasAnnotation(transientLookupClass(c), ANN_PKG + "Transient")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * inner classes have a synthetic reference to the outer instance, which is serialized but not visible here
+     */
+    private static boolean isInnerClass(TypeElement c) {
+        return c.getNestingKind() == NestingKind.LOCAL || c.getNestingKind() == NestingKind.ANONYMOUS
+            || c.getNestingKind() == NestingKind.MEMBER && !c.getModifiers().contains(Modifier.STATIC);
+    }
+
+    /**
+     * FSTClazzInfo.isTransient looks up @Transient on the first class in the hierarchy without a '$' in its name
+     */
+    private TypeElement transientLookupClass(TypeElement c) {
+        while (c != null && processingEnv.getElementUtils().getBinaryName(c).toString().indexOf('$') >= 0) {
+            c = superClass(c);
+        }
+        return c;
+    }
+
+    /**
+     * same order as FSTClazzInfo.defFieldComparator (versions/conditionals are rejected)
+     */
+    static final Comparator<FieldModel> FIELD_ORDER = new Comparator<FieldModel>() {
+        @Override
+        public int compare(FieldModel o1, FieldModel o2) {
+            if (o1.isBoolean() && !o2.isBoolean()) {
+                return -1;
+            }
+            if (!o1.isBoolean() && o2.isBoolean()) {
+                return 1;
+            }
+            int res = 0;
+            if (o1.primitive && !o2.primitive) {
+                res = -1;
+            } else if (!o1.primitive && o2.primitive) {
+                res = 1;
+            }
+            if (res == 0)
+                res = o1.typeSimpleName.compareTo(o2.typeSimpleName);
+            if (res == 0)
+                res = o1.name.compareTo(o2.name);
+            if (res == 0)
+                return o1.declaringBinaryName.compareTo(o2.declaringBinaryName);
+            return res;
+        }
+    };
+
+    class FieldModel {
+        final String name;
+        final String type;              // erased source type, e.g. java.util.List
+        final String typeSimpleName;    // as Class.getSimpleName() of the erased type
+        final boolean primitive;
+        final String declaringClass;    // canonical name
+        final String declaringBinaryName;
+        final VariableElement element;
+
+        FieldModel(VariableElement field, TypeElement declaring) {
+            element = field;
+            name = field.getSimpleName().toString();
+            TypeMirror t = processingEnv.getTypeUtils().erasure(field.asType());
+            type = sourceName(t);
+            typeSimpleName = simpleName(t);
+            primitive = t.getKind().isPrimitive();
+            declaringClass = declaring.getQualifiedName().toString();
+            declaringBinaryName = processingEnv.getElementUtils().getBinaryName(declaring).toString();
+        }
+
+        boolean isBoolean() {
+            return type.equals("boolean");
+        }
+    }
+
+    /////////////////////////////////////////////////////////////////////////////////////////
+    // code generation
+
+    private void writeSerializer(TypeElement clazz, List<FieldModel> fields) {
+        String pkg = packageOf(clazz);
+        String className = clazz.getQualifiedName().toString();
+        String serName = serializerName(clazz);
+        String qualifiedSerName = pkg.isEmpty() ? serName : pkg + "." + serName;
+        try (Writer w = processingEnv.getFiler().createSourceFile(qualifiedSerName, clazz).openWriter()) {
+            PrintWriter out = new PrintWriter(w);
+            if (!pkg.isEmpty()) {
+                out.println("package " + pkg + ";");
+                out.println();
+            }
+            out.println("/**");
+            out.println(" * generated by FSTSerializerProcessor from " + className + ", do not edit");
+            out.println(" */");
+            // casts of generic field types are unchecked, keep -Werror builds of the annotated module clean
+            out.println("@SuppressWarnings({\"unchecked\", \"rawtypes\"})");
+            out.println("public final class " + serName + " extends org.nustaq.serialization.FSTGeneratedSerializer {");
+            out.println();
+            for (FieldModel f : fields) {
+                if (!f.primitive) {
+                    out.println("    private final org.nustaq.serialization.FSTClazzInfo.FSTFieldInfo " + infoName(f) + ";");
+                }
+            }
+            out.println();
+            out.println("    public " + serName + "(org.nustaq.serialization.FSTConfiguration conf) {");
+            out.println("        super(conf);");
+            for (FieldModel f : fields) {
+                if (!f.primitive) {
+                    out.println("        " + infoName(f) + " = fieldInfo(\"" + f.name + "\", " + f.type + ".class, "
+                        + predict(f.element) + ", " + hasAnnotation(f.element, ANN_PKG + "Flat") + ", " + oneOf(f.element) + ");");
+                }
+            }
+            out.println("    }");
+            out.println();
+            out.println("    @Override");
+            out.println("    protected Object newInstance() {");
+            out.println("        return new " + className + "();");
+            out.println("    }");
+            out.println();
+            out.println("    @Override");
+            out.println("    protected void writeFields(org.nustaq.serialization.FSTObjectOutput out, Object toWrite) throws java.io.IOException {");
+            out.println("        final " + className + " obj = (" + className + ") toWrite;");
+            int i = 0;
+            while (i < fields.size() && fields.get(i).isBoolean()) {
+                StringBuilder mask = new StringBuilder();
+                for (int bit = 0; bit < 8 && i < fields.size() && fields.get(i).isBoolean(); bit++, i++) {
+                    if (bit > 0) {
+                        mask.append(" | ");
+                    }
+                    mask.append("(").append(access(clazz, fields.get(i))).append(" ? ").append(128 >> bit).append(" : 0)");
+                }
+                out.println("        out.writeByte(" + mask + ");");
+            }
+            for (; i < fields.size(); i++) {
+                FieldModel f = fields.get(i);
+                if (f.primitive) {
+                    out.println("        out.write" + capitalize(f.type) + "(" + access(clazz, f) + ");");
+                } else {
+                    out.println("        writeObjectField(out, " + infoName(f) + ", " + access(clazz, f) + ");");
+                }
+            }
+            out.println("    }");
+            out.println();
+            out.println("    @Override");
+            out.println("    protected void readFields(org.nustaq.serialization.FSTObjectInput in, Object toRead) throws Exception {");
+            out.println("        final " + className + " obj = (" + className + ") toRead;");
+            i = 0;
+            if (!fields.isEmpty() && fields.get(0).isBoolean()) {
+                out.println("        int mask;");
+            }
+            while (i < fields.size() && fields.get(i).isBoolean()) {
+                out.println("        mask = in.readByte();");
+                for (int bit = 0; bit < 8 && i < fields.size() && fields.get(i).isBoolean(); bit++, i++) {
+                    out.println("        " + access(clazz, fields.get(i)) + " = (mask & " + (128 >> bit) + ") != 0;");
+                }
+            }
+            for (; i < fields.size(); i++) {
+                FieldModel f = fields.get(i);
+                if (f.primitive) {
+                    out.println("        " + access(clazz, f) + " = in.read" + capitalize(f.type) + "();");
+                } else if (f.type.equals("java.lang.Object")) {
+                    out.println("        " + access(clazz, f) + " = readObjectField(in, " + infoName(f) + ");");
+                } else {
+                    out.println("        " + access(clazz, f) + " = (" + f.type + ") readObjectField(in, " + infoName(f) + ");");
+                }
+            }
+            out.println("    }");
+            out.println();
+            out.println("}");
+            out.flush();
+            generated.add(className + ":" + qualifiedSerName);
+            if (indexPackage == null) {
+                indexPackage = pkg;
+            }
+        } catch (IOException e) {
+            error(clazz, "failed to write serializer: " + e);
+        }
+    }
+
+    private void writeIndex() {
+        String indexName = processingEnv.getOptions().get(INDEX_OPTION);
+        if (indexName == null) {
+            indexName = (indexPackage.isEmpty() ? "" : indexPackage + ".") + "FSTGeneratedSerializerIndex";
+        }
+        int dot = indexName.lastIndexOf('.');
+        String pkg = dot < 0 ? "" : indexName.substring(0, dot);
+        String simpleName = indexName.substring(dot + 1);
+        try {
+            try (Writer w = processingEnv.getFiler().createSourceFile(indexName).openWriter()) {
+                PrintWriter out = new PrintWriter(w);
+                if (!pkg.isEmpty()) {
+                    out.println("package " + pkg + ";");
+                    out.println();
+                }
+                out.println("/**");
+                out.println(" * generated by FSTSerializerProcessor, do not edit");
+                out.println(" */");
+                out.println("public final class " + simpleName + " implements org.nustaq.serialization.FSTSerializerIndex {");
+                out.println();
+                out.println("    @Override");
+                out.println("    public void registerSerializers(org.nustaq.serialization.FSTConfiguration conf) {");
+                for (String entry : generated) {
+                    String[] split = entry.split(":");
+                    out.println("        conf.registerSerializer(" + split[0] + ".class, new " + split[1] + "(conf), false);");
+                }
+                out.println("    }");
+                out.println();
+                out.println("}");
+                out.flush();
+            }
+            try (Writer w = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "",
+                    "META-INF/services/org.nustaq.serialization.FSTSerializerIndex").openWriter()) {
+                w.write(indexName);
+                w.write("\n");
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "failed to write serializer index: " + e);
+        }
+    }
+
+    private String access(TypeElement clazz, FieldModel f) {
+        if (f.declaringClass.equals(clazz.getQualifiedName().toString())) {
+            return "obj." + f.name;
+        }
+        // might be hidden by a field of the same name in a subclass
+        return "((" + f.declaringClass + ") obj)." + f.name;
+    }
+
+    private static String infoName(FieldModel f) {
+        return "fi_" + f.declaringBinaryName.replace('.', '_').replace('$', '_') + "_" + f.name;
+    }
+
+    private static String serializerName(TypeElement clazz) {
+        StringBuilder res = new StringBuilder(clazz.getSimpleName());
+        for (Element e = clazz.getEnclosingElement(); e instanceof TypeElement; e = e.getEnclosingElement()) {
+            res.insert(0, e.getSimpleName() + "_");
+        }
+        return res.append(SERIALIZER_SUFFIX).toString();
+    }
+
+    private static String capitalize(String primitive) {
+        return Character.toUpperCase(primitive.charAt(0)) + primitive.substring(1);
+    }
+
+    private String predict(VariableElement field) {
+        AnnotationMirror ann = annotation(field, ANN_PKG + "Predict");
+        if (ann == null) {
+            return "null";
+        }
+        StringBuilder res = new StringBuilder("new Class[] {");
+        List<?> values = (List<?>) annotationValue(ann).getValue();
+        for (int i = 0; i < values.size(); i++) {
+            TypeMirror t = (TypeMirror) ((AnnotationValue) values.get(i)).getValue();
+            res.append(i > 0 ? ", " : " ").append(sourceName(processingEnv.getTypeUtils().erasure(t))).append(".class");
+        }
+        return res.append(" }").toString();
+    }
+
+    private String oneOf(VariableElement field) {
+        AnnotationMirror ann = annotation(field, ANN_PKG + "OneOf");
+        if (ann == null) {
+            return "null";
+        }
+        StringBuilder res = new StringBuilder("new String[] {");
+        List<?> values = (List<?>) annotationValue(ann).getValue();
+        for (int i = 0; i < values.size(); i++) {
+            res.append(i > 0 ? ", " : " ").append(processingEnv.getElementUtils().getConstantExpression(((AnnotationValue) values.get(i)).getValue()));
+        }
+        return res.append(" }").toString();
+    }
+
+    /////////////////////////////////////////////////////////////////////////////////////////
+    // helpers
+
+    private String simpleName(TypeMirror t) {
+        if (t.getKind() == TypeKind.ARRAY) {
+            return simpleName(((ArrayType) t).getComponentType()) + "[]";
+        }
+        if (t.getKind() == TypeKind.DECLARED) {
+            return ((DeclaredType) t).asElement().getSimpleName().toString();
+        }
+        return t.toString();
+    }
+
+    private String sourceName(TypeMirror t) {
+        if (t.getKind() == TypeKind.ARRAY) {
+            return sourceName(((ArrayType) t).getComponentType()) + "[]";
+        }
+        if (t.getKind() == TypeKind.DECLARED) {
+            return ((TypeElement) ((DeclaredType) t).asElement()).getQualifiedName().toString();
+        }
+        return t.toString();
+    }
+
+    private String erasure(TypeMirror t) {
+        return sourceName(processingEnv.getTypeUtils().erasure(t));
+    }
+
+    private TypeElement superClass(TypeElement c) {
+        TypeMirror sup = c.getSuperclass();
+        if (sup.getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+        TypeElement res = (TypeElement) ((DeclaredType) sup).asElement();
+        return res.getQualifiedName().contentEquals("java.lang.Object") ? null : res;
+    }
+
+    private String packageOf(Element e) {
+        PackageElement pkg = processingEnv.getElementUtils().getPackageOf(e);
+        return pkg.isUnnamed() ? "" : pkg.getQualifiedName().toString();
+    }
+
+    private boolean isSubtype(TypeMirror t, String superType) {
+        TypeElement sup = processingEnv.getElementUtils().getTypeElement(superType);
+        return sup != null && processingEnv.getTypeUtils().isAssignable(t, sup.asType());
+    }
+
+    private static AnnotationMirror annotation(Element e, String name) {
+        if (e == null) {
+            return null;
+        }
+        for (AnnotationMirror mirror : e.getAnnotationMirrors()) {
+            if (((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(name)) {
+                return mirror;
+            }
+        }
+        return null;
+    }
+
+    private static boolean hasAnnotation(Element e, String name) {
+        return annotation(e, name) != null;
+    }
+
+    private static AnnotationValue annotationValue(AnnotationMirror mirror) {
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : mirror.getElementValues().entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals("value")) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    private void error(Element e, String msg) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, msg, e);
+    }
+
+}
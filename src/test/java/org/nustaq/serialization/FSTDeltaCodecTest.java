@@ -0,0 +1,167 @@
+/*
+ * Copyright 2014 Ruediger Moeller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nustaq.serialization;
+
+import org.junit.Test;
+import org.nustaq.serialization.coders.FSTStreamDecoder;
+import org.nustaq.serialization.coders.FSTStreamEncoder;
+
+import java.io.ByteArrayInputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @Delta arrays are written delta encoded if ascending, else plain (see FSTDeltaCodec)
+ */
+public class FSTDeltaCodecTest {
+
+    final FSTConfiguration conf = FSTConfiguration.createDefaultConfiguration();
+
+    FSTStreamEncoder encoder() {
+        FSTStreamEncoder enc = new FSTStreamEncoder(conf);
+        enc.setOutstream(null); // allocates the buffer
+        return enc;
+    }
+
+    FSTStreamDecoder decoder(byte bytes[], int len) {
+        FSTStreamDecoder dec = new FSTStreamDecoder(conf);
+        dec.setInputStream(new ByteArrayInputStream(bytes, 0, len));
+        return dec;
+    }
+
+    /**
+     * @return the bytes written by FSTDeltaCodec
+     */
+    byte[] write(Object array) throws Exception {
+        FSTStreamEncoder enc = encoder();
+        new FSTDeltaCodec().write(enc, array);
+        byte res[] = new byte[enc.getWritten()];
+        System.arraycopy(enc.getBuffer(), 0, res, 0, res.length);
+        return res;
+    }
+
+    Object read(byte bytes[], Class type) throws Exception {
+        FSTStreamDecoder dec = decoder(bytes, bytes.length);
+        Object res = new FSTDeltaCodec().read(dec, type);
+        assertEquals("bytes left", bytes.length, dec.getInputPos());
+        return res;
+    }
+
+    /**
+     * @return PLAIN or DELTA
+     */
+    byte mode(byte bytes[]) throws Exception {
+        FSTStreamDecoder dec = decoder(bytes, bytes.length);
+        dec.readFInt();
+        return dec.readFByte();
+    }
+
+    void check(long arr[], byte expectedMode) throws Exception {
+        byte bytes[] = write(arr);
+        assertArrayEquals(arr, (long[]) read(bytes, long[].class));
+        assertEquals(expectedMode, mode(bytes));
+    }
+
+    void check(int arr[], byte expectedMode) throws Exception {
+        byte bytes[] = write(arr);
+        assertArrayEquals(arr, (int[]) read(bytes, int[].class));
+        assertEquals(expectedMode, mode(bytes));
+    }
+
+    @Test
+    public void ascending() throws Exception {
+        long timestamps[] = new long[100];
+        int ids[] = new int[100];
+        Random rnd = new Random(1);
+        for (int i = 1; i < timestamps.length; i++) {
+            timestamps[i] = timestamps[i - 1] + rnd.nextInt(1000);
+            ids[i] = ids[i - 1] + rnd.nextInt(10);
+        }
+        check(timestamps, FSTDeltaCodec.DELTA);
+        check(ids, FSTDeltaCodec.DELTA);
+        assertTrue(write(timestamps).length < timestamps.length * 2);
+        check(new long[]{-5, -5, -5, 3}, FSTDeltaCodec.DELTA); // constant and zero deltas
+        check(new int[]{Integer.MIN_VALUE + 1, 0, Integer.MAX_VALUE}, FSTDeltaCodec.DELTA);
+        check(new long[]{42}, FSTDeltaCodec.DELTA);
+    }
+
+    @Test
+    public void notAscendingFallsBackToPlain() throws Exception {
+        check(new long[]{1, 2, 3, 2, 5}, FSTDeltaCodec.PLAIN);
+        check(new int[]{10, 9}, FSTDeltaCodec.PLAIN);
+        long last[] = new long[1000];
+        for (int i = 0; i < last.length; i++) {
+            last[i] = i;
+        }
+        last[last.length - 1] = 0; // detected only at the end
+        check(last, FSTDeltaCodec.PLAIN);
+    }
+
+    @Test
+    public void overflowingDeltas() throws Exception {
+        // ascending, but the delta does not fit a long
+        check(new long[]{Long.MIN_VALUE, Long.MAX_VALUE}, FSTDeltaCodec.PLAIN);
+        check(new long[]{-1, Long.MAX_VALUE}, FSTDeltaCodec.PLAIN);
+        // largest deltas still encoded, 63 bit wide
+        check(new long[]{0, Long.MAX_VALUE}, FSTDeltaCodec.DELTA);
+        check(new long[]{Long.MIN_VALUE, -1, 0, 1, Long.MAX_VALUE}, FSTDeltaCodec.DELTA);
+        check(new long[]{0, 1, Long.MAX_VALUE - 1, Long.MAX_VALUE}, FSTDeltaCodec.DELTA);
+        // int deltas are computed as long
+        check(new int[]{Integer.MIN_VALUE, Integer.MAX_VALUE}, FSTDeltaCodec.DELTA);
+        check(new int[]{Integer.MIN_VALUE, 0, Integer.MAX_VALUE, Integer.MAX_VALUE}, FSTDeltaCodec.DELTA);
+    }
+
+    @Test
+    public void nullAndEmpty() throws Exception {
+        assertNull(read(write(null), long[].class));
+        assertNull(read(write(null), int[].class));
+        assertArrayEquals(new long[0], (long[]) read(write(new long[0]), long[].class));
+        assertArrayEquals(new int[0], (int[]) read(write(new int[0]), int[].class));
+    }
+
+    @Test
+    public void multipleBlocks() throws Exception {
+        Random rnd = new Random(2);
+        // block boundaries at 1 + n * BLOCK deltas, every block with a different bit width
+        for (int len : new int[]{FSTDeltaCodec.BLOCK, FSTDeltaCodec.BLOCK + 1, FSTDeltaCodec.BLOCK + 2, 10 * FSTDeltaCodec.BLOCK + 7}) {
+            long longs[] = new long[len];
+            int ints[] = new int[len];
+            for (int i = 1; i < len; i++) {
+                final int block = (i - 1) / FSTDeltaCodec.BLOCK;
+                longs[i] = longs[i - 1] + (rnd.nextLong() >>> (10 + block * 5));
+                ints[i] = ints[i - 1] + rnd.nextInt(1 << block);
+            }
+            check(longs, FSTDeltaCodec.DELTA);
+            check(ints, FSTDeltaCodec.DELTA);
+        }
+        // one codec instance reuses its block buffers across arrays
+        FSTStreamEncoder enc = encoder();
+        FSTDeltaCodec codec = new FSTDeltaCodec();
+        long wide[] = {0, 1L << 40, 1L << 41};
+        long narrow[] = {0, 1, 2, 3};
+        codec.write(enc, wide);
+        codec.write(enc, narrow);
+        FSTStreamDecoder dec = decoder(enc.getBuffer(), enc.getWritten());
+        FSTDeltaCodec readCodec = new FSTDeltaCodec();
+        assertArrayEquals(wide, (long[]) readCodec.read(dec, long[].class));
+        assertArrayEquals(narrow, (long[]) readCodec.read(dec, long[].class));
+    }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2014 Ruediger Moeller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nustaq.serialization.coders;
+
+import org.junit.Test;
+import org.nustaq.serialization.FSTConfiguration;
+import org.nustaq.serialization.util.FSTStringCache;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * FSTByteBufferEncoder/FSTByteBufferDecoder on a heap buffer, the stream does not start at position 0
+ */
+public class FSTByteBufferCodecTest extends FSTCodecConformanceTest {
+
+    static final int OFFSET = 3;
+
+    private ByteBuffer buffer;
+
+    protected ByteBuffer allocate(int size) {
+        return ByteBuffer.allocate(size);
+    }
+
+    @Override
+    protected Object roundTrip(FSTConfiguration conf, Object obj) throws Exception {
+        if (buffer == null) {
+            buffer = allocate(4 * 1024 * 1024);
+        }
+        buffer.clear();
+        buffer.position(OFFSET);
+        conf.getByteBufferOutput(buffer).writeObject(obj);
+        buffer.flip();
+        buffer.position(OFFSET);
+        Object res = conf.getByteBufferInput(buffer).readObject();
+        assertEquals("bytes left", 0, buffer.remaining());
+        return res;
+    }
+
+    @Test
+    public void closedStreamsAreReplaced() throws Exception {
+        FSTConfiguration conf = createConfiguration();
+        roundTrip(conf, "before");
+        buffer.position(OFFSET);
+        conf.getByteBufferOutput(buffer).close();
+        buffer.position(OFFSET);
+        conf.getByteBufferInput(buffer).close();
+        assertEquals("after", roundTrip(conf, "after"));
+    }
+
+    @Test
+    public void stringCacheIsUsed() throws Exception {
+        FSTStringCache cache = new FSTStringCache(256, 32);
+        FSTConfiguration conf = createConfiguration().setStringCache(cache);
+        conf.setShareReferences(false);
+        String first[] = (String[]) roundTrip(conf, new String[]{"cached", "\u20ac not cached"});
+        String second[] = (String[]) roundTrip(conf, new String[]{"cached", "\u20ac not cached"});
+        assertSame(first[0], second[0]);
+        assertEquals("\u20ac not cached", second[1]);
+        assertTrue(cache.getHits() > 0);
+    }
+
+}
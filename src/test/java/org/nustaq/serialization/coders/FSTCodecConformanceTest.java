@@ -0,0 +1,660 @@
+/*
+ * Copyright 2014 Ruediger Moeller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nustaq.serialization.coders;
+
+import org.junit.Test;
+import org.nustaq.serialization.FSTConfiguration;
+import org.nustaq.serialization.annotations.Delta;
+import org.nustaq.serialization.annotations.Shared;
+import org.nustaq.serialization.util.FSTStringCache;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round trip cases any FSTEncoder/FSTDecoder pair has to pass. Subclasses define how an object is written and read
+ * (roundTrip), each case is run with every configuration variant (see VARIANTS).
+ * <p>
+ * To check a codec installed using FSTConfiguration.setStreamCoderFactory, extend this and override
+ * createConfiguration to install the factory.
+ */
+public abstract class FSTCodecConformanceTest {
+
+    /**
+     * a configuration setting, cases run once per variant
+     */
+    protected static abstract class Variant {
+        final String name;
+
+        protected Variant(String name) {
+            this.name = name;
+        }
+
+        protected abstract void apply(FSTConfiguration conf);
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    protected static final List<Variant> VARIANTS = new ArrayList<>();
+
+    static {
+        VARIANTS.add(new Variant("default") {
+            protected void apply(FSTConfiguration conf) {
+            }
+        });
+        VARIANTS.add(new Variant("unshared") {
+            protected void apply(FSTConfiguration conf) {
+                conf.setShareReferences(false);
+            }
+        });
+        VARIANTS.add(new Variant("unshared cycleSafe") {
+            protected void apply(FSTConfiguration conf) {
+                conf.setShareReferences(false);
+                conf.setCycleSafe(true);
+            }
+        });
+        VARIANTS.add(new Variant("sequentialHandles") {
+            protected void apply(FSTConfiguration conf) {
+                conf.setSequentialHandles(true);
+            }
+        });
+        VARIANTS.add(new Variant("compiledFieldAccess iterativeTraversal autoFlat") {
+            protected void apply(FSTConfiguration conf) {
+                conf.setCompiledFieldAccess(true).setIterativeTraversal(true).setAutoFlat(true);
+            }
+        });
+        VARIANTS.add(new Variant("strings") {
+            protected void apply(FSTConfiguration conf) {
+                conf.setStringTableSize(64).registerStrings("alpha", "beta").setStringCache(new FSTStringCache(256, 32));
+            }
+        });
+        VARIANTS.add(new Variant("homogeneousCollections") {
+            protected void apply(FSTConfiguration conf) {
+                conf.setHomogeneousCollections(true);
+            }
+        });
+        VARIANTS.add(new Variant("compressPrimitiveArrays") {
+            protected void apply(FSTConfiguration conf) {
+                conf.setCompressPrimitiveArrays(true);
+            }
+        });
+        VARIANTS.add(new Variant("compressFloatingArrays") {
+            protected void apply(FSTConfiguration conf) {
+                conf.setCompressFloatingArrays(true);
+            }
+        });
+        VARIANTS.add(new Variant("packBooleanArrays") {
+            protected void apply(FSTConfiguration conf) {
+                conf.setPackBooleanArrays(true);
+            }
+        });
+    }
+
+    /**
+     * @return a new configuration using the codec under test, variants are applied to it
+     */
+    protected FSTConfiguration createConfiguration() {
+        return FSTConfiguration.createDefaultConfiguration();
+    }
+
+    /**
+     * write the given object and read it back using the codec under test
+     */
+    protected abstract Object roundTrip(FSTConfiguration conf, Object obj) throws Exception;
+
+    @Test
+    public void primitives() throws Exception {
+        check(new Object[]{
+            null, 0, -1, 127, -128, 128, Short.MIN_VALUE, Short.MAX_VALUE + 1, Integer.MIN_VALUE, Integer.MAX_VALUE,
+            0L, -126L, Long.MIN_VALUE, Long.MAX_VALUE, (byte) -1, (short) 255, (short) -1, 'a', (char) 255, '\uffff',
+            0f, -0f, Float.NaN, Float.MIN_VALUE, 0d, -0d, Double.NaN, Double.MAX_VALUE, true, false
+        });
+    }
+
+    @Test
+    public void strings() throws Exception {
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            large.append((char) (i % 300));
+        }
+        check(new Object[]{
+            "", "a", "ascii only", "latin1 \u00e4\u00f6\u00fc\u00fe", "escape \u00ff\u00ff", "unicode \u20ac\u4e2d\ud83d\ude00",
+            large.toString(), "alpha", "beta", "alpha", new String("beta")
+        });
+    }
+
+    @Test
+    public void escapeBoundaries() throws Exception {
+        // 254 is the largest char written as is, 255 is the escape marker itself
+        StringBuilder prefix = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            prefix.append((char) (i % 255));
+        }
+        List<String> strings = new ArrayList<>();
+        for (char c : new char[]{254, 255, 256}) {
+            strings.add(String.valueOf(c));
+            strings.add(c + "start");
+            strings.add("mid" + c + "dle");
+            strings.add("end" + c);
+            strings.add("" + c + c + c);
+            strings.add(prefix.toString() + c); // escape after a long plain run
+            strings.add(prefix.toString() + c + prefix + c + "tail"); // plain again after an escape
+        }
+        check(strings.toArray());
+    }
+
+    @Test
+    public void primitiveArrays() throws Exception {
+        Random rnd = new Random(7);
+        for (int len : new int[]{0, 1, 2, 7, 8, 9, 1000, 100000}) {
+            boolean bools[] = new boolean[len];
+            byte bytes[] = new byte[len];
+            char chars[] = new char[len];
+            short smallShorts[] = new short[len], shorts[] = new short[len];
+            int smallInts[] = new int[len], ints[] = new int[len];
+            long smallLongs[] = new long[len], longs[] = new long[len];
+            float series[] = new float[len], floats[] = new float[len];
+            double prices[] = new double[len], doubles[] = new double[len];
+            for (int i = 0; i < len; i++) {
+                bools[i] = rnd.nextInt(3) == 0;
+                bytes[i] = (byte) rnd.nextInt();
+                chars[i] = (char) rnd.nextInt(0x3000);
+                smallShorts[i] = (short) (rnd.nextInt(200) - 100);
+                shorts[i] = (short) rnd.nextInt();
+                smallInts[i] = i - len / 2;
+                ints[i] = rnd.nextInt();
+                smallLongs[i] = 1500000000000L + i * 10;
+                longs[i] = rnd.nextLong();
+                series[i] = i / 4;
+                floats[i] = rnd.nextFloat();
+                prices[i] = 100.25 + (i / 3) * 0.25;
+                doubles[i] = rnd.nextDouble();
+            }
+            check(bools);
+            check(bytes);
+            check(chars);
+            check(smallShorts);
+            check(shorts);
+            check(smallInts);
+            check(ints);
+            check(smallLongs);
+            check(longs);
+            check(series);
+            check(floats);
+            check(prices);
+            check(doubles);
+        }
+        check(new int[]{Integer.MIN_VALUE, Integer.MAX_VALUE, 0, -1});
+        check(new long[]{Long.MIN_VALUE, Long.MAX_VALUE, 0, -1});
+        check(new short[]{Short.MIN_VALUE, Short.MAX_VALUE, 0, -1, 254, 255});
+        check(new double[]{Double.NaN, -0d, Double.POSITIVE_INFINITY, Double.MIN_VALUE, 0d, 0d});
+        check(new float[]{Float.NaN, -0f, Float.NEGATIVE_INFINITY, Float.MIN_VALUE, 0f, 0f});
+        check(new int[][]{{1, 2}, null, {}, {3}});
+    }
+
+    @Test
+    public void objects() throws Exception {
+        check(new Pojo(1));
+        check(new Pojo[]{new Pojo(1), null, new Pojo(2)});
+        check(Kind.B);
+        check(new ExternalizableObject("ext", 42));
+        check(new CompatibleObject("compatible", 43));
+        check(Pojo.class);
+    }
+
+    @Test
+    public void deltaFields() throws Exception {
+        long ascending[] = new long[1000];
+        int ids[] = new int[300];
+        for (int i = 1; i < ascending.length; i++) {
+            ascending[i] = ascending[i - 1] + i % 17;
+        }
+        for (int i = 1; i < ids.length; i++) {
+            ids[i] = ids[i - 1] + (i % 5 == 0 ? 100000 : 1);
+        }
+        check(new DeltaArrays(ascending, ids));
+        check(new DeltaArrays(new long[]{5, 4, 3}, new int[]{Integer.MAX_VALUE, Integer.MIN_VALUE}));
+        check(new DeltaArrays(new long[]{Long.MIN_VALUE, Long.MAX_VALUE}, new int[]{Integer.MIN_VALUE, Integer.MAX_VALUE}));
+        check(new DeltaArrays(null, new int[0]));
+        check(new DeltaArrays(new long[0], null));
+    }
+
+    @Test
+    public void collections() throws Exception {
+        List<Object> list = new ArrayList<>();
+        List<Pojo> pojos = new ArrayList<>();
+        Map<String, Object> map = new HashMap<>();
+        for (int i = 0; i < 50; i++) {
+            list.add(i % 3 == 0 ? "s" + i : (i % 3 == 1 ? new Pojo(i) : i));
+            pojos.add(new Pojo(i));
+            map.put("key" + i, i % 2 == 0 ? new Pojo(i) : "value" + i);
+        }
+        pojos.add(null);
+        check(list);
+        check(pojos);
+        check(new LinkedList<>(pojos));
+        check(map);
+        check(new TreeMap<>(map));
+        check(new HashSet<>(Arrays.asList("alpha", "beta", "gamma")));
+        check(new ArrayList<>());
+        // non String keys and values each sharing one class, with null values (written homogeneous if enabled)
+        Map<Pojo, Double> both = new HashMap<>();
+        Map<Pojo, Object> keysOnly = new HashMap<>();
+        Map<Object, Pojo> valuesOnly = new HashMap<>();
+        for (int i = 0; i < 20; i++) {
+            both.put(new Pojo(i), i % 4 == 0 ? null : i / 3d);
+            keysOnly.put(new Pojo(i), i % 3 == 0 ? null : (i % 3 == 1 ? "value" + i : i));
+            valuesOnly.put(i % 2 == 0 ? "key" + i : i, i % 5 == 0 ? null : new Pojo(i));
+        }
+        both.put(null, 1d);
+        valuesOnly.put(null, new Pojo(99));
+        check(both);
+        check(keysOnly);
+        check(valuesOnly);
+        TreeMap<Double, Pojo> sorted = new TreeMap<>();
+        sorted.put(1.5d, null);
+        sorted.put(2.5d, new Pojo(2));
+        sorted.put(3.5d, new Pojo(3));
+        check(sorted);
+        FSTConfiguration homogeneous = FSTConfiguration.createDefaultConfiguration().setHomogeneousCollections(true);
+        assertTrue("class names written once", homogeneous.asByteArray(both).length < FSTConfiguration.createDefaultConfiguration().asByteArray(both).length);
+    }
+
+    @Test
+    public void sharedReferences() throws Exception {
+        for (Variant variant : VARIANTS) {
+            FSTConfiguration conf = configuration(variant);
+            Pojo shared = new Pojo(5);
+            Pojo pair[] = {shared, shared};
+            Pojo read[] = (Pojo[]) roundTrip(conf, pair);
+            assertEquals(variant.name, shared, read[0]);
+            assertEquals(variant.name, shared, read[1]);
+            if (conf.isShareReferences()) {
+                assertSame(variant.name, read[0], read[1]);
+            }
+            if (conf.isShareReferences() || conf.isCycleSafe()) {
+                Node a = new Node("a");
+                a.next = new Node("b");
+                a.next.next = a;
+                Node readNode = (Node) roundTrip(conf, a);
+                assertEquals(variant.name, "b", readNode.next.name);
+                assertSame(variant.name, readNode, readNode.next.next);
+            }
+        }
+    }
+
+    @Test
+    public void autoFlatIdentity() throws Exception {
+        Quote quote = new Quote("FST", 1.5, 42);
+        SharedQuote sharedQuote = new SharedQuote("FST", 2.5);
+        for (boolean autoFlat : new boolean[]{false, true}) {
+            FSTConfiguration conf = createConfiguration().setAutoFlat(autoFlat);
+            Quotes quotes = new Quotes(quote, sharedQuote);
+            Quotes read = (Quotes) roundTrip(conf, quotes);
+            assertEquals(quote, read.first);
+            assertEquals(quote, read.second);
+            if (autoFlat) {
+                assertNotSame("value types are written per reference", read.first, read.second);
+            } else {
+                assertSame(read.first, read.second);
+            }
+            assertSame("@Shared keeps identity", read.firstShared, read.secondShared);
+            assertEquals(sharedQuote.symbol, read.firstShared.symbol);
+            assertSame("handles after flat objects", read, read.self);
+        }
+    }
+
+    @Test
+    public void deepGraph() throws Exception {
+        Node head = new Node("0");
+        Node n = head;
+        for (int i = 1; i < 300; i++) {
+            n.next = new Node(String.valueOf(i));
+            n = n.next;
+        }
+        for (Variant variant : VARIANTS) {
+            Node read = (Node) roundTrip(configuration(variant), head);
+            int count = 0;
+            for (; read != null; read = read.next) {
+                assertEquals(variant.name, String.valueOf(count++), read.name);
+            }
+            assertEquals(variant.name, 300, count);
+        }
+    }
+
+    @Test
+    public void veryDeepGraph() throws Exception {
+        // deep enough to overflow the thread stack when written recursively
+        final int length = 200000;
+        Node head = new Node("0");
+        Node n = head;
+        for (int i = 1; i < length; i++) {
+            n.next = new Node(String.valueOf(i));
+            n = n.next;
+        }
+        try {
+            roundTrip(configuration(VARIANTS.get(0)), head);
+            fail("recursive traversal did not overflow the stack");
+        } catch (Throwable e) {
+            Throwable cause = e;
+            while (cause != null && !(cause instanceof StackOverflowError)) {
+                cause = cause.getCause();
+            }
+            assertNotNull("expected a StackOverflowError, got " + e, cause);
+        }
+        for (boolean shared : new boolean[]{true, false}) {
+            FSTConfiguration conf = createConfiguration().setIterativeTraversal(true);
+            conf.setShareReferences(shared);
+            Node read = (Node) roundTrip(conf, head);
+            int count = 0;
+            for (; read != null; read = read.next) {
+                assertEquals(String.valueOf(count++), read.name);
+            }
+            assertEquals(length, count);
+        }
+    }
+
+    private final Map<Variant, FSTConfiguration> configurations = new HashMap<>();
+
+    /**
+     * @return the configuration of the given variant, created once per test
+     */
+    protected FSTConfiguration configuration(Variant variant) {
+        FSTConfiguration conf = configurations.get(variant);
+        if (conf == null) {
+            conf = createConfiguration();
+            variant.apply(conf);
+            configurations.put(variant, conf);
+        }
+        return conf;
+    }
+
+    /**
+     * round trip the given object with each variant, the result has to equal the original (arrays by content)
+     */
+    protected void check(Object obj) throws Exception {
+        for (Variant variant : VARIANTS) {
+            Object read = roundTrip(configuration(variant), obj);
+            if (!Arrays.deepEquals(new Object[]{obj}, new Object[]{read})) {
+                fail(variant.name + ": " + describe(obj) + " read as " + describe(read));
+            }
+        }
+    }
+
+    static String describe(Object obj) {
+        String res = obj == null ? "null" : (obj.getClass().isArray() ? Arrays.deepToString(new Object[]{obj}) : obj.toString());
+        return res.length() > 200 ? res.substring(0, 200) + ".." : res;
+    }
+
+    public enum Kind {
+        A, B
+    }
+
+    public static class Pojo implements Serializable {
+        boolean flag;
+        byte b;
+        char c;
+        short s;
+        int i;
+        long l;
+        float f;
+        double d;
+        String str;
+        Kind kind;
+        Integer boxed;
+        int ints[];
+        Object any;
+
+        public Pojo() {
+        }
+
+        Pojo(int seed) {
+            flag = seed % 2 == 0;
+            b = (byte) seed;
+            c = (char) (seed * 1000);
+            s = (short) -seed;
+            i = seed * 100000;
+            l = seed * 10000000000L;
+            f = seed / 3f;
+            d = seed / 7d;
+            str = seed % 4 == 0 ? null : "pojo" + seed;
+            kind = Kind.values()[seed % 2];
+            boxed = seed;
+            ints = new int[]{seed, -seed};
+            any = seed % 3 == 0 ? "any" : new int[]{seed};
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Pojo)) {
+                return false;
+            }
+            Pojo p = (Pojo) o;
+            return flag == p.flag && b == p.b && c == p.c && s == p.s && i == p.i && l == p.l
+                && Float.compare(f, p.f) == 0 && Double.compare(d, p.d) == 0 && kind == p.kind
+                && (str == null ? p.str == null : str.equals(p.str)) && boxed.equals(p.boxed)
+                && Arrays.equals(ints, p.ints) && Arrays.deepEquals(new Object[]{any}, new Object[]{p.any});
+        }
+
+        @Override
+        public int hashCode() {
+            return i;
+        }
+
+        @Override
+        public String toString() {
+            return "Pojo" + i;
+        }
+    }
+
+    public static class Node implements Serializable {
+        String name;
+        Node next;
+
+        public Node() {
+        }
+
+        Node(String name) {
+            this.name = name;
+        }
+    }
+
+    public static class ExternalizableObject implements Externalizable {
+        String name;
+        int value;
+
+        public ExternalizableObject() {
+        }
+
+        ExternalizableObject(String name, int value) {
+            this.name = name;
+            this.value = value;
+        }
+
+        @Override
+        public void writeExternal(ObjectOutput out) throws IOException {
+            out.writeUTF(name);
+            out.writeInt(value);
+        }
+
+        @Override
+        public void readExternal(ObjectInput in) throws IOException {
+            name = in.readUTF();
+            value = in.readInt();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ExternalizableObject && ((ExternalizableObject) o).name.equals(name) && ((ExternalizableObject) o).value == value;
+        }
+
+        @Override
+        public int hashCode() {
+            return value;
+        }
+    }
+
+    /**
+     * a value type, flat if autoFlat is enabled
+     */
+    public static final class Quote implements Serializable {
+        String symbol;
+        double price;
+        long time;
+
+        public Quote() {
+        }
+
+        Quote(String symbol, double price, long time) {
+            this.symbol = symbol;
+            this.price = price;
+            this.time = time;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Quote)) {
+                return false;
+            }
+            Quote q = (Quote) o;
+            return symbol.equals(q.symbol) && Double.compare(price, q.price) == 0 && time == q.time;
+        }
+
+        @Override
+        public int hashCode() {
+            return symbol.hashCode();
+        }
+    }
+
+    @Shared
+    public static final class SharedQuote implements Serializable {
+        String symbol;
+        double price;
+
+        public SharedQuote() {
+        }
+
+        SharedQuote(String symbol, double price) {
+            this.symbol = symbol;
+            this.price = price;
+        }
+    }
+
+    public static class Quotes implements Serializable {
+        Quote first;
+        SharedQuote firstShared;
+        Quote second;
+        SharedQuote secondShared;
+        Quotes self;
+
+        public Quotes() {
+        }
+
+        Quotes(Quote quote, SharedQuote sharedQuote) {
+            first = second = quote;
+            firstShared = secondShared = sharedQuote;
+            self = this;
+        }
+    }
+
+    public static class DeltaArrays implements Serializable {
+        @Delta
+        long timestamps[];
+        @Delta
+        int ids[];
+        String after = "after";
+
+        public DeltaArrays() {
+        }
+
+        DeltaArrays(long timestamps[], int ids[]) {
+            this.timestamps = timestamps;
+            this.ids = ids;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof DeltaArrays)) {
+                return false;
+            }
+            DeltaArrays d = (DeltaArrays) o;
+            return Arrays.equals(timestamps, d.timestamps) && Arrays.equals(ids, d.ids) && after.equals(d.after);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(ids);
+        }
+
+        @Override
+        public String toString() {
+            return "DeltaArrays" + Arrays.toString(ids);
+        }
+    }
+
+    public static class CompatibleObject implements Serializable {
+        String name;
+        transient int value;
+
+        public CompatibleObject() {
+        }
+
+        CompatibleObject(String name, int value) {
+            this.name = name;
+            this.value = value;
+        }
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            out.defaultWriteObject();
+            out.writeInt(value);
+        }
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            value = in.readInt();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof CompatibleObject && ((CompatibleObject) o).name.equals(name) && ((CompatibleObject) o).value == value;
+        }
+
+        @Override
+        public int hashCode() {
+            return value;
+        }
+    }
+
+}
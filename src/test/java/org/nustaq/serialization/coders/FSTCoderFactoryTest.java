@@ -0,0 +1,79 @@
+/*
+ * Copyright 2014 Ruediger Moeller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nustaq.serialization.coders;
+
+import org.nustaq.serialization.FSTConfiguration;
+import org.nustaq.serialization.FSTDecoder;
+import org.nustaq.serialization.FSTEncoder;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * a codec installed using FSTConfiguration.setStreamCoderFactory is used by the streams of the configuration
+ */
+public class FSTCoderFactoryTest extends FSTCodecConformanceTest {
+
+    static class CountingCoderFactory implements FSTConfiguration.StreamCoderFactory {
+        final FSTConfiguration conf;
+        final ThreadLocal input = new ThreadLocal();
+        final ThreadLocal output = new ThreadLocal();
+        int encoders;
+        int decoders;
+
+        CountingCoderFactory(FSTConfiguration conf) {
+            this.conf = conf;
+        }
+
+        @Override
+        public FSTEncoder createStreamEncoder() {
+            encoders++;
+            return new FSTStreamEncoder(conf) {
+            };
+        }
+
+        @Override
+        public FSTDecoder createStreamDecoder() {
+            decoders++;
+            return new FSTStreamDecoder(conf) {
+            };
+        }
+
+        @Override
+        public ThreadLocal getInput() {
+            return input;
+        }
+
+        @Override
+        public ThreadLocal getOutput() {
+            return output;
+        }
+    }
+
+    @Override
+    protected FSTConfiguration createConfiguration() {
+        FSTConfiguration conf = super.createConfiguration();
+        return conf.setStreamCoderFactory(new CountingCoderFactory(conf));
+    }
+
+    @Override
+    protected Object roundTrip(FSTConfiguration conf, Object obj) throws Exception {
+        Object res = conf.asObject(conf.asByteArray(obj));
+        CountingCoderFactory factory = (CountingCoderFactory) conf.getStreamCoderFactory();
+        assertTrue(factory.encoders > 0 && factory.decoders > 0);
+        return res;
+    }
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2014 Ruediger Moeller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nustaq.serialization.coders;
+
+import org.nustaq.serialization.FSTConfiguration;
+import org.nustaq.serialization.FSTFramedReader;
+import org.nustaq.serialization.FSTFramedWriter;
+import org.nustaq.serialization.FSTObjectOutput;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * the stream and ByteBuffer codecs write identical bytes and read each other's streams, including as frames
+ * of FSTFramedReader
+ */
+public class FSTCrossCodecTest extends FSTCodecConformanceTest {
+
+    private ByteBuffer buffer;
+
+    @Override
+    protected Object roundTrip(FSTConfiguration conf, Object obj) throws Exception {
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(4 * 1024 * 1024);
+        }
+        byte streamBytes[] = conf.asByteArray(obj);
+        buffer.clear();
+        conf.getByteBufferOutput(buffer).writeObject(obj);
+        buffer.flip();
+        byte bufferBytes[] = new byte[buffer.remaining()];
+        buffer.get(bufferBytes);
+        assertArrayEquals(streamBytes, bufferBytes);
+
+        // stream -> buffer decoder -> buffer encoder -> framed reader -> stream encoder -> stream decoder
+        buffer.clear();
+        buffer.put(streamBytes);
+        buffer.flip();
+        Object read = conf.getByteBufferInput(buffer).readObject();
+        assertEquals("bytes left", 0, buffer.remaining());
+        buffer.clear();
+        FSTObjectOutput out = conf.getByteBufferOutput(buffer);
+        buffer.position(FSTFramedWriter.HEADER_SIZE); // stream positions stay relative to the frame start
+        out.writeObject(read);
+        buffer.putInt(0, buffer.position() - FSTFramedWriter.HEADER_SIZE);
+        buffer.flip();
+        byte frame[] = new byte[buffer.remaining()];
+        buffer.get(frame);
+        FSTFramedReader reader = new FSTFramedReader(conf);
+        reader.received(frame, 0, frame.length);
+        read = reader.readFrame();
+        assertEquals("bytes left", 0, reader.available());
+        return conf.asObject(conf.asByteArray(read));
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014 Ruediger Moeller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nustaq.serialization.coders;
+
+import org.junit.Test;
+import org.nustaq.serialization.FSTConfiguration;
+import org.nustaq.serialization.FSTFramedReader;
+import org.nustaq.serialization.FSTFramedWriter;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * FSTFramedWriter (stream encoder) to FSTFramedReader (ByteBuffer decoder), two frames per round trip received
+ * in pieces
+ */
+public class FSTFramedCodecTest extends FSTCodecConformanceTest {
+
+    @Override
+    protected Object roundTrip(FSTConfiguration conf, Object obj) throws Exception {
+        FSTFramedWriter writer = new FSTFramedWriter(conf);
+        FSTFramedReader reader = new FSTFramedReader(conf, 64);
+        int len = writer.writeFrame(obj);
+        byte frame[] = new byte[len];
+        System.arraycopy(writer.getBuffer(), 0, frame, 0, len);
+        assertEquals(len, writer.writeFrame(obj));
+
+        reader.received(frame, 0, len - 1);
+        assertFalse(reader.hasFrame());
+        reader.received(frame, len - 1, 1);
+        reader.received(writer.getBuffer(), 0, len);
+        assertTrue(reader.hasFrame());
+        Object first = reader.readFrame();
+        Object second = reader.readFrame();
+        assertEquals(0, reader.available());
+        assertArrayEquals(conf.asByteArray(first), conf.asByteArray(second));
+        return second;
+    }
+
+    @Test
+    public void corruptHeaderIsRejected() throws Exception {
+        FSTConfiguration conf = createConfiguration();
+        for (int len : new int[]{-1, Integer.MIN_VALUE, 1025}) {
+            FSTFramedReader reader = new FSTFramedReader(conf);
+            reader.setMaxFrameSize(1024);
+            reader.received(new byte[]{(byte) len, (byte) (len >>> 8), (byte) (len >>> 16), (byte) (len >>> 24), 0}, 0, 5);
+            try {
+                reader.hasFrame();
+                fail("accepted frame length " + len);
+            } catch (IOException e) {
+                // expected
+            }
+            try {
+                reader.readFrame();
+                fail("read frame length " + len);
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void sessionModeWritesClassNamesOnce() throws Exception {
+        FSTConfiguration conf = createConfiguration();
+        FSTFramedWriter writer = new FSTFramedWriter(conf);
+        FSTFramedReader reader = new FSTFramedReader(conf);
+        writer.setSessionMode(true);
+        reader.setSessionMode(true);
+        int first = writer.writeFrame(new Pojo());
+        reader.received(writer.getBuffer(), 0, first);
+        int second = writer.writeFrame(new Pojo());
+        reader.received(writer.getBuffer(), 0, second);
+        assertTrue(second < first);
+        assertNotNull(reader.readFrame());
+        assertEquals(Pojo.class, reader.readFrame().getClass());
+    }
+
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2014 Ruediger Moeller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nustaq.serialization.coders;
+
+import org.nustaq.serialization.FSTConfiguration;
+import org.nustaq.serialization.FSTObjectOutput;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * FSTStreamEncoder/FSTStreamDecoder writing to/reading from byte arrays and streams
+ */
+public class FSTStreamCodecTest extends FSTCodecConformanceTest {
+
+    @Override
+    protected Object roundTrip(FSTConfiguration conf, Object obj) throws Exception {
+        byte bytes[] = conf.asByteArray(obj);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        FSTObjectOutput out = conf.getObjectOutput(stream);
+        out.writeObject(obj);
+        out.flush();
+        assertArrayEquals(bytes, stream.toByteArray());
+        return conf.getObjectInput(new ByteArrayInputStream(bytes)).readObject();
+    }
+
+}
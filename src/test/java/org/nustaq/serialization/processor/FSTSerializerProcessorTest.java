@@ -0,0 +1,256 @@
+/*
+ * Copyright 2014 Ruediger Moeller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nustaq.serialization.processor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nustaq.serialization.FSTConfiguration;
+import org.nustaq.serialization.FSTSerializerIndex;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.lang.reflect.Field;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs FSTSerializerProcessor on fixture sources and checks the generated serializers write the same bytes as the
+ * reflective default serialization, in both directions.
+ */
+public class FSTSerializerProcessorTest {
+
+    static final String BASE =
+        "package fixture;\n" +
+        "public class Base implements java.io.Serializable {\n" +
+        "    private static final long serialVersionUID = 1L;\n" +
+        "    protected int id;\n" +
+        "    public String name;\n" +
+        "    boolean active;\n" +
+        "}\n";
+
+    static final String MIXED =
+        "package fixture;\n" +
+        "@org.nustaq.serialization.annotations.Precompile\n" +
+        "public class Mixed extends Base {\n" +
+        "    private static final long serialVersionUID = 1L;\n" +
+        "    public boolean a, b, c;\n" +
+        "    public byte by;\n" +
+        "    public char ch;\n" +
+        "    public short sh;\n" +
+        "    public int i;\n" +
+        "    public long l;\n" +
+        "    public float f;\n" +
+        "    public double d;\n" +
+        "    public String s;\n" +
+        "    public Object any;\n" +
+        "    public java.util.List<String> list;\n" +
+        "    public java.util.Map<String, Integer> map;\n" +
+        "    public int[] ints;\n" +
+        "    public Base other;\n" +
+        "    public transient int skipped;\n" +
+        "}\n";
+
+    static final String TRANSIENT_BASE =
+        "package fixture;\n" +
+        "@org.nustaq.serialization.annotations.Transient\n" +
+        "public class TransientBase implements java.io.Serializable {\n" +
+        "    public int hidden;\n" +
+        "    @org.nustaq.serialization.annotations.Serialize\n" +
+        "    public int shown;\n" +
+        "}\n";
+
+    static final String TRANSIENT_SUB =
+        "package fixture;\n" +
+        "@org.nustaq.serialization.annotations.Precompile\n" +
+        "public class TransientSub extends TransientBase {\n" +
+        "    public int dropped;\n" +
+        "    @org.nustaq.serialization.annotations.Serialize\n" +
+        "    public String kept;\n" +
+        "}\n";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void generatedAndReflectiveStreamsAreIdentical() throws Exception {
+        ClassLoader loader = compile(source("fixture.Base", BASE), source("fixture.Mixed", MIXED));
+        Class<?> baseClass = loader.loadClass("fixture.Base");
+        Class<?> mixedClass = loader.loadClass("fixture.Mixed");
+
+        Object other = baseClass.newInstance();
+        set(other, "id", 7);
+        set(other, "name", "other");
+        Object obj = mixedClass.newInstance();
+        set(obj, "id", 42);
+        set(obj, "name", "mixed");
+        set(obj, "active", true);
+        set(obj, "a", true);
+        set(obj, "c", true);
+        set(obj, "by", (byte) -3);
+        set(obj, "ch", '\u20ac');
+        set(obj, "sh", (short) 1000);
+        set(obj, "i", -100000);
+        set(obj, "l", Long.MAX_VALUE);
+        set(obj, "f", 1.5f);
+        set(obj, "d", Math.PI);
+        set(obj, "s", "string");
+        set(obj, "any", 17);
+        set(obj, "list", new ArrayList<>(Arrays.asList("x", "y")));
+        Map<String, Integer> map = new HashMap<>();
+        map.put("k", 1);
+        set(obj, "map", map);
+        set(obj, "ints", new int[]{1, 2, 3});
+        set(obj, "other", other);
+        set(obj, "skipped", 99);
+
+        Object read = assertSameStreams(loader, obj, baseClass, mixedClass);
+        assertEquals(mixedClass, read.getClass());
+        assertEquals(0, get(read, "skipped"));
+        assertEquals("other", get(get(read, "other"), "name"));
+    }
+
+    @Test
+    public void transientSuperclassDropsSubclassFields() throws Exception {
+        ClassLoader loader = compile(source("fixture.TransientBase", TRANSIENT_BASE), source("fixture.TransientSub", TRANSIENT_SUB));
+        Class<?> subClass = loader.loadClass("fixture.TransientSub");
+        Object obj = subClass.newInstance();
+        set(obj, "hidden", 1);
+        set(obj, "shown", 2);
+        set(obj, "dropped", 3);
+        set(obj, "kept", "kept");
+
+        Object read = assertSameStreams(loader, obj, subClass);
+        assertEquals(0, get(read, "hidden"));
+        assertEquals(2, get(read, "shown"));
+        assertEquals(0, get(read, "dropped"));
+        assertEquals("kept", get(read, "kept"));
+    }
+
+    /**
+     * asserts obj is written identically with and without the generated serializers, and each side decodes the
+     * other's stream
+     *
+     * @return obj as read by the generated serializers from the reflective stream
+     */
+    static Object assertSameStreams(ClassLoader loader, Object obj, Class... classes) throws Exception {
+        FSTConfiguration reflective = FSTConfiguration.createDefaultConfiguration();
+        reflective.registerClass(classes);
+        FSTConfiguration generated = FSTConfiguration.createDefaultConfiguration();
+        ((FSTSerializerIndex) loader.loadClass("fixture.FSTGeneratedSerializerIndex").newInstance()).registerSerializers(generated);
+        generated.registerClass(classes);
+
+        byte reflectiveBytes[] = reflective.asByteArray(obj);
+        byte generatedBytes[] = generated.asByteArray(obj);
+        assertArrayEquals(reflectiveBytes, generatedBytes);
+        assertArrayEquals(reflectiveBytes, reflective.asByteArray(generated.asObject(reflectiveBytes)));
+        assertArrayEquals(generatedBytes, generated.asByteArray(reflective.asObject(generatedBytes)));
+        return generated.asObject(reflectiveBytes);
+    }
+
+    @Test
+    public void deltaFieldsAreRejected() throws Exception {
+        String delta =
+            "package fixture;\n" +
+            "@org.nustaq.serialization.annotations.Precompile\n" +
+            "public class WithDelta implements java.io.Serializable {\n" +
+            "    @org.nustaq.serialization.annotations.Delta\n" +
+            "    public long[] ticks;\n" +
+            "}\n";
+        List<String> messages = new ArrayList<>();
+        assertFalse(compile(tmp.newFolder("classes"), messages, source("fixture.WithDelta", delta)));
+        assertTrue(messages.toString(), messages.toString().contains("@Precompile does not support @Delta fields"));
+    }
+
+    /**
+     * compiles the given sources running the processor, generated code has to compile without lint warnings
+     */
+    ClassLoader compile(JavaFileObject... sources) throws Exception {
+        File out = tmp.newFolder("classes");
+        List<String> messages = new ArrayList<>();
+        assertTrue(messages.toString(), compile(out, messages, sources));
+        return new URLClassLoader(new URL[]{out.toURI().toURL()}, getClass().getClassLoader());
+    }
+
+    /**
+     * @return true if compilation succeeded, diagnostics are added to messages
+     */
+    boolean compile(File out, List<String> messages, JavaFileObject... sources) throws Exception {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, null);
+        fileManager.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singletonList(out));
+        fileManager.setLocation(StandardLocation.SOURCE_OUTPUT, Collections.singletonList(out));
+        fileManager.setLocation(StandardLocation.CLASS_PATH,
+            Collections.singletonList(new File(FSTConfiguration.class.getProtectionDomain().getCodeSource().getLocation().toURI())));
+        JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics,
+            Arrays.asList("-Xlint:unchecked,rawtypes,cast", "-Werror"), null, Arrays.asList(sources));
+        task.setProcessors(Collections.singletonList(new FSTSerializerProcessor()));
+        boolean ok = task.call();
+        fileManager.close();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            messages.add(diagnostic.getKind() + " " + diagnostic.getMessage(null));
+        }
+        return ok;
+    }
+
+    static JavaFileObject source(String className, final String code) {
+        return new SimpleJavaFileObject(URI.create("string:///" + className.replace('.', '/') + ".java"), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return code;
+            }
+        };
+    }
+
+    static void set(Object obj, String name, Object value) throws Exception {
+        field(obj, name).set(obj, value);
+    }
+
+    static Object get(Object obj, String name) throws Exception {
+        return field(obj, name).get(obj);
+    }
+
+    static Field field(Object obj, String name) throws NoSuchFieldException {
+        for (Class c = obj.getClass(); c != null; c = c.getSuperclass()) {
+            try {
+                Field res = c.getDeclaredField(name);
+                res.setAccessible(true);
+                return res;
+            } catch (NoSuchFieldException e) {
+                // try superclass
+            }
+        }
+        throw new NoSuchFieldException(name);
+    }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014 Ruediger Moeller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nustaq.serialization.util;
+
+import org.junit.Test;
+import org.nustaq.serialization.FSTConfiguration;
+import org.nustaq.serialization.FSTObjectInput;
+import org.nustaq.serialization.FSTObjectOutput;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * reading from an InputStream discards consumed bytes instead of growing the buffer to the size of the stream
+ */
+public class FSTInputStreamTest {
+
+    static byte[] testData(int len) {
+        byte res[] = new byte[len];
+        for (int i = 0; i < len; i++) {
+            res[i] = (byte) (i * 31 + (i >>> 8));
+        }
+        return res;
+    }
+
+    @Test
+    public void compactsConsumedBytes() throws Exception {
+        byte data[] = testData(1000 * 1000);
+        FSTInputStream in = new FSTInputStream(new ByteArrayInputStream(data));
+        for (int i = 0; i < data.length; i += 100) {
+            in.ensureReadAhead(100);
+            for (int j = 0; j < 100; j++) {
+                assertEquals(i + j, in.getOff() + in.pos);
+                assertEquals(data[i + j], in.buf[in.pos++]);
+            }
+        }
+        assertTrue("buffer grew to " + in.buf.length, in.buf.length < 64 * 1024);
+        assertEquals(-1, in.read());
+        assertTrue(in.isFullyRead());
+    }
+
+    @Test
+    public void skipBeyondReadBytes() throws Exception {
+        byte data[] = testData(100 * 1000);
+        FSTInputStream in = new FSTInputStream(new ByteArrayInputStream(data));
+        in.pos += 50 * 1000; // as FSTStreamDecoder.skip, beyond the bytes read so far
+        in.ensureReadAhead(10);
+        assertEquals(50 * 1000, in.getOff() + in.pos);
+        assertEquals(data[50 * 1000], in.buf[in.pos]);
+    }
+
+    @Test
+    public void skipBytesBetweenObjects() throws Exception {
+        FSTConfiguration conf = FSTConfiguration.createDefaultConfiguration();
+        byte skipped[] = testData(100 * 1000);
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        FSTObjectOutput out = conf.getObjectOutput(bout);
+        for (int i = 0; i < 20; i++) {
+            out.writeObject("before" + i);
+            out.write(skipped);
+            out.writeObject("after" + i);
+        }
+        out.flush();
+
+        FSTObjectInput in = conf.getObjectInput(new ByteArrayInputStream(bout.toByteArray()));
+        for (int i = 0; i < 20; i++) {
+            assertEquals("before" + i, in.readObject());
+            assertEquals(skipped.length, in.skipBytes(skipped.length));
+            assertEquals("after" + i, in.readObject());
+        }
+    }
+
+}
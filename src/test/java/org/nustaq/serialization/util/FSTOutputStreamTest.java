@@ -0,0 +1,73 @@
+/*
+ * Copyright 2014 Ruediger Moeller.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nustaq.serialization.util;
+
+import org.junit.Test;
+import org.nustaq.serialization.FSTConfiguration;
+import org.nustaq.serialization.FSTObjectOutput;
+import org.nustaq.serialization.annotations.Conditional;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * incremental flushing (FSTConfiguration.setOutputFlushThreshold) writes the same bytes as buffering everything
+ */
+public class FSTOutputStreamTest {
+
+    public static class Payload implements Serializable {
+        String name;
+        @Conditional
+        Object data; // nested payloads nest reserved positions
+        Payload nested;
+
+        public Payload() {
+        }
+
+        Payload(int i, int size) {
+            name = "payload" + i;
+            int values[] = new int[size];
+            for (int j = 0; j < size; j++) {
+                values[j] = i * j;
+            }
+            data = size > 1 ? new Object[]{values, new Payload(i + 1, size / 2)} : values;
+            nested = size > 1000 ? new Payload(i + 2, 10) : null;
+        }
+    }
+
+    @Test
+    public void conditionalsWithFlushThreshold() throws Exception {
+        List<Payload> graph = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            graph.add(new Payload(i, 5000));
+        }
+        byte expected[] = FSTConfiguration.createDefaultConfiguration().asByteArray(graph);
+        for (int threshold : new int[]{1, 64, 1000, 32000, 1024 * 1024}) {
+            FSTConfiguration conf = FSTConfiguration.createDefaultConfiguration().setOutputFlushThreshold(threshold);
+            ByteArrayOutputStream bout = new ByteArrayOutputStream();
+            FSTObjectOutput out = conf.getObjectOutput(bout);
+            out.writeObject(graph);
+            out.flush();
+            assertArrayEquals("threshold " + threshold, expected, bout.toByteArray());
+            assertArrayEquals("threshold " + threshold, expected, conf.asByteArray(conf.asObject(bout.toByteArray())));
+        }
+    }
+
+}